@@ -68,6 +68,15 @@ public final class AnnotationConstants {
 
     /** the name of cipher element */
     public static final String cipher = "cipher";
+
+    /** the name of lazy element */
+    public static final String lazy = "lazy";
+
+    /** the name of codec element */
+    public static final String codec = "codec";
+
+    /** the name of compress element */
+    public static final String compress = "compress";
     
     /** {@code org.slim3.datastore.json.Json} */
     public static final String Json = "org.slim3.datastore.json.Json";
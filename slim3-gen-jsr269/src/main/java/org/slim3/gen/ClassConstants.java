@@ -57,6 +57,12 @@ public final class ClassConstants {
     /** {@code org.slim3.datastore.ModelRef} */
     public static final String ModelRef = "org.slim3.datastore.ModelRef";
 
+    /** {@code org.slim3.datastore.LazyLob} */
+    public static final String LazyLob = "org.slim3.datastore.LazyLob";
+
+    /** {@code org.slim3.datastore.LobCodec} */
+    public static final String LobCodec = "org.slim3.datastore.LobCodec";
+
     /** {@code org.slim3.datastore.InverseModelRef} */
     public static final String InverseModelRef =
         "org.slim3.datastore.InverseModelRef";
@@ -65,6 +71,10 @@ public final class ClassConstants {
     public static final String InverseModelListRef =
         "org.slim3.datastore.InverseModelListRef";
 
+    /** {@code org.slim3.datastore.AttributeGetter} */
+    public static final String AttributeGetter =
+        "org.slim3.datastore.AttributeGetter";
+
     /** {@code org.slim3.datastore.CoreAttributeMeta} */
     public static final String CoreAttributeMeta =
         "org.slim3.datastore.CoreAttributeMeta";
@@ -55,6 +55,12 @@ public class AttributeMetaDesc {
     /** the cipher */
     protected boolean cipher;
 
+    /** the lazy */
+    protected boolean lazy;
+
+    /** the compress */
+    protected boolean compress;
+
     /** the readMethodName */
     protected String readMethodName;
 
@@ -64,6 +70,9 @@ public class AttributeMetaDesc {
     /** the attributeListenerClassName */
     protected String attributeListenerClassName;
 
+    /** the codecClassName */
+    protected String codecClassName;
+
     /** the map of additional data */
     protected final Map<String, Object> dataMap = new HashMap<String, Object>();
 
@@ -185,6 +194,44 @@ public class AttributeMetaDesc {
         this.cipher = cipher;
     }
 
+    /**
+     * Determines if this large object is decoded on first access.
+     * 
+     * @return whether this large object is decoded on first access
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets whether this large object is decoded on first access.
+     * 
+     * @param lazy
+     *            whether this large object is decoded on first access
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Determines if this property is compressed.
+     * 
+     * @return whether this property is compressed
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Sets whether this property is compressed.
+     * 
+     * @param compress
+     *            whether this property is compressed
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
 
     /**
      * @return the readMethodName
@@ -266,6 +313,25 @@ public class AttributeMetaDesc {
         this.attributeListenerClassName = attributeListenerClassName;
     }
 
+    /**
+     * Returns the codec class name
+     * 
+     * @return the codec class name
+     */
+    public String getCodecClassName() {
+        return codecClassName;
+    }
+
+    /**
+     * Sets the codec class name
+     * 
+     * @param codecClassName
+     *            the codec class name
+     */
+    public void setCodecClassName(String codecClassName) {
+        this.codecClassName = codecClassName;
+    }
+
     /**
      * Returns an additional data.
      * 
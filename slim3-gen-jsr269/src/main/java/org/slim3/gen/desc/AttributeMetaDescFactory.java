@@ -17,6 +17,7 @@ package org.slim3.gen.desc;
 
 import org.slim3.datastore.Attribute;
 import org.slim3.datastore.AttributeListener;
+import org.slim3.datastore.LobCodec;
 import org.slim3.datastore.Model;
 import org.slim3.gen.AnnotationConstants;
 import org.slim3.gen.ClassConstants;
@@ -148,6 +149,10 @@ public class AttributeMetaDescFactory {
                     return false;
                 }
 
+                public boolean lazy() {
+                    return false;
+                }
+
                 public boolean unindexed() {
                     return false;
                 }
@@ -160,6 +165,14 @@ public class AttributeMetaDescFactory {
                     return AttributeListener.class;
                 }
 
+                public Class<?> codec() {
+                    return LobCodec.class;
+                }
+
+                public boolean compress() {
+                    return false;
+                }
+
                 public Class<? extends Annotation> annotationType() {
                     return null;
                 }
@@ -182,6 +195,9 @@ public class AttributeMetaDescFactory {
         if (attribute.lob()) {
             handleLob(attributeMetaDesc, classElement, fieldElement, attribute);
         }
+        if (attribute.lazy()) {
+            handleLazy(attributeMetaDesc, classElement, fieldElement, attribute);
+        }
         if (attribute.unindexed()) {
             handleUnindexed(
                     attributeMetaDesc,
@@ -204,6 +220,14 @@ public class AttributeMetaDescFactory {
                 classElement,
                 fieldElement,
                 attribute);
+        handleCodec(attributeMetaDesc, classElement, fieldElement, attribute);
+        if (attribute.compress()) {
+            handleCompress(
+                    attributeMetaDesc,
+                    classElement,
+                    fieldElement,
+                    attribute);
+        }
         if (attributeMetaDesc.isPersistent()) {
             DataType dataType = attributeMetaDesc.getDataType();
             if (dataType instanceof InverseModelRefType) {
@@ -420,6 +444,77 @@ public class AttributeMetaDescFactory {
         attributeMetaDesc.setLob(true);
     }
 
+    /**
+     * Handles a large object decoded on first access.
+     *
+     * @param attributeMetaDesc the attribute meta description
+     * @param classElement      the model class declaration
+     * @param fieldElement      the field declaration
+     * @param attribute         the Attribute annotation mirror
+     */
+    protected void handleLazy(AttributeMetaDesc attributeMetaDesc,
+                              TypeElement classElement, VariableElement fieldElement,
+                              Attribute attribute) {
+        if (!attribute.lob()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.lazy,
+                    AnnotationConstants.lob + " = false");
+        }
+        if (attribute.cipher()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.lazy,
+                    AnnotationConstants.cipher);
+        }
+        if (!ClassConstants.LazyLob.equals(attributeMetaDesc
+                .getDataType()
+                .getClassName())) {
+            if (classElement.equals(fieldElement.getEnclosingElement())) {
+                throw new ValidationException(
+                        MessageCode.SLIM3GEN1056,
+                        fieldElement);
+            }
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1057,
+                    classElement,
+                    fieldElement.getSimpleName(),
+                    fieldElement.getEnclosingElement().toString());
+        }
+        if (isLazyLobOfBytes(fieldElement.asType())) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1063,
+                    fieldElement);
+        }
+        attributeMetaDesc.setLazy(true);
+    }
+
+    /**
+     * Returns {@code true} if the type is {@code LazyLob<byte[]>}. A byte
+     * array is stored as a raw blob by the lob attributes that are not lazy,
+     * while {@code LazyLob} serializes it, so the existing data could not be
+     * read.
+     *
+     * @param type the type
+     * @return {@code true} if the type is {@code LazyLob<byte[]>}
+     */
+    protected boolean isLazyLobOfBytes(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        List<? extends TypeMirror> args = ((DeclaredType) type).getTypeArguments();
+        if (args.size() != 1 || args.get(0).getKind() != TypeKind.ARRAY) {
+            return false;
+        }
+        return ((javax.lang.model.type.ArrayType) args.get(0))
+                .getComponentType()
+                .getKind() == TypeKind.BYTE;
+    }
+
     /**
      * Handles unindexed.
      *
@@ -471,6 +566,52 @@ public class AttributeMetaDescFactory {
         attributeMetaDesc.setCipher(true);
     }
 
+    /**
+     * Handles compress.
+     *
+     * @param attributeMetaDesc the attribute meta description
+     * @param classElement      the model class declaration
+     * @param fieldElement      the field declaration
+     * @param attribute         the annotation mirror for Attribute
+     */
+    protected void handleCompress(AttributeMetaDesc attributeMetaDesc,
+                                  TypeElement classElement, VariableElement fieldElement,
+                                  Attribute attribute) {
+        if (!attribute.persistent()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.compress,
+                    AnnotationConstants.persistent + " = false");
+        }
+        if (attribute.cipher()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.compress,
+                    AnnotationConstants.cipher);
+        }
+        if (attribute.lazy()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.compress,
+                    AnnotationConstants.lazy);
+        }
+        String type = attributeMetaDesc.getDataType().getTypeName();
+        if (!attribute.lob()
+                && !type.equals(ClassConstants.Text)
+                && !type.equals(ClassConstants.Blob)) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1062,
+                    fieldElement);
+        }
+        attributeMetaDesc.setCompress(true);
+    }
+
     /**
      * Gets the class name of the class parameter.
      *
@@ -588,6 +729,94 @@ public class AttributeMetaDescFactory {
                         .toString());
     }
 
+    /**
+     * Handles the codec of a large object.
+     *
+     * @param attributeMetaDesc the attribute meta description
+     * @param classElement      the model class declaration
+     * @param fieldElement      the field declaration
+     * @param attribute         the Attribute annotation mirror
+     */
+    protected void handleCodec(AttributeMetaDesc attributeMetaDesc,
+                               TypeElement classElement, VariableElement fieldElement,
+                               Attribute attribute) {
+        AnnotationValue codec = null;
+        for (AnnotationMirror mirror : fieldElement.getAnnotationMirrors()) {
+            Map<? extends ExecutableElement, ? extends AnnotationValue> elementValues =
+                    mirror.getElementValues();
+            for (ExecutableElement e : elementValues.keySet()) {
+                if (AnnotationConstants.codec.equals(e
+                        .getSimpleName()
+                        .toString())) {
+                    codec = elementValues.get(e);
+                }
+            }
+        }
+        if (codec == null) {
+            return;
+        }
+        TypeElement codecClassType =
+                processingEnv.getElementUtils().getTypeElement(
+                        codec.getValue().toString());
+        if (codecClassType == null
+                || codecClassType.getQualifiedName().contentEquals(
+                ClassConstants.LobCodec)) {
+            return;
+        }
+        if (codecClassType.getKind() == ElementKind.INTERFACE) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1059,
+                    fieldElement);
+        }
+        if (!attribute.lob()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.codec,
+                    AnnotationConstants.lob + " = false");
+        }
+        if (attribute.lazy()) {
+            throwExceptionForConflictedElements(
+                    classElement,
+                    fieldElement,
+                    attribute,
+                    AnnotationConstants.codec,
+                    AnnotationConstants.lazy);
+        }
+        DataType dataType = attributeMetaDesc.getDataType();
+        if (dataType instanceof CoreReferenceType
+                || (dataType instanceof ArrayType && ArrayType.class
+                .cast(dataType)
+                .getComponentType()
+                .getClassName()
+                .equals(ClassConstants.primitive_byte))) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1061,
+                    fieldElement);
+        }
+        TypeElement lobCodecType =
+                processingEnv.getElementUtils().getTypeElement(
+                        ClassConstants.LobCodec);
+        if (!processingEnv.getTypeUtils().isAssignable(
+                codecClassType.asType(),
+                lobCodecType.asType())) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1060,
+                    fieldElement,
+                    codecClassType.getQualifiedName());
+        }
+        if (!DeclarationUtil.hasPublicDefaultConstructor(codecClassType)) {
+            throw new ValidationException(
+                    MessageCode.SLIM3GEN1058,
+                    fieldElement,
+                    codecClassType.getQualifiedName());
+        }
+        attributeMetaDesc.setCodecClassName(codecClassType
+                .getQualifiedName()
+                .toString());
+    }
+
     /**
      * Handles the attribute listener generics parameter.
      *
@@ -49,6 +49,10 @@ public class ModelMetaGenerator implements Generator {
     /** the model meta description */
     protected final ModelMetaDesc modelMetaDesc;
 
+    /** the attribute meta descriptions whose meta fields are generated */
+    protected final List<AttributeMetaDesc> attributeMetaFieldDescList =
+        new ArrayList<AttributeMetaDesc>();
+
     /**
      * Creates a new {@link ModelMetaGenerator}.
      * 
@@ -107,6 +111,7 @@ public class ModelMetaGenerator implements Generator {
         printModelListenerFields(printer);
         printAttributeMetaFields(printer);
         printAttributeListenerFields(printer);
+        printCodecFields(printer);
         printSingletonField(printer);
         printGetMethod(printer);
         printConstructor(printer);
@@ -166,6 +171,27 @@ public class ModelMetaGenerator implements Generator {
         }
     }
 
+    /**
+     * Generates codec fields.
+     * 
+     * @param printer
+     *            the printer
+     */
+    protected void printCodecFields(Printer printer) {
+        for (AttributeMetaDesc attr : modelMetaDesc.getAttributeMetaDescList()) {
+            if (!attr.isPersistent()) {
+                continue;
+            }
+            if (attr.getCodecClassName() != null) {
+                printer.println(
+                    "private static final %1$s slim3_%2$sCodec = new %1$s();",
+                    attr.getCodecClassName(),
+                    attr.getAttributeName());
+                printer.println();
+            }
+        }
+    }
+
     /**
      * Generates model listener fields.
      * 
@@ -226,9 +252,37 @@ public class ModelMetaGenerator implements Generator {
             }
             printer.printlnWithoutIndent("));");
         }
+        printAttributeGetters(printer);
         printer.println("}");
     }
 
+    /**
+     * Prints the getters of the attribute meta fields.
+     * 
+     * @param printer
+     *            the printer
+     */
+    protected void printAttributeGetters(Printer printer) {
+        for (AttributeMetaDesc attr : attributeMetaFieldDescList) {
+            if (attr.getReadMethodName() == null) {
+                continue;
+            }
+            printer.println(
+                "    %1$s.setGetter(new %2$s<%3$s>() {",
+                attr.getAttributeName(),
+                AttributeGetter,
+                modelMetaDesc.getModelClassName());
+            printer.println(
+                "        public Object getValue(%1$s model) {",
+                modelMetaDesc.getModelClassName());
+            printer.println(
+                "            return model.%1$s();",
+                attr.getReadMethodName());
+            printer.println("        }");
+            printer.println("    });");
+        }
+    }
+
     /**
      * Generates the {@code get} method.
      * 
@@ -615,10 +669,23 @@ public class ModelMetaGenerator implements Generator {
             this.printer = printer;
         }
 
+        /**
+         * Prints the comment of the attribute meta field and remembers the
+         * attribute.
+         * 
+         * @param attr
+         *            the attribute meta description
+         */
+        protected void printFieldComment(AttributeMetaDesc attr) {
+            printer.println("/** */");
+            attributeMetaFieldDescList.add(attr);
+        }
+
         /**
          * Generates attribute meta fields.
          */
         public void generate() {
+            attributeMetaFieldDescList.clear();
             for (AttributeMetaDesc attr : modelMetaDesc
                 .getAttributeMetaDescList()) {
                 if (!attr.isPersistent()) {
@@ -633,7 +700,7 @@ public class ModelMetaGenerator implements Generator {
         protected Void defaultAction(DataType type, AttributeMetaDesc p)
                 throws RuntimeException {
             if (p.isLob() || p.isUnindexed()) {
-                printer.println("/** */");
+                printFieldComment(p);
                 printer
                     .println(
                         "public final %1$s<%2$s, %3$s> %4$s = new %1$s<%2$s, %3$s>(this, \"%5$s\", \"%4$s\", %6$s.class);",
@@ -651,7 +718,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitCorePrimitiveType(CorePrimitiveType type,
                 AttributeMetaDesc p) throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             printer
                 .println(
                     "public final %1$s<%2$s, %3$s> %4$s = new %1$s<%2$s, %3$s>(this, \"%5$s\", \"%4$s\", %6$s.class);",
@@ -668,7 +735,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitCoreReferenceType(CoreReferenceType type,
                 AttributeMetaDesc p) throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             if (p.isLob() || p.isUnindexed()) {
                 printer
                     .println(
@@ -697,7 +764,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitModelRefType(ModelRefType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             printer
                 .println(
                     "public final %1$s<%2$s, %3$s, %4$s> %5$s = new %1$s<%2$s, %3$s, %4$s>(this, \"%6$s\", \"%5$s\", %7$s.class, %8$s.class);",
@@ -716,7 +783,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitKeyType(KeyType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             printer
                 .println(
                     "public final %1$s<%2$s, %3$s> %4$s = new %1$s<%2$s, %3$s>(this, \"%5$s\", \"%4$s\", %6$s.class);",
@@ -733,7 +800,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitStringType(StringType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             if (p.isLob() || p.isUnindexed()) {
                 printer
                     .println(
@@ -759,7 +826,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitBlobType(BlobType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             printer
                 .println(
                     "public final %1$s<%2$s, %3$s> %4$s = new %1$s<%2$s, %3$s>(this, \"%5$s\", \"%4$s\", %6$s.class);",
@@ -776,7 +843,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitTextType(TextType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             printer
                 .println(
                     "public final %1$s<%2$s, %3$s> %4$s = new %1$s<%2$s, %3$s>(this, \"%5$s\", \"%4$s\", %6$s.class);",
@@ -800,7 +867,7 @@ public class ModelMetaGenerator implements Generator {
                     @Override
                     public Void visitStringType(StringType type, Void p)
                             throws RuntimeException {
-                        printer.println("/** */");
+                        printFieldComment(attr);
                         if (attr.isLob() || attr.isUnindexed()) {
                             printer
                                 .println(
@@ -830,7 +897,7 @@ public class ModelMetaGenerator implements Generator {
                     public Void visitCoreReferenceType(
                             CoreReferenceType elementType, Void p)
                             throws RuntimeException {
-                        printer.println("/** */");
+                        printFieldComment(attr);
                         if (attr.isLob() || attr.isUnindexed()) {
                             printer
                                 .println(
@@ -866,7 +933,7 @@ public class ModelMetaGenerator implements Generator {
         @Override
         public Void visitArrayType(ArrayType type, AttributeMetaDesc p)
                 throws RuntimeException {
-            printer.println("/** */");
+            printFieldComment(p);
             if (p.isLob() || p.isUnindexed()) {
                 printer
                     .println(
@@ -940,6 +1007,13 @@ public class ModelMetaGenerator implements Generator {
                     if (!attr.isPersistent()) {
                         continue;
                     }
+                    if (attr.isLazy()) {
+                        printer.println(
+                            "model.%1$s(toLazyLob(entity.getProperty(\"%2$s\")));",
+                            attr.getWriteMethodName(),
+                            attr.getName());
+                        continue;
+                    }
                     DataType dataType = attr.getDataType();
                     dataType.accept(this, attr);
                 }
@@ -950,12 +1024,47 @@ public class ModelMetaGenerator implements Generator {
             printer.println();
         }
 
+        /**
+         * Returns the format to read the property of the attribute.
+         * 
+         * @param attr
+         *            the attribute meta description
+         * @param index
+         *            the argument index of the property name
+         * @return the format to read the property
+         */
+        protected String getPropertyFormat(AttributeMetaDesc attr, int index) {
+            String format = "entity.getProperty(\"%" + index + "$s\")";
+            if (attr.isCompress()) {
+                return "decompressProperty(" + format + ")";
+            }
+            return format;
+        }
+
         @Override
         protected Void defaultAction(DataType type, AttributeMetaDesc p)
                 throws RuntimeException {
+            if (p.getCodecClassName() != null) {
+                printer
+                    .println(
+                        "%1$s _%2$s = blobToObject(slim3_%2$sCodec, (%3$s) "
+                            + getPropertyFormat(p, 4)
+                            + ");",
+                        type.getTypeName(),
+                        p.getAttributeName(),
+                        Blob,
+                        p.getName());
+                printer.println(
+                    "model.%1$s(_%2$s);",
+                    p.getWriteMethodName(),
+                    p.getAttributeName());
+                return null;
+            }
             printer
                 .println(
-                    "%1$s _%2$s = blobToSerializable((%3$s) entity.getProperty(\"%4$s\"));",
+                    "%1$s _%2$s = blobToSerializable((%3$s) "
+                        + getPropertyFormat(p, 4)
+                        + ");",
                     type.getTypeName(),
                     p.getAttributeName(),
                     Blob,
@@ -1043,7 +1152,7 @@ public class ModelMetaGenerator implements Generator {
         public Void visitCoreReferenceType(CoreReferenceType type,
                 AttributeMetaDesc p) throws RuntimeException {
             printer.println(
-                "model.%1$s((%2$s) entity.getProperty(\"%3$s\"));",
+                "model.%1$s((%2$s) " + getPropertyFormat(p, 3) + ");",
                 p.getWriteMethodName(),
                 type.getTypeName(),
                 p.getName());
@@ -1101,7 +1210,9 @@ public class ModelMetaGenerator implements Generator {
             if (p.isLob()) {
                 printer
                     .println(
-                        "model.%1$s(textToString((%2$s) entity.getProperty(\"%3$s\")));",
+                        "model.%1$s(textToString((%2$s) "
+                            + getPropertyFormat(p, 3)
+                            + "));",
                         p.getWriteMethodName(),
                         Text,
                         p.getName());
@@ -1198,7 +1309,9 @@ public class ModelMetaGenerator implements Generator {
                             if (attr.isLob()) {
                                 printer
                                     .println(
-                                        "model.%1$s(blobToBytes((%2$s) entity.getProperty(\"%3$s\")));",
+                                        "model.%1$s(blobToBytes((%2$s) "
+                                            + getPropertyFormat(attr, 3)
+                                            + "));",
                                         attr.getWriteMethodName(),
                                         Blob,
                                         attr.getName());
@@ -1676,8 +1789,22 @@ public class ModelMetaGenerator implements Generator {
                     if (attr.isPrimaryKey()) {
                         continue;
                     }
+                    if (attr.isLazy()) {
+                        printer
+                            .println(
+                                "entity.setUnindexedProperty(\"%1$s\", lazyLobToProperty(m.%2$s()));",
+                                attr.getName(),
+                                attr.getReadMethodName());
+                        continue;
+                    }
                     DataType dataType = attr.getDataType();
                     dataType.accept(this, attr);
+                    if (attr.isCompress()) {
+                        printer
+                            .println(
+                                "entity.setUnindexedProperty(\"%1$s\", compressProperty(entity.getProperty(\"%1$s\")));",
+                                attr.getName());
+                    }
                 }
                 int schemaVersion = modelMetaDesc.getSchemaVersion();
                 if (schemaVersion > 0) {
@@ -1701,6 +1828,15 @@ public class ModelMetaGenerator implements Generator {
         @Override
         protected Void defaultAction(DataType type, AttributeMetaDesc p)
                 throws RuntimeException {
+            if (p.getCodecClassName() != null) {
+                printer
+                    .println(
+                        "entity.setUnindexedProperty(\"%1$s\", objectToBlob(slim3_%3$sCodec, m.%2$s()));",
+                        p.getName(),
+                        p.getReadMethodName(),
+                        p.getAttributeName());
+                return null;
+            }
             printer
                 .println(
                     "entity.setUnindexedProperty(\"%1$s\", serializableToBlob(m.%2$s()));",
@@ -146,7 +146,23 @@ public enum MessageCode {
     /** */
     SLIM3GEN1054("The coder[{0}] of @Json does not have a default constructor."),
     /** */
-    SLIM3GEN1055("The coder of @Json must not be an interface.");
+    SLIM3GEN1055("The coder of @Json must not be an interface."),
+    /** */
+    SLIM3GEN1056("The type annotated with @Attribute(lazy = true) must be org.slim3.datastore.LazyLob."),
+    /** */
+    SLIM3GEN1057("The type annotated with @Attribute(lazy = true) must be org.slim3.datastore.LazyLob. (the property[{0}] of the class[{1}])"),
+    /** */
+    SLIM3GEN1058("The codec[{0}] does not have a default constructor."),
+    /** */
+    SLIM3GEN1059("The codec must not be an interface."),
+    /** */
+    SLIM3GEN1060("The codec[{0}] must implement org.slim3.datastore.LobCodec."),
+    /** */
+    SLIM3GEN1061("The type annotated with @Attribute(codec = ...) must not be java.lang.String or byte[]."),
+    /** */
+    SLIM3GEN1062("The type annotated with @Attribute(compress = true) must be com.google.appengine.api.datastore.Text, com.google.appengine.api.datastore.Blob or a large object."),
+    /** */
+    SLIM3GEN1063("The type annotated with @Attribute(lazy = true) must not be org.slim3.datastore.LazyLob<byte[]>. Use byte[] or com.google.appengine.api.datastore.Blob instead.");
 
     /** the message */
     public final String message;
@@ -15,7 +15,12 @@
  */
 package org.slim3.test.model;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 import org.slim3.datastore.Attribute;
+import org.slim3.datastore.BinaryLobCodec;
+import org.slim3.datastore.LazyLob;
 import org.slim3.datastore.Model;
 
 import com.google.appengine.api.datastore.Key;
@@ -31,6 +36,15 @@ public class AttributeParameterSampleModel {
     @Attribute(lob = true)
     String text;
 
+    @Attribute(lob = true, lazy = true)
+    LazyLob<ArrayList<String>> lazyList;
+
+    @Attribute(lob = true, codec = BinaryLobCodec.class)
+    HashMap<String, Object> codecMap;
+
+    @Attribute(lob = true, compress = true)
+    String compressedText;
+
     @Attribute(cipher = true)
     String chiper;
 
@@ -154,6 +168,51 @@ public class AttributeParameterSampleModel {
         this.listener2 = listener2;
     }
 
+    /**
+     * @return the lazyList
+     */
+    public LazyLob<ArrayList<String>> getLazyList() {
+        return lazyList;
+    }
+
+    /**
+     * @param lazyList
+     *            the lazyList to set
+     */
+    public void setLazyList(LazyLob<ArrayList<String>> lazyList) {
+        this.lazyList = lazyList;
+    }
+
+    /**
+     * @return the codecMap
+     */
+    public HashMap<String, Object> getCodecMap() {
+        return codecMap;
+    }
+
+    /**
+     * @param codecMap
+     *            the codecMap to set
+     */
+    public void setCodecMap(HashMap<String, Object> codecMap) {
+        this.codecMap = codecMap;
+    }
+
+    /**
+     * @return the compressedText
+     */
+    public String getCompressedText() {
+        return compressedText;
+    }
+
+    /**
+     * @param compressedText
+     *            the compressedText to set
+     */
+    public void setCompressedText(String compressedText) {
+        this.compressedText = compressedText;
+    }
+
     /**
      * @return the version
      */
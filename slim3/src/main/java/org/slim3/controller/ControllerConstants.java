@@ -71,6 +71,16 @@ public final class ControllerConstants {
      */
     public static String ROOT_PACKAGE_KEY = "slim3.rootPackage";
 
+    /**
+     * The key of the switch to batch the gets of single keys in a request.
+     */
+    public static String AUTO_BATCH_KEY = "slim3.autoBatch";
+
+    /**
+     * The key of the switch to cache the entities got in a request.
+     */
+    public static String FIRST_LEVEL_CACHE_KEY = "slim3.firstLevelCache";
+
     /**
      * The key of cool package.
      */
@@ -18,6 +18,8 @@ package org.slim3.controller;
 import org.slim3.controller.router.Router;
 import org.slim3.controller.router.RouterFactory;
 import org.slim3.controller.validator.Errors;
+import org.slim3.datastore.FirstLevelCache;
+import org.slim3.datastore.GetBatcher;
 import org.slim3.util.*;
 
 import javax.servlet.*;
@@ -74,6 +76,16 @@ public class FrontController implements Filter {
      */
     protected String rootPackageName;
 
+    /**
+     * Whether the gets of single keys in a request are batched.
+     */
+    protected boolean autoBatch = false;
+
+    /**
+     * Whether the entities got in a request are cached.
+     */
+    protected boolean firstLevelCache = false;
+
     /**
      * UUID of this application.
      */
@@ -92,6 +104,8 @@ public class FrontController implements Filter {
         initDefaultLocale();
         initDefaultTimeZone();
         initRootPackageName();
+        initAutoBatch();
+        initFirstLevelCache();
     }
 
     /**
@@ -169,6 +183,24 @@ public class FrontController implements Filter {
         }
     }
 
+    /**
+     * Initializes the switch to batch the gets of single keys in a request.
+     */
+    protected void initAutoBatch() {
+        autoBatch =
+            BooleanUtil.toPrimitiveBoolean(servletContext
+                .getInitParameter(ControllerConstants.AUTO_BATCH_KEY));
+    }
+
+    /**
+     * Initializes the switch to cache the entities got in a request.
+     */
+    protected void initFirstLevelCache() {
+        firstLevelCache =
+            BooleanUtil.toPrimitiveBoolean(servletContext
+                .getInitParameter(ControllerConstants.FIRST_LEVEL_CACHE_KEY));
+    }
+
     public void destroy() {
         if (servletContextSet) {
             ServletContextLocator.set(null);
@@ -252,6 +284,14 @@ public class FrontController implements Filter {
         TimeZoneLocator.set(processTimeZone(request));
         ApplicationMessage.setBundle(bundleName, LocaleLocator.get());
         CipherFactory.getFactory().clearLimitedKey();
+        GetBatcher previousBatcher = GetBatcher.get();
+        if (autoBatch) {
+            GetBatcher.set(new GetBatcher());
+        }
+        FirstLevelCache previousCache = FirstLevelCache.get();
+        if (firstLevelCache) {
+            FirstLevelCache.set(new FirstLevelCache());
+        }
         try {
             Controller controller = getController(request, response, path);
             if (controller != null) {
@@ -261,6 +301,12 @@ public class FrontController implements Filter {
                 chain.doFilter(request, response);
             }
         } finally {
+            if (firstLevelCache) {
+                FirstLevelCache.set(previousCache);
+            }
+            if (autoBatch) {
+                GetBatcher.set(previousBatcher);
+            }
             ApplicationMessage.clearBundle();
             TimeZoneLocator.set(previousTimeZone);
             LocaleLocator.set(previousLocale);
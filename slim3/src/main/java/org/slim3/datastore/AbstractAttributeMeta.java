@@ -55,6 +55,11 @@ public abstract class AbstractAttributeMeta<M, A> implements CharSequence {
      */
     protected PropertyDesc propertyDesc;
 
+    /**
+     * The getter of the attribute value.
+     */
+    protected AttributeGetter<M> getter;
+
     /**
      * Constructor.
      * 
@@ -150,6 +155,26 @@ public abstract class AbstractAttributeMeta<M, A> implements CharSequence {
         return attributeName;
     }
 
+    /**
+     * Returns the getter of the attribute value.
+     * 
+     * @return the getter of the attribute value
+     */
+    public AttributeGetter<M> getGetter() {
+        return getter;
+    }
+
+    /**
+     * Sets the getter of the attribute value. If no getter is set, the value
+     * is read by reflection.
+     * 
+     * @param getter
+     *            the getter of the attribute value
+     */
+    public void setGetter(AttributeGetter<M> getter) {
+        this.getter = getter;
+    }
+
     /**
      * Returns the property value.
      * 
@@ -159,7 +184,11 @@ public abstract class AbstractAttributeMeta<M, A> implements CharSequence {
      * @throws IllegalArgumentException
      *             if the property is not found
      */
+    @SuppressWarnings("unchecked")
     protected Object getValue(Object model) throws IllegalArgumentException {
+        if (getter != null) {
+            return getter.getValue((M) model);
+        }
         if (propertyDesc == null) {
             propertyDesc =
                 modelMeta.getBeanDesc().getPropertyDesc(attributeName);
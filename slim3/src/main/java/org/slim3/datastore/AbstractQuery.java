@@ -16,8 +16,12 @@
 package org.slim3.datastore;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.slim3.repackaged.com.google.gdata.util.common.util.Base64;
 import org.slim3.repackaged.com.google.gdata.util.common.util.Base64DecoderException;
@@ -25,6 +29,7 @@ import org.slim3.util.AppEngineUtil;
 import org.slim3.util.ByteUtil;
 import org.slim3.util.ThrowableUtil;
 
+import com.google.appengine.api.NamespaceManager;
 import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Entity;
@@ -52,6 +57,14 @@ import com.google.appengine.api.datastore.Transaction;
  */
 public abstract class AbstractQuery<SUB> {
 
+    /**
+     * The maximum number of the sub-queries run by
+     * {@link #asEntityListInParallel()}. If the filters are split into more
+     * sub-queries, the query is passed to datastore as it is, which merges at
+     * most 30 sub-queries.
+     */
+    public static final int MAX_PARALLEL_QUERIES = 100;
+
     /**
      * The asynchronous datastore service.
      */
@@ -271,6 +284,39 @@ public abstract class AbstractQuery<SUB> {
         return (SUB) this;
     }
 
+    /**
+     * Copies the fetch options replacing the offset and the limit. The fetch
+     * options of this query are not changed.
+     * 
+     * @param offset
+     *            the offset or null
+     * @param limit
+     *            the limit or null
+     * @return the copied fetch options
+     */
+    protected FetchOptions copyFetchOptions(Integer offset, Integer limit) {
+        FetchOptions options = FetchOptions.Builder.withDefaults();
+        if (offset != null) {
+            options.offset(offset);
+        }
+        if (limit != null) {
+            options.limit(limit);
+        }
+        if (fetchOptions.getPrefetchSize() != null) {
+            options.prefetchSize(fetchOptions.getPrefetchSize());
+        }
+        if (fetchOptions.getChunkSize() != null) {
+            options.chunkSize(fetchOptions.getChunkSize());
+        }
+        if (fetchOptions.getStartCursor() != null) {
+            options.startCursor(fetchOptions.getStartCursor());
+        }
+        if (fetchOptions.getEndCursor() != null) {
+            options.endCursor(fetchOptions.getEndCursor());
+        }
+        return options;
+    }
+
     /**
      * Specifies the size of prefetch.
      * 
@@ -626,6 +672,180 @@ public abstract class AbstractQuery<SUB> {
         return pq.asList(fetchOptions);
     }
 
+    /**
+     * Returns entities as list running the sub-queries of IN and OR filters
+     * concurrently. The filters are split into the disjunctive normal form,
+     * each part is sent as an independent query, and the sorted results are
+     * merged by the sort orders removing duplicate keys. The number of the
+     * queries in flight is limited to
+     * {@link AsyncDatastoreDelegate#getBatchParallelism()}. Returns null if the
+     * filters have no IN or OR filter, if they are split into more than
+     * {@link #MAX_PARALLEL_QUERIES} sub-queries, if a cursor is specified or
+     * if properties are projected.
+     * 
+     * @return entities as list or null
+     */
+    protected List<Entity> asEntityListInParallel() {
+        if (filters.isEmpty()
+            || !query.getProjections().isEmpty()
+            || fetchOptions.getStartCursor() != null
+            || fetchOptions.getEndCursor() != null) {
+            return null;
+        }
+        List<List<Query.Filter>> disjuncts =
+            DatastoreUtil.toDisjunctiveFilters(filters, MAX_PARALLEL_QUERIES);
+        if (disjuncts == null || disjuncts.size() <= 1) {
+            return null;
+        }
+        Integer offset = fetchOptions.getOffset();
+        Integer limit = fetchOptions.getLimit();
+        int skip = offset != null ? offset : 0;
+        FetchOptions subOptions = FetchOptions.Builder.withDefaults();
+        if (limit != null) {
+            subOptions.limit(skip + limit);
+        }
+        if (fetchOptions.getPrefetchSize() != null) {
+            subOptions.prefetchSize(fetchOptions.getPrefetchSize());
+        }
+        if (fetchOptions.getChunkSize() != null) {
+            subOptions.chunkSize(fetchOptions.getChunkSize());
+        }
+        int parallelism = Datastore.asyncDelegate().getBatchParallelism();
+        List<Iterator<Entity>> iterators =
+            new ArrayList<Iterator<Entity>>(disjuncts.size());
+        for (List<Query.Filter> disjunct : disjuncts) {
+            Query q = createSubQuery();
+            if (query.isKeysOnly()) {
+                q.setKeysOnly();
+            }
+            for (SortPredicate sp : query.getSortPredicates()) {
+                q.addSort(sp.getPropertyName(), sp.getDirection());
+            }
+            q.setFilter(disjunct.size() == 1
+                ? disjunct.get(0)
+                : new Query.CompositeFilter(
+                    CompositeFilterOperator.AND,
+                    disjunct));
+            PreparedQuery pq = txSet ? ds.prepare(tx, q) : ds.prepare(q);
+            iterators.add(pq.asList(subOptions).iterator());
+            if (iterators.size() > parallelism) {
+                iterators.get(iterators.size() - parallelism - 1).hasNext();
+            }
+        }
+        return mergeEntityLists(
+            iterators,
+            new EntityComparator(getMergeSorts(disjuncts.get(0))),
+            skip,
+            limit);
+    }
+
+    /**
+     * Creates a sub-query of the same kind, ancestor and namespace as this
+     * query.
+     * 
+     * @return a sub-query
+     */
+    protected Query createSubQuery() {
+        String namespace = NamespaceManager.get();
+        NamespaceManager.set(query.getNamespace());
+        try {
+            return new Query(query.getKind(), query.getAncestor());
+        } finally {
+            NamespaceManager.set(namespace);
+        }
+    }
+
+    /**
+     * Returns the sort orders to merge the results of the sub-queries. If no
+     * sort order is specified and the filters have an inequality filter, the
+     * results are sorted by the property of the inequality filter.
+     * 
+     * @param disjunct
+     *            the filters of a sub-query
+     * @return the sort orders
+     */
+    protected List<SortPredicate> getMergeSorts(List<Query.Filter> disjunct) {
+        List<SortPredicate> sorts = query.getSortPredicates();
+        if (!sorts.isEmpty()) {
+            return sorts;
+        }
+        List<SortPredicate> ret = new ArrayList<SortPredicate>();
+        for (Query.Filter f : disjunct) {
+            if (!(f instanceof Query.FilterPredicate)) {
+                continue;
+            }
+            Query.FilterPredicate fp = (Query.FilterPredicate) f;
+            FilterOperator op = fp.getOperator();
+            if (op == FilterOperator.LESS_THAN
+                || op == FilterOperator.LESS_THAN_OR_EQUAL
+                || op == FilterOperator.GREATER_THAN
+                || op == FilterOperator.GREATER_THAN_OR_EQUAL
+                || op == FilterOperator.NOT_EQUAL) {
+                ret.add(new SortPredicate(
+                    fp.getPropertyName(),
+                    SortDirection.ASCENDING));
+                break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Merges the sorted results removing duplicate keys.
+     * 
+     * @param iterators
+     *            the sorted results
+     * @param comparator
+     *            the comparator of the sort orders
+     * @param offset
+     *            the number of the entities to skip
+     * @param limit
+     *            the maximum number of the entities or null
+     * @return the merged entities
+     */
+    protected static List<Entity> mergeEntityLists(
+            List<Iterator<Entity>> iterators,
+            final Comparator<Entity> comparator, int offset, Integer limit) {
+        PriorityQueue<Head> heads =
+            new PriorityQueue<Head>(
+                Math.max(iterators.size(), 1),
+                new Comparator<Head>() {
+                    public int compare(Head h1, Head h2) {
+                        int compared = comparator.compare(h1.entity, h2.entity);
+                        if (compared != 0) {
+                            return compared;
+                        }
+                        return h1.index - h2.index;
+                    }
+                });
+        for (int i = 0; i < iterators.size(); i++) {
+            Iterator<Entity> it = iterators.get(i);
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), it, i));
+            }
+        }
+        List<Entity> ret = new ArrayList<Entity>();
+        Set<Key> seen = new HashSet<Key>();
+        int skipped = 0;
+        while (!heads.isEmpty() && (limit == null || ret.size() < limit)) {
+            Head head = heads.poll();
+            if (seen.add(head.entity.getKey())) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    ret.add(head.entity);
+                }
+            }
+            if (head.iterator.hasNext()) {
+                heads.add(new Head(
+                    head.iterator.next(),
+                    head.iterator,
+                    head.index));
+            }
+        }
+        return ret;
+    }
+
     /**
      * Returns entities as query result list.
      * 
@@ -642,8 +862,20 @@ public abstract class AbstractQuery<SUB> {
      * @return entities as query result iterator
      */
     protected QueryResultIterator<Entity> asQueryResultEntityIterator() {
+        return asQueryResultEntityIterator(fetchOptions);
+    }
+
+    /**
+     * Returns entities as query result iterator using the fetch options.
+     * 
+     * @param options
+     *            the fetch options
+     * @return entities as query result iterator
+     */
+    protected QueryResultIterator<Entity> asQueryResultEntityIterator(
+            FetchOptions options) {
         PreparedQuery pq = prepareQuery();
-        return pq.asQueryResultIterator(fetchOptions);
+        return pq.asQueryResultIterator(options);
     }
 
     /**
@@ -809,8 +1041,19 @@ public abstract class AbstractQuery<SUB> {
      * @return entities as {@link Iterator}
      */
     public Iterator<Entity> asEntityIterator() {
+        return asEntityIterator(fetchOptions);
+    }
+
+    /**
+     * Returns entities as {@link Iterator} using the fetch options.
+     * 
+     * @param options
+     *            the fetch options
+     * @return entities as {@link Iterator}
+     */
+    protected Iterator<Entity> asEntityIterator(FetchOptions options) {
         PreparedQuery pq = prepareQuery();
-        return pq.asIterator(fetchOptions);
+        return pq.asIterator(options);
     }
 
     /**
@@ -818,12 +1061,62 @@ public abstract class AbstractQuery<SUB> {
      * 
      */
     protected void applyFilter() {
+        if (filters.size() > 0) {
+            query.setFilter(createFilter());
+        }
+    }
+
+    /**
+     * Creates the filter applied to the query without changing the query.
+     * 
+     * @return the filter
+     */
+    protected Query.Filter createFilter() {
         if (filters.size() == 1) {
-            query.setFilter(filters.get(0));
+            return filters.get(0);
         } else if (filters.size() > 1) {
-            query.setFilter(new Query.CompositeFilter(
+            return new Query.CompositeFilter(
                 CompositeFilterOperator.AND,
-                filters));
+                new ArrayList<Query.Filter>(filters));
+        }
+        return query.getFilter();
+    }
+
+    /**
+     * The head of a sorted result.
+     * 
+     */
+    protected static class Head {
+
+        /**
+         * The current entity.
+         */
+        protected Entity entity;
+
+        /**
+         * The iterator of the rest.
+         */
+        protected Iterator<Entity> iterator;
+
+        /**
+         * The index of the sub-query.
+         */
+        protected int index;
+
+        /**
+         * Constructor.
+         * 
+         * @param entity
+         *            the current entity
+         * @param iterator
+         *            the iterator of the rest
+         * @param index
+         *            the index of the sub-query
+         */
+        protected Head(Entity entity, Iterator<Entity> iterator, int index) {
+            this.entity = entity;
+            this.iterator = iterator;
+            this.index = index;
         }
     }
-}
\ No newline at end of file
+}
@@ -15,6 +15,8 @@
  */
 package org.slim3.datastore;
 
+import com.google.appengine.api.datastore.Key;
+
 /**
  * An abstract class for Unit of Work
  * 
@@ -52,4 +54,16 @@ public abstract class AbstractUow {
      * Rolls back a transaction.
      */
     protected abstract void rollback();
+
+    /**
+     * Returns a key in the entity group updated by this unit of work. The
+     * contentions on the entity group are counted by
+     * {@link ContentionCounter}. The default implementation returns null and
+     * the contentions are not counted.
+     * 
+     * @return a key in the entity group
+     */
+    protected Key getEntityGroupKey() {
+        return null;
+    }
 }
\ No newline at end of file
@@ -15,13 +15,26 @@
  */
 package org.slim3.datastore;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slim3.util.DoubleUtil;
+import org.slim3.util.FakeFuture;
+import org.slim3.util.FuturePoller;
+import org.slim3.util.IntegerUtil;
+import org.slim3.util.RequestThreadExecutor;
 
 import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceConfig;
@@ -52,6 +65,16 @@ public class AsyncDatastoreDelegate {
      */
     public static final String USE_XGTX = "slim3.useXGTX";
 
+    /**
+     * The key of the maximum number of batch calls in flight.
+     */
+    public static final String BATCH_PARALLELISM = "slim3.batchParallelism";
+
+    /**
+     * The default maximum number of batch calls in flight.
+     */
+    public static final int DEFAULT_BATCH_PARALLELISM = 10;
+
     /**
      * The deadline(seconds).
      */
@@ -72,6 +95,12 @@ public class AsyncDatastoreDelegate {
      */
     protected TransactionOptions txOps;
 
+    /**
+     * The maximum number of batch calls in flight when a large batch operation
+     * is split into chunks.
+     */
+    protected int batchParallelism;
+
     /**
      * Constructor.
      */
@@ -126,6 +155,73 @@ public class AsyncDatastoreDelegate {
         } else {
             txOps = TransactionOptions.Builder.withDefaults();
         }
+        Integer parallelism =
+            IntegerUtil.toInteger(System.getProperty(BATCH_PARALLELISM));
+        batchParallelism =
+            parallelism != null ? parallelism : DEFAULT_BATCH_PARALLELISM;
+    }
+
+    /**
+     * Returns the maximum number of batch calls in flight.
+     * 
+     * @return the maximum number of batch calls in flight
+     */
+    public int getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    /**
+     * Sets the maximum number of batch calls in flight. When a batch operation
+     * has more entities than {@link DatastoreUtil#MAX_NUMBER_OF_ENTITIES} or
+     * its size exceeds {@link DatastoreUtil#MAX_ENTITY_SIZE}, it is split into
+     * chunks and the chunks are sent concurrently up to this number. The
+     * chunks over this number are queued and sent as the preceding calls
+     * complete without blocking the caller.
+     * 
+     * @param batchParallelism
+     *            the maximum number of batch calls in flight
+     * @throws IllegalArgumentException
+     *             if the batchParallelism parameter is less than 1
+     */
+    public void setBatchParallelism(int batchParallelism)
+            throws IllegalArgumentException {
+        if (batchParallelism < 1) {
+            throw new IllegalArgumentException(
+                "The batchParallelism parameter("
+                    + batchParallelism
+                    + ") must be greater than 0.");
+        }
+        this.batchParallelism = batchParallelism;
+    }
+
+    /**
+     * Returns the maximum number of batch calls in flight for the chunks.
+     * Within a transaction, all the chunks are sent at once so that the
+     * commit covers all of them.
+     * 
+     * @param tx
+     *            the transaction
+     * @param size
+     *            the number of the chunks
+     * @return the maximum number of batch calls in flight
+     */
+    protected int getBatchParallelism(Transaction tx, int size) {
+        return tx != null ? size : batchParallelism;
+    }
+
+    /**
+     * Checks if the transaction is active.
+     * 
+     * @param tx
+     *            the transaction
+     * @throws IllegalStateException
+     *             if the transaction is not null and the transaction is not
+     *             active
+     */
+    protected void checkTx(Transaction tx) throws IllegalStateException {
+        if (tx != null && !tx.isActive()) {
+            throw new IllegalStateException("The transaction must be active.");
+        }
     }
 
     /**
@@ -563,9 +659,8 @@ public class AsyncDatastoreDelegate {
             throw new NullPointerException(
                 "The key parameter must not be null.");
         }
-        return new FutureWrapper<Map<Key, Entity>, Entity>(getAsMapAsync(
-            tx,
-            Arrays.asList(key))) {
+        return new FutureWrapper<Map<Key, Entity>, Entity>(
+            getAsMapAsyncForKey(tx, key)) {
 
             @Override
             protected Throwable convertException(Throwable throwable) {
@@ -664,9 +759,12 @@ public class AsyncDatastoreDelegate {
      */
     public Future<Entity> getOrNullAsync(Transaction tx, final Key key)
             throws NullPointerException, IllegalStateException {
-        return new FutureWrapper<Map<Key, Entity>, Entity>(getAsMapAsync(
-            tx,
-            key)) {
+        if (key == null) {
+            throw new NullPointerException(
+                "The key parameter must not be null.");
+        }
+        return new FutureWrapper<Map<Key, Entity>, Entity>(
+            getAsMapAsyncForKey(tx, key)) {
 
             @Override
             protected Throwable convertException(Throwable throwable) {
@@ -727,7 +825,13 @@ public class AsyncDatastoreDelegate {
     public <M> Future<M> getOrNullAsync(Transaction tx,
             final ModelMeta<M> modelMeta, final Key key)
             throws NullPointerException, IllegalStateException {
-        return new FutureWrapper<Map<Key, Entity>, M>(getAsMapAsync(tx, key)) {
+        if (key == null) {
+            throw new NullPointerException(
+                "The key parameter must not be null.");
+        }
+        return new FutureWrapper<Map<Key, Entity>, M>(getAsMapAsyncForKey(
+            tx,
+            key)) {
 
             @Override
             protected Throwable convertException(Throwable throwable) {
@@ -835,6 +939,31 @@ public class AsyncDatastoreDelegate {
         };
     }
 
+    /**
+     * Returns an entity specified by the key as map asynchronously. If a
+     * {@link GetBatcher} is bound to the current thread and the transaction
+     * is null, the key is queued to the batcher.
+     * 
+     * @param tx
+     *            the transaction
+     * @param key
+     *            the key
+     * @return entities represented as {@link Future}
+     * @throws IllegalStateException
+     *             if the transaction is not null and the transaction is not
+     *             active
+     */
+    protected Future<Map<Key, Entity>> getAsMapAsyncForKey(Transaction tx,
+            Key key) throws IllegalStateException {
+        if (tx == null) {
+            GetBatcher batcher = GetBatcher.get();
+            if (batcher != null) {
+                return batcher.add(this, key);
+            }
+        }
+        return getAsMapAsync(tx, Arrays.asList(key));
+    }
+
     /**
      * Returns entities specified by the keys asynchronously. If there is a
      * current transaction, this operation will execute within that transaction.
@@ -1439,7 +1568,107 @@ public class AsyncDatastoreDelegate {
     public Future<Map<Key, Entity>> getAsMapAsync(Transaction tx,
             Iterable<Key> keys) throws NullPointerException,
             IllegalStateException {
-        return DatastoreUtil.getAsMapAsync(ds, tx, keys);
+        final FirstLevelCache cache = tx == null ? FirstLevelCache.get() : null;
+        if (cache == null) {
+            return getAsMapAsyncThroughCache(tx, keys);
+        }
+        final Map<Key, Entity> found = new HashMap<Key, Entity>();
+        final long writeCount = cache.getWriteCount();
+        final List<Key> misses = cache.lookup(keys, found);
+        if (misses.isEmpty()) {
+            return new FakeFuture<Map<Key, Entity>>(found);
+        }
+        return new FutureWrapper<Map<Key, Entity>, Map<Key, Entity>>(
+            getAsMapAsyncThroughCache(tx, misses)) {
+
+            @Override
+            protected Throwable convertException(Throwable throwable) {
+                return throwable;
+            }
+
+            @Override
+            protected Map<Key, Entity> wrap(Map<Key, Entity> map)
+                    throws Exception {
+                cache.putAll(misses, map, writeCount);
+                found.putAll(map);
+                return found;
+            }
+        };
+    }
+
+    /**
+     * Returns entities specified by the keys within the provided transaction
+     * asynchronously looking up {@link SecondLevelCache} if the transaction is
+     * null.
+     * 
+     * @param tx
+     *            the transaction
+     * @param keys
+     *            the keys
+     * @return entities represented as {@link Future}
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     * @throws IllegalStateException
+     *             if the transaction is not null and the transaction is not
+     *             active
+     */
+    protected Future<Map<Key, Entity>> getAsMapAsyncThroughCache(
+            Transaction tx, Iterable<Key> keys) throws NullPointerException,
+            IllegalStateException {
+        if (tx == null && SecondLevelCache.isEnabled()) {
+            return SecondLevelCache.getAsMapAsync(this, keys);
+        }
+        return getAsMapAsyncFromDatastore(tx, keys);
+    }
+
+    /**
+     * Returns entities specified by the keys within the provided transaction
+     * asynchronously without {@link FirstLevelCache} and
+     * {@link SecondLevelCache}.
+     * 
+     * @param tx
+     *            the transaction
+     * @param keys
+     *            the keys
+     * @return entities represented as {@link Future}
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     * @throws IllegalStateException
+     *             if the transaction is not null and the transaction is not
+     *             active
+     */
+    protected Future<Map<Key, Entity>> getAsMapAsyncFromDatastore(
+            Transaction tx, Iterable<Key> keys) throws NullPointerException,
+            IllegalStateException {
+        List<List<Key>> chunks = DatastoreUtil.splitKeys(keys);
+        if (chunks.size() <= 1) {
+            return DatastoreUtil.getAsMapAsync(ds, tx, keys);
+        }
+        checkTx(tx);
+        final Transaction t = tx;
+        List<Future<Map<Key, Entity>>> futures =
+            new BatchQueue<Key, Map<Key, Entity>>(chunks) {
+
+                @Override
+                protected Future<Map<Key, Entity>> send(List<Key> chunk) {
+                    return DatastoreUtil.getAsMapAsync(ds, t, chunk);
+                }
+            }.start(getBatchParallelism(tx, chunks.size()));
+        return new BatchFuture<Map<Key, Entity>, Map<Key, Entity>>(
+            futures,
+            tx != null) {
+
+            @Override
+            protected Map<Key, Entity> merge(List<Map<Key, Entity>> results) {
+                Map<Key, Entity> map = new HashMap<Key, Entity>();
+                for (Map<Key, Entity> m : results) {
+                    if (m != null) {
+                        map.putAll(m);
+                    }
+                }
+                return map;
+            }
+        };
     }
 
     /**
@@ -1578,6 +1807,133 @@ public class AsyncDatastoreDelegate {
         return getAsMapAsync(tx, modelMeta, Arrays.asList(keys));
     }
 
+    /**
+     * Fills the models of the {@link ModelRef}s specified by the attribute
+     * meta data asynchronously. The referenced keys of all the models are
+     * collected and read by one batch get without transaction, so that later
+     * calls of {@link ModelRef#getModel()} do not access datastore. The
+     * {@link ModelRef}s that already have a model or have no key are skipped,
+     * and the {@link ModelRef}s that refer to the same key share the same
+     * model.
+     * 
+     * @param models
+     *            the models
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @return {@link Future}
+     * @throws NullPointerException
+     *             if the models parameter is null or if the attributeMetas
+     *             parameter is null or if the element of the models parameter
+     *             is null or if the element of the attributeMetas parameter is
+     *             null
+     */
+    public Future<Void> prefetchAsync(Iterable<?> models,
+            Iterable<? extends ModelRefAttributeMeta<?, ?, ?>> attributeMetas)
+            throws NullPointerException {
+        if (models == null) {
+            throw new NullPointerException(
+                "The models parameter must not be null.");
+        }
+        if (attributeMetas == null) {
+            throw new NullPointerException(
+                "The attributeMetas parameter must not be null.");
+        }
+        final List<ModelRef<?>> refs = new ArrayList<ModelRef<?>>();
+        Set<Key> keys = new LinkedHashSet<Key>();
+        for (Object model : models) {
+            if (model == null) {
+                throw new NullPointerException(
+                    "The element of the models parameter must not be null.");
+            }
+            for (ModelRefAttributeMeta<?, ?, ?> attributeMeta : attributeMetas) {
+                if (attributeMeta == null) {
+                    throw new NullPointerException(
+                        "The element of the attributeMetas parameter must not be null.");
+                }
+                ModelRef<?> ref = (ModelRef<?>) attributeMeta.getValue(model);
+                if (ref == null || ref.model != null || ref.getKey() == null) {
+                    continue;
+                }
+                refs.add(ref);
+                keys.add(ref.getKey());
+            }
+        }
+        if (keys.isEmpty()) {
+            return new FakeFuture<Void>(null);
+        }
+        return new FutureWrapper<Map<Key, Entity>, Void>(getAsMapAsync(
+            (Transaction) null,
+            keys)) {
+
+            @Override
+            protected Throwable convertException(Throwable throwable) {
+                return throwable;
+            }
+
+            @Override
+            protected Void wrap(Map<Key, Entity> map) throws Exception {
+                Map<Key, Object> loaded = new HashMap<Key, Object>();
+                for (ModelRef<?> ref : refs) {
+                    fill(ref, map, loaded);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Fills the models of the {@link ModelRef}s specified by the attribute
+     * meta data asynchronously.
+     * 
+     * @param models
+     *            the models
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @return {@link Future}
+     * @throws NullPointerException
+     *             if the models parameter is null or if the element of the
+     *             models parameter is null or if the element of the
+     *             attributeMetas parameter is null
+     * @see #prefetchAsync(Iterable, Iterable)
+     */
+    public Future<Void> prefetchAsync(Iterable<?> models,
+            ModelRefAttributeMeta<?, ?, ?>... attributeMetas)
+            throws NullPointerException {
+        return prefetchAsync(models, Arrays.asList(attributeMetas));
+    }
+
+    /**
+     * Sets the model read from datastore to the {@link ModelRef}.
+     * 
+     * @param <RM>
+     *            the reference model type
+     * @param ref
+     *            the {@link ModelRef}
+     * @param entities
+     *            the entities read from datastore
+     * @param loaded
+     *            the models already converted from the entities
+     */
+    protected static <RM> void fill(ModelRef<RM> ref,
+            Map<Key, Entity> entities, Map<Key, Object> loaded) {
+        Key key = ref.getKey();
+        Object model = loaded.get(key);
+        if (model == null) {
+            Entity entity = entities.get(key);
+            if (entity == null) {
+                return;
+            }
+            ModelMeta<RM> mm =
+                DatastoreUtil.getModelMeta(ref.getModelMeta(), entity);
+            mm.validateKey(key);
+            RM m = mm.entityToModel(entity);
+            mm.postGet(m);
+            loaded.put(key, m);
+            model = m;
+        }
+        ref.model = ref.getModelClass().cast(model);
+    }
+
     /**
      * Puts the entity to datastore asynchronously. If there is a current
      * transaction, this operation will execute within that transaction.
@@ -1655,26 +2011,44 @@ public class AsyncDatastoreDelegate {
             throw new NullPointerException(
                 "The entity parameter must not be null.");
         }
-        return new FutureWrapper<List<Key>, Key>(DatastoreUtil.putAsync(
-            ds,
-            tx,
-            Arrays.asList(entity))) {
-
-            @Override
-            protected Throwable convertException(Throwable throwable) {
-                return throwable;
-            }
+        boolean newKey = !entity.getKey().isComplete();
+        Future<Key> future =
+            new FutureWrapper<List<Key>, Key>(DatastoreUtil.putAsync(
+                ds,
+                tx,
+                Arrays.asList(entity))) {
+
+                @Override
+                protected Throwable convertException(Throwable throwable) {
+                    return throwable;
+                }
 
-            @Override
-            protected Key wrap(List<Key> list) throws Exception {
-                return list.get(0);
-            }
-        };
+                @Override
+                protected Key wrap(List<Key> list) throws Exception {
+                    return list.get(0);
+                }
+            };
+        if (!newKey) {
+            SecondLevelCache.lock(entity.getKey());
+        }
+        QueryCache.invalidate(entity.getKey());
+        FirstLevelCache cache = FirstLevelCache.get();
+        if (cache != null) {
+            cache.write(Arrays.asList(entity.getKey()), tx, future);
+        }
+        return future;
     }
 
     /**
      * Puts the model to datastore within the provided transaction
-     * asynchronously.
+     * asynchronously. If the model has no key and no id is pooled for the
+     * kind, the id is allocated asynchronously outside of transactions. When
+     * the allocation completes, the key is set to the model and the put is
+     * issued by the {@link FuturePoller} of the current request, so the put
+     * does not wait for the returned future to be resolved. The key of the
+     * model is available once the returned future is done. Within a
+     * transaction, the key is assigned before this method returns, because a
+     * put issued after the allocation could miss the commit.
      * 
      * @param tx
      *            the transaction
@@ -1687,10 +2061,37 @@ public class AsyncDatastoreDelegate {
      *             if the transaction is not null and the transaction is not
      *             active
      */
-    public Future<Key> putAsync(Transaction tx, Object model)
+    public Future<Key> putAsync(Transaction tx, final Object model)
             throws NullPointerException, IllegalStateException {
-        Entity entity = DatastoreUtil.modelToEntity(ds, model);
-        return putAsync(tx, entity);
+        if (model == null) {
+            throw new NullPointerException(
+                "The model parameter must not be null.");
+        }
+        final ModelMeta<?> modelMeta =
+            DatastoreUtil.getModelMeta(model.getClass());
+        if (tx != null
+            || modelMeta.getKey(model) != null
+            || KeyRangePool.getPoolSize(modelMeta.getKind()) > 1) {
+            return putAsync(tx, DatastoreUtil.modelToEntity(ds, model));
+        }
+        modelMeta.assignKeyToModelRefIfNecessary(ds, model);
+        modelMeta.incrementVersion(model);
+        modelMeta.prePut(model);
+        final Entity entity = modelMeta.modelToEntity(model);
+        return FuturePoller
+            .getInstance()
+            .toCompletableFuture(
+                DatastoreUtil.allocateIdsAsync(ds, modelMeta.getKind(), 1))
+            .thenCompose(new Function<KeyRange, CompletionStage<Key>>() {
+                public CompletionStage<Key> apply(KeyRange range) {
+                    Key key = range.getStart();
+                    modelMeta.setKey(model, key);
+                    Entity e = new Entity(key);
+                    e.setPropertiesFrom(entity);
+                    return FuturePoller.getInstance().toCompletableFuture(
+                        putAsync((Transaction) null, e));
+                }
+            });
     }
 
     /**
@@ -1765,7 +2166,62 @@ public class AsyncDatastoreDelegate {
     public Future<List<Key>> putAsync(Transaction tx, Iterable<?> models)
             throws NullPointerException, IllegalStateException {
         List<Entity> entities = DatastoreUtil.modelsToEntities(ds, models);
-        return DatastoreUtil.putAsync(ds, tx, entities);
+        List<Key> keys = new ArrayList<Key>(entities.size());
+        for (Entity entity : entities) {
+            keys.add(entity.getKey());
+        }
+        SecondLevelCache.lock(keys);
+        QueryCache.invalidate(keys);
+        Future<List<Key>> future = putEntitiesAsync(tx, entities);
+        FirstLevelCache cache = FirstLevelCache.get();
+        if (cache != null) {
+            cache.write(keys, tx, future);
+        }
+        return future;
+    }
+
+    /**
+     * Puts the entities to datastore within the provided transaction
+     * asynchronously splitting them into chunks.
+     * 
+     * @param tx
+     *            the transaction
+     * @param entities
+     *            the entities
+     * @return a list of keys represented as {@link Future}
+     */
+    protected Future<List<Key>> putEntitiesAsync(Transaction tx,
+            List<Entity> entities) {
+        if (entities.size() <= 1) {
+            return DatastoreUtil.putAsync(ds, tx, entities);
+        }
+        List<List<Entity>> chunks = DatastoreUtil.splitEntities(entities);
+        if (chunks.size() == 1) {
+            return DatastoreUtil.putAsync(ds, tx, entities);
+        }
+        checkTx(tx);
+        final Transaction t = tx;
+        List<Future<List<Key>>> futures =
+            new BatchQueue<Entity, List<Key>>(chunks) {
+
+                @Override
+                protected Future<List<Key>> send(List<Entity> chunk) {
+                    return DatastoreUtil.putAsync(ds, t, chunk);
+                }
+            }.start(getBatchParallelism(tx, chunks.size()));
+        return new BatchFuture<List<Key>, List<Key>>(futures, tx != null) {
+
+            @Override
+            protected List<Key> merge(List<List<Key>> results) {
+                List<Key> list = new ArrayList<Key>();
+                for (List<Key> keys : results) {
+                    if (keys != null) {
+                        list.addAll(keys);
+                    }
+                }
+                return list;
+            }
+        };
     }
 
     /**
@@ -1857,7 +2313,50 @@ public class AsyncDatastoreDelegate {
      */
     public Future<Void> deleteAsync(Transaction tx, Iterable<Key> keys)
             throws NullPointerException, IllegalStateException {
-        return DatastoreUtil.deleteAsync(ds, tx, keys);
+        List<List<Key>> chunks = DatastoreUtil.splitKeys(keys);
+        SecondLevelCache.lock(keys);
+        QueryCache.invalidate(keys);
+        Future<Void> future = deleteChunksAsync(tx, keys, chunks);
+        FirstLevelCache cache = FirstLevelCache.get();
+        if (cache != null) {
+            cache.write(keys, tx, future);
+        }
+        return future;
+    }
+
+    /**
+     * Deletes the chunks of the keys within the provided transaction
+     * asynchronously.
+     * 
+     * @param tx
+     *            the transaction
+     * @param keys
+     *            the keys
+     * @param chunks
+     *            the chunks of the keys
+     * @return a {@link Void} represented as {@link Future}
+     */
+    protected Future<Void> deleteChunksAsync(Transaction tx,
+            Iterable<Key> keys, List<List<Key>> chunks) {
+        if (chunks.size() <= 1) {
+            return DatastoreUtil.deleteAsync(ds, tx, keys);
+        }
+        checkTx(tx);
+        final Transaction t = tx;
+        List<Future<Void>> futures = new BatchQueue<Key, Void>(chunks) {
+
+            @Override
+            protected Future<Void> send(List<Key> chunk) {
+                return DatastoreUtil.deleteAsync(ds, t, chunk);
+            }
+        }.start(getBatchParallelism(tx, chunks.size()));
+        return new BatchFuture<Void, Void>(futures, tx != null) {
+
+            @Override
+            protected Void merge(List<Void> results) {
+                return null;
+            }
+        };
     }
 
     /**
@@ -1889,12 +2388,17 @@ public class AsyncDatastoreDelegate {
      */
     public Future<Void> deleteAllAsync(Key ancestorKey)
             throws NullPointerException {
-        return deleteAsync(query(ancestorKey).asKeyList());
+        return deleteAllAsync(ds.getCurrentTransaction(null), ancestorKey);
     }
 
     /**
      * Deletes all descendant entities within the provided transaction
-     * asynchronously.
+     * asynchronously. Outside of transactions, the keys-only query runs on a
+     * {@link RequestThreadExecutor} and the delete is issued when the query
+     * completes, so neither this method nor the delete waits for the returned
+     * future to be resolved. Within a transaction, the keys are collected
+     * before this method returns, because a delete issued after the query
+     * could miss the commit.
      * 
      * @param tx
      *            the transaction
@@ -1909,11 +2413,20 @@ public class AsyncDatastoreDelegate {
      */
     public Future<Void> deleteAllAsync(Transaction tx, Key ancestorKey)
             throws NullPointerException, IllegalStateException {
+        if (tx == null) {
+            return deleteAllWithoutTxAsync(ancestorKey);
+        }
+        if (!tx.isActive()) {
+            throw new IllegalStateException("The transaction must be active.");
+        }
         return deleteAsync(tx, query(ancestorKey).asKeyList());
     }
 
     /**
-     * Deletes all descendant entities without transaction asynchronously.
+     * Deletes all descendant entities without transaction asynchronously. The
+     * keys-only query runs on a {@link RequestThreadExecutor} and the delete
+     * is issued when the query completes, so neither this method nor the
+     * delete waits for the returned future to be resolved.
      * 
      * @param ancestorKey
      *            the ancestor key
@@ -1923,7 +2436,30 @@ public class AsyncDatastoreDelegate {
      */
     public Future<Void> deleteAllWithoutTxAsync(Key ancestorKey)
             throws NullPointerException {
-        return deleteWithoutTxAsync(query(ancestorKey).asKeyList());
+        final Iterator<Key> keys = query(ancestorKey).asKeyIterator();
+        final FirstLevelCache cache = FirstLevelCache.get();
+        return CompletableFuture.supplyAsync(new Supplier<List<Key>>() {
+            public List<Key> get() {
+                List<Key> list = new ArrayList<Key>();
+                while (keys.hasNext()) {
+                    list.add(keys.next());
+                }
+                return list;
+            }
+        }, new RequestThreadExecutor()).thenCompose(
+            new Function<List<Key>, CompletionStage<Void>>() {
+                public CompletionStage<Void> apply(List<Key> list) {
+                    FirstLevelCache previous = FirstLevelCache.get();
+                    FirstLevelCache.set(cache);
+                    try {
+                        return FuturePoller
+                            .getInstance()
+                            .toCompletableFuture(deleteWithoutTxAsync(list));
+                    } finally {
+                        FirstLevelCache.set(previous);
+                    }
+                }
+            });
     }
 
     /**
@@ -2127,4 +2663,24 @@ public class AsyncDatastoreDelegate {
             throws NullPointerException {
         return new KindlessQuery(ds, tx, ancestorKey);
     }
+
+    /**
+     * Returns a {@link ParallelScan}.
+     * 
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param shards
+     *            the number of the key ranges
+     * @return a {@link ParallelScan}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null
+     * @throws IllegalArgumentException
+     *             if the shards parameter is less than 1
+     */
+    public <M> ParallelScan<M> parallelScan(ModelMeta<M> modelMeta, int shards)
+            throws NullPointerException, IllegalArgumentException {
+        return new ParallelScan<M>(ds, modelMeta, shards);
+    }
 }
\ No newline at end of file
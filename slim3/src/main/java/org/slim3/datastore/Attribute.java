@@ -58,6 +58,31 @@ public @interface Attribute {
      */
     boolean lob() default false;
 
+    /**
+     * Whether this large object is decoded on first access. The type of the
+     * property must be {@link LazyLob}.
+     * 
+     * @since 2.0.0
+     */
+    boolean lazy() default false;
+
+    /**
+     * The codec of this large object. Java serialization is used by default.
+     * 
+     * @since 2.0.0
+     * @see BinaryLobCodec
+     */
+    Class<?> codec() default LobCodec.class;
+
+    /**
+     * Whether this large object, text or blob is compressed when it is
+     * large.
+     * 
+     * @since 2.0.0
+     * @see CompressionUtil
+     */
+    boolean compress() default false;
+
     /**
      * Whether this property is unindexed.
      */
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+/**
+ * A getter of an attribute value. The meta data of model generated by the
+ * annotation processor sets a getter to each attribute meta data, so that the
+ * in-memory filters and sorts read the values without reflection.
+ * 
+ * @author higa
+ * @param <M>
+ *            the model type
+ * @since 2.0.0
+ * 
+ */
+public interface AttributeGetter<M> {
+
+    /**
+     * Returns the attribute value.
+     * 
+     * @param model
+     *            the model
+     * @return the attribute value
+     */
+    Object getValue(M model);
+}
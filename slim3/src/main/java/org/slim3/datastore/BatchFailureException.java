@@ -0,0 +1,101 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * This exception is thrown when some of the batch calls split from a large
+ * batch operation failed outside a transaction. The other calls have been
+ * applied.
+ * 
+ * @author higa
+ * @since 2.0.0
+ * 
+ */
+public class BatchFailureException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The causes of the failed calls mapped by the index of the chunk.
+     */
+    protected Map<Integer, Throwable> failures;
+
+    /**
+     * The number of the chunks.
+     */
+    protected int numberOfChunks;
+
+    /**
+     * The merged result of the succeeded calls.
+     */
+    protected transient Object partialResult;
+
+    /**
+     * Constructor.
+     * 
+     * @param failures
+     *            the causes of the failed calls mapped by the index of the
+     *            chunk
+     * @param numberOfChunks
+     *            the number of the chunks
+     * @param partialResult
+     *            the merged result of the succeeded calls
+     */
+    public BatchFailureException(Map<Integer, Throwable> failures,
+            int numberOfChunks, Object partialResult) {
+        super(failures.size()
+            + " of "
+            + numberOfChunks
+            + " batch calls failed.", failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+        this.numberOfChunks = numberOfChunks;
+        this.partialResult = partialResult;
+    }
+
+    /**
+     * Returns the causes of the failed calls mapped by the index of the chunk.
+     * 
+     * @return the causes of the failed calls
+     */
+    public Map<Integer, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of the chunks.
+     * 
+     * @return the number of the chunks
+     */
+    public int getNumberOfChunks() {
+        return numberOfChunks;
+    }
+
+    /**
+     * Returns the merged result of the succeeded calls. For a put, it is the
+     * list of the keys that were put.
+     * 
+     * @param <T>
+     *            the result type
+     * @return the merged result of the succeeded calls
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getPartialResult() {
+        return (T) partialResult;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} that merges the results of the batch calls for the chunks
+ * of a large batch operation.
+ * 
+ * @author higa
+ * @param <C>
+ *            the result type of a chunk
+ * @param <T>
+ *            the merged result type
+ * @since 2.0.0
+ * 
+ */
+public abstract class BatchFuture<C, T> implements Future<T> {
+
+    /**
+     * The futures of the chunks.
+     */
+    protected final List<Future<C>> futures;
+
+    /**
+     * Whether the calls are executed within a transaction.
+     */
+    protected final boolean transactional;
+
+    /**
+     * Constructor.
+     * 
+     * @param futures
+     *            the futures of the chunks
+     * @param transactional
+     *            whether the calls are executed within a transaction. Within
+     *            a transaction, the first failure is thrown as it is.
+     *            Otherwise, all the chunks are waited for and the failures
+     *            are reported by {@link BatchFailureException}.
+     * @throws NullPointerException
+     *             if the futures parameter is null
+     */
+    public BatchFuture(List<Future<C>> futures, boolean transactional)
+            throws NullPointerException {
+        if (futures == null) {
+            throw new NullPointerException(
+                "The futures parameter must not be null.");
+        }
+        this.futures = futures;
+        this.transactional = transactional;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = true;
+        for (Future<C> f : futures) {
+            cancelled &= f.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    public boolean isCancelled() {
+        for (Future<C> f : futures) {
+            if (f.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isDone() {
+        for (Future<C> f : futures) {
+            if (!f.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            return get(-1);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        return get(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Waits for all the chunks and merges the results.
+     * 
+     * @param deadline
+     *            the deadline as {@link System#nanoTime()}. -1 means no
+     *            deadline.
+     * @return the merged result
+     * @throws InterruptedException
+     *             if the current thread was interrupted
+     * @throws ExecutionException
+     *             if a call failed
+     * @throws TimeoutException
+     *             if the deadline passed
+     */
+    protected T get(long deadline) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        List<C> results = new ArrayList<C>(futures.size());
+        Map<Integer, Throwable> failures = null;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<C> f = futures.get(i);
+            try {
+                if (deadline == -1) {
+                    results.add(f.get());
+                } else {
+                    results.add(f.get(
+                        deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS));
+                }
+            } catch (ExecutionException e) {
+                if (transactional) {
+                    throw e;
+                }
+                if (failures == null) {
+                    failures = new LinkedHashMap<Integer, Throwable>();
+                }
+                failures.put(i, e.getCause());
+                results.add(null);
+            }
+        }
+        T merged = merge(results);
+        if (failures != null) {
+            throw new ExecutionException(new BatchFailureException(
+                failures,
+                futures.size(),
+                merged));
+        }
+        return merged;
+    }
+
+    /**
+     * Merges the results of the chunks.
+     * 
+     * @param results
+     *            the results of the chunks. The result of a failed chunk is
+     *            null.
+     * @return the merged result
+     */
+    protected abstract T merge(List<C> results);
+}
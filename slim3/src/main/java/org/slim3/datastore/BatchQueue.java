@@ -0,0 +1,147 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import org.slim3.util.FuturePoller;
+
+/**
+ * A queue that sends the chunks of a large batch operation keeping the number
+ * of the calls in flight within the parallelism. The chunks that exceed the
+ * parallelism are queued and sent by the {@link FuturePoller} of the current
+ * request when the preceding calls complete, so the caller is never blocked.
+ *
+ * @author higa
+ * @param <E>
+ *            the element type of a chunk
+ * @param <C>
+ *            the result type of a chunk
+ * @since 2.0.0
+ *
+ */
+public abstract class BatchQueue<E, C> {
+
+    /**
+     * The chunks.
+     */
+    protected final List<List<E>> chunks;
+
+    /**
+     * The futures of the chunks.
+     */
+    protected final List<CompletableFuture<C>> futures;
+
+    /**
+     * The index of the next chunk to be sent.
+     */
+    protected int next;
+
+    /**
+     * Constructor.
+     *
+     * @param chunks
+     *            the chunks
+     * @throws NullPointerException
+     *             if the chunks parameter is null
+     */
+    public BatchQueue(List<List<E>> chunks) throws NullPointerException {
+        if (chunks == null) {
+            throw new NullPointerException(
+                "The chunks parameter must not be null.");
+        }
+        this.chunks = chunks;
+        futures = new ArrayList<CompletableFuture<C>>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            futures.add(new CompletableFuture<C>());
+        }
+    }
+
+    /**
+     * Starts sending the chunks.
+     *
+     * @param parallelism
+     *            the maximum number of the calls in flight
+     * @return the futures of the chunks
+     * @throws IllegalArgumentException
+     *             if the parallelism parameter is less than 1
+     */
+    public List<Future<C>> start(int parallelism)
+            throws IllegalArgumentException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism parameter("
+                + parallelism
+                + ") must be greater than 0.");
+        }
+        for (int i = 0; i < parallelism; i++) {
+            if (!sendNext()) {
+                break;
+            }
+        }
+        return new ArrayList<Future<C>>(futures);
+    }
+
+    /**
+     * Sends the next chunk if any.
+     *
+     * @return whether a chunk was sent
+     */
+    protected boolean sendNext() {
+        int index;
+        synchronized (this) {
+            while (next < chunks.size() && futures.get(next).isDone()) {
+                next++;
+            }
+            if (next >= chunks.size()) {
+                return false;
+            }
+            index = next++;
+        }
+        final CompletableFuture<C> future = futures.get(index);
+        try {
+            FuturePoller
+                .getInstance()
+                .toCompletableFuture(send(chunks.get(index)))
+                .whenComplete(new BiConsumer<C, Throwable>() {
+                    public void accept(C result, Throwable cause) {
+                        if (cause != null) {
+                            future.completeExceptionally(cause);
+                        } else {
+                            future.complete(result);
+                        }
+                        sendNext();
+                    }
+                });
+        } catch (Throwable cause) {
+            future.completeExceptionally(cause);
+            sendNext();
+        }
+        return true;
+    }
+
+    /**
+     * Sends the chunk.
+     *
+     * @param chunk
+     *            the chunk
+     * @return the result of the chunk represented as {@link Future}
+     */
+    protected abstract Future<C> send(List<E> chunk);
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slim3.util.BeanDesc;
+import org.slim3.util.BeanUtil;
+import org.slim3.util.ByteUtil;
+import org.slim3.util.ClassUtil;
+import org.slim3.util.PropertyDesc;
+import org.slim3.util.WrapRuntimeException;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * A compact binary codec of large objects. The primitive wrappers, strings,
+ * arrays of bytes, dates, keys, enums, the standard lists, sets and maps and
+ * the beans whose fields are all accessible through their properties are
+ * written in a compact binary format. The other values are written by Java
+ * serialization.
+ *
+ * <p>
+ * Each list, set, map and bean is written once per encoding. When the same
+ * instance appears again, for example as a back-reference from a child to its
+ * parent, only the index of its first occurrence is written, so the shared and
+ * cyclic references keep their identity after decoding.
+ * </p>
+ *
+ * <p>
+ * The encoded bytes start with a format marker, and the bytes without the
+ * marker are read by Java serialization, so the blobs stored by
+ * {@link ModelMeta#serializableToBlob(Object)} stay readable.
+ * </p>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class BinaryLobCodec implements LobCodec {
+
+    /**
+     * The format marker.
+     */
+    protected static final byte[] MARKER = { 'S', '3', 1 };
+
+    /**
+     * The maximum depth of the nested values written in the binary format.
+     * The deeper values are written by Java serialization so that a deeply
+     * nested value does not overflow the stack.
+     */
+    protected static final int MAX_DEPTH = 64;
+
+    private static final int NULL = 0;
+
+    private static final int TRUE = 1;
+
+    private static final int FALSE = 2;
+
+    private static final int BYTE = 3;
+
+    private static final int SHORT = 4;
+
+    private static final int INTEGER = 5;
+
+    private static final int LONG = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int DOUBLE = 8;
+
+    private static final int CHARACTER = 9;
+
+    private static final int STRING = 10;
+
+    private static final int BYTES = 11;
+
+    private static final int DATE = 12;
+
+    private static final int KEY = 13;
+
+    private static final int ENUM = 14;
+
+    private static final int ARRAY_LIST = 15;
+
+    private static final int LINKED_LIST = 16;
+
+    private static final int HASH_SET = 17;
+
+    private static final int LINKED_HASH_SET = 18;
+
+    private static final int TREE_SET = 19;
+
+    private static final int HASH_MAP = 20;
+
+    private static final int LINKED_HASH_MAP = 21;
+
+    private static final int TREE_MAP = 22;
+
+    private static final int BEAN = 23;
+
+    private static final int SERIALIZED = 24;
+
+    private static final int REFERENCE = 25;
+
+    private static final ClassValue<Boolean> beanClasses =
+        new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return isBeanClass(type);
+            }
+        };
+
+    public byte[] encode(Object value) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        baos.write(MARKER, 0, MARKER.length);
+        try {
+            DataOutputStream out = new DataOutputStream(baos);
+            write(out, value, 0, new IdentityHashMap<Object, Integer>());
+            out.flush();
+        } catch (IOException e) {
+            throw new WrapRuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public Object decode(byte[] bytes) {
+        if (!hasMarker(bytes)) {
+            return ByteUtil.toObject(bytes);
+        }
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(
+                    bytes,
+                    MARKER.length,
+                    bytes.length - MARKER.length));
+            return read(in, new ArrayList<Object>());
+        } catch (IOException e) {
+            throw new WrapRuntimeException(e);
+        }
+    }
+
+    /**
+     * Determines if the bytes start with the format marker.
+     *
+     * @param bytes
+     *            the bytes
+     * @return whether the bytes start with the format marker
+     */
+    protected static boolean hasMarker(byte[] bytes) {
+        if (bytes.length < MARKER.length) {
+            return false;
+        }
+        for (int i = 0; i < MARKER.length; i++) {
+            if (bytes[i] != MARKER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value.
+     *
+     * @param out
+     *            the output
+     * @param value
+     *            the value
+     * @param depth
+     *            the depth of the value
+     * @param references
+     *            the indexes of the lists, sets, maps and beans already
+     *            written
+     * @throws IOException
+     *             if an I/O error occurred
+     */
+    protected void write(DataOutputStream out, Object value, int depth,
+            Map<Object, Integer> references) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> c = value.getClass();
+        if (c == String.class) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (c == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (c == Integer.class) {
+            out.writeByte(INTEGER);
+            writeVarLong(out, (Integer) value);
+        } else if (c == Long.class) {
+            out.writeByte(LONG);
+            writeVarLong(out, (Long) value);
+        } else if (c == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (c == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (c == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (c == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (c == Character.class) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (c == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        } else if (c == Date.class) {
+            out.writeByte(DATE);
+            writeVarLong(out, ((Date) value).getTime());
+        } else if (c == Key.class) {
+            out.writeByte(KEY);
+            writeString(out, KeyFactory.keyToString((Key) value));
+        } else if (value instanceof Enum<?>) {
+            out.writeByte(ENUM);
+            writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) value).name());
+        } else if (references.containsKey(value)) {
+            out.writeByte(REFERENCE);
+            writeVarLong(out, references.get(value));
+        } else if (depth >= MAX_DEPTH) {
+            writeSerialized(out, value);
+        } else if (c == ArrayList.class) {
+            writeCollection(
+                out,
+                ARRAY_LIST,
+                (Collection<?>) value,
+                depth,
+                references);
+        } else if (c == LinkedList.class) {
+            writeCollection(
+                out,
+                LINKED_LIST,
+                (Collection<?>) value,
+                depth,
+                references);
+        } else if (c == HashSet.class) {
+            writeCollection(
+                out,
+                HASH_SET,
+                (Collection<?>) value,
+                depth,
+                references);
+        } else if (c == LinkedHashSet.class) {
+            writeCollection(
+                out,
+                LINKED_HASH_SET,
+                (Collection<?>) value,
+                depth,
+                references);
+        } else if (c == TreeSet.class
+            && ((TreeSet<?>) value).comparator() == null) {
+            writeCollection(
+                out,
+                TREE_SET,
+                (Collection<?>) value,
+                depth,
+                references);
+        } else if (c == HashMap.class) {
+            writeMap(out, HASH_MAP, (Map<?, ?>) value, depth, references);
+        } else if (c == LinkedHashMap.class) {
+            writeMap(
+                out,
+                LINKED_HASH_MAP,
+                (Map<?,
+                ?>) value,
+                depth,
+                references);
+        } else if (c == TreeMap.class
+            && ((TreeMap<?, ?>) value).comparator() == null) {
+            writeMap(out, TREE_MAP, (Map<?, ?>) value, depth, references);
+        } else if (beanClasses.get(c)) {
+            writeBean(out, value, depth, references);
+        } else {
+            writeSerialized(out, value);
+        }
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param in
+     *            the input
+     * @param references
+     *            the lists, sets, maps and beans already read
+     * @return the value
+     * @throws IOException
+     *             if an I/O error occurred
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected Object read(DataInputStream in, List<Object> references)
+            throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case INTEGER:
+            return (int) readVarLong(in);
+        case LONG:
+            return readVarLong(in);
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case CHARACTER:
+            return in.readChar();
+        case STRING:
+            return readString(in);
+        case BYTES:
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return bytes;
+        case DATE:
+            return new Date(readVarLong(in));
+        case KEY:
+            return KeyFactory.stringToKey(readString(in));
+        case ENUM:
+            Class<? extends Enum> enumClass =
+                ClassUtil.forName(readString(in));
+            return Enum.valueOf(enumClass, readString(in));
+        case ARRAY_LIST:
+            int size = (int) readVarLong(in);
+            return readCollection(
+                in,
+                new ArrayList<Object>(size),
+                size,
+                references);
+        case LINKED_LIST:
+            return readCollection(
+                in,
+                new LinkedList<Object>(),
+                (int) readVarLong(in),
+                references);
+        case HASH_SET:
+            size = (int) readVarLong(in);
+            return readCollection(in, new HashSet<Object>(
+                Math.max(size * 4 / 3 + 1, 16)), size, references);
+        case LINKED_HASH_SET:
+            size = (int) readVarLong(in);
+            return readCollection(in, new LinkedHashSet<Object>(Math.max(
+                size * 4 / 3 + 1,
+                16)), size, references);
+        case TREE_SET:
+            return readCollection(
+                in,
+                new TreeSet<Object>(),
+                (int) readVarLong(in),
+                references);
+        case HASH_MAP:
+            size = (int) readVarLong(in);
+            return readMap(in, new HashMap<Object, Object>(Math.max(
+                size * 4 / 3 + 1,
+                16)), size, references);
+        case LINKED_HASH_MAP:
+            size = (int) readVarLong(in);
+            return readMap(in, new LinkedHashMap<Object, Object>(Math.max(
+                size * 4 / 3 + 1,
+                16)), size, references);
+        case TREE_MAP:
+            return readMap(
+                in,
+                new TreeMap<Object, Object>(),
+                (int) readVarLong(in),
+                references);
+        case BEAN:
+            return readBean(in, references);
+        case SERIALIZED:
+            bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return ByteUtil.toObject(bytes);
+        case REFERENCE:
+            int index = (int) readVarLong(in);
+            if (index < 0 || index >= references.size()) {
+                throw new IllegalArgumentException("The reference("
+                    + index
+                    + ") is unknown.");
+            }
+            return references.get(index);
+        default:
+            throw new IllegalArgumentException("The tag("
+                + tag
+                + ") is unknown.");
+        }
+    }
+
+    private void writeCollection(DataOutputStream out, int tag,
+            Collection<?> collection, int depth,
+            Map<Object, Integer> references) throws IOException {
+        references.put(collection, references.size());
+        out.writeByte(tag);
+        writeVarLong(out, collection.size());
+        for (Object o : collection) {
+            write(out, o, depth + 1, references);
+        }
+    }
+
+    private Collection<Object> readCollection(DataInputStream in,
+            Collection<Object> collection, int size, List<Object> references)
+            throws IOException {
+        references.add(collection);
+        for (int i = 0; i < size; i++) {
+            collection.add(read(in, references));
+        }
+        return collection;
+    }
+
+    private void writeMap(DataOutputStream out, int tag, Map<?, ?> map,
+            int depth, Map<Object, Integer> references) throws IOException {
+        references.put(map, references.size());
+        out.writeByte(tag);
+        writeVarLong(out, map.size());
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            write(out, e.getKey(), depth + 1, references);
+            write(out, e.getValue(), depth + 1, references);
+        }
+    }
+
+    private Map<Object, Object> readMap(DataInputStream in,
+            Map<Object, Object> map, int size, List<Object> references)
+            throws IOException {
+        references.add(map);
+        for (int i = 0; i < size; i++) {
+            Object key = read(in, references);
+            map.put(key, read(in, references));
+        }
+        return map;
+    }
+
+    private void writeBean(DataOutputStream out, Object bean, int depth,
+            Map<Object, Integer> references) throws IOException {
+        references.put(bean, references.size());
+        BeanDesc beanDesc = BeanUtil.getBeanDesc(bean.getClass());
+        out.writeByte(BEAN);
+        writeString(out, bean.getClass().getName());
+        int size = 0;
+        for (int i = 0; i < beanDesc.getPropertyDescSize(); i++) {
+            PropertyDesc pd = beanDesc.getPropertyDesc(i);
+            if (pd.isReadable() && pd.isWritable()) {
+                size++;
+            }
+        }
+        writeVarLong(out, size);
+        for (int i = 0; i < beanDesc.getPropertyDescSize(); i++) {
+            PropertyDesc pd = beanDesc.getPropertyDesc(i);
+            if (pd.isReadable() && pd.isWritable()) {
+                writeString(out, pd.getName());
+                write(out, pd.getValue(bean), depth + 1, references);
+            }
+        }
+    }
+
+    private Object readBean(DataInputStream in, List<Object> references)
+            throws IOException {
+        Class<?> beanClass = ClassUtil.forName(readString(in));
+        Object bean = ClassUtil.newInstance(beanClass);
+        references.add(bean);
+        BeanDesc beanDesc = BeanUtil.getBeanDesc(beanClass);
+        int size = (int) readVarLong(in);
+        for (int i = 0; i < size; i++) {
+            PropertyDesc pd = beanDesc.getPropertyDesc(readString(in));
+            Object value = read(in, references);
+            if (pd != null && pd.isWritable()) {
+                pd.setValue(bean, value);
+            }
+        }
+        return bean;
+    }
+
+    private void writeSerialized(DataOutputStream out, Object value)
+            throws IOException {
+        byte[] bytes = ByteUtil.toByteArray(value);
+        out.writeByte(SERIALIZED);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value)
+            throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IllegalArgumentException(
+            "The variable length number is too long.");
+    }
+
+    /**
+     * Determines if the class is a bean whose state is all accessible through
+     * its properties. The class must have a public default constructor, and
+     * each instance field must have a readable and writable property of the
+     * same name.
+     *
+     * @param beanClass
+     *            the class
+     * @return whether the class is a bean
+     */
+    protected static boolean isBeanClass(Class<?> beanClass) {
+        if (beanClass.isArray()
+            || beanClass.isInterface()
+            || Modifier.isAbstract(beanClass.getModifiers())
+            || (beanClass.isMemberClass() && !Modifier.isStatic(beanClass
+                .getModifiers()))) {
+            return false;
+        }
+        String name = beanClass.getName();
+        if (name.startsWith("java.") || name.startsWith("javax.")) {
+            return false;
+        }
+        try {
+            Constructor<?> constructor = beanClass.getConstructor();
+            if (!Modifier.isPublic(constructor.getModifiers())) {
+                return false;
+            }
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+        BeanDesc beanDesc = BeanUtil.getBeanDesc(beanClass);
+        for (Class<?> c = beanClass; c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+                if (Modifier.isStatic(modifiers)
+                    || Modifier.isTransient(modifiers)
+                    || f.isSynthetic()) {
+                    continue;
+                }
+                PropertyDesc pd = beanDesc.getPropertyDesc(f.getName());
+                if (pd == null || !pd.isReadable() || !pd.isWritable()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
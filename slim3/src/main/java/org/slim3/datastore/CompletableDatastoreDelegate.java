@@ -0,0 +1,416 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.slim3.util.FuturePoller;
+import org.slim3.util.FutureUtil;
+import org.slim3.util.RequestThreadExecutor;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * A delegate to access datastore through {@link CompletableFuture}. Each
+ * operation is sent to datastore immediately, and the returned future is
+ * completed as soon as the underlying call completes, so that you can compose
+ * independent calls by {@link CompletionStage#thenCombine} or
+ * {@link #allOf(Iterable)} and join them once.
+ *
+ * <pre>
+ * CompletableDatastoreDelegate async = Datastore.async();
+ * CompletableFuture&lt;Hoge&gt; hoge = async.get(HogeMeta.get(), hogeKey);
+ * CompletableFuture&lt;Foo&gt; foo = async.get(FooMeta.get(), fooKey);
+ * String s = hoge.thenCombine(foo, ...).join();
+ * </pre>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class CompletableDatastoreDelegate {
+
+    /**
+     * The asynchronous delegate.
+     */
+    protected AsyncDatastoreDelegate asyncDelegate;
+
+    /**
+     * The executor to run the queries and the dependent stages.
+     */
+    protected Executor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param asyncDelegate
+     *            the asynchronous delegate
+     * @throws NullPointerException
+     *             if the asyncDelegate parameter is null
+     */
+    public CompletableDatastoreDelegate(AsyncDatastoreDelegate asyncDelegate)
+            throws NullPointerException {
+        this(asyncDelegate, new RequestThreadExecutor());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param asyncDelegate
+     *            the asynchronous delegate
+     * @param executor
+     *            the executor to run the queries and the dependent stages
+     * @throws NullPointerException
+     *             if the asyncDelegate parameter is null or if the executor
+     *             parameter is null
+     */
+    public CompletableDatastoreDelegate(AsyncDatastoreDelegate asyncDelegate,
+            Executor executor) throws NullPointerException {
+        if (asyncDelegate == null) {
+            throw new NullPointerException(
+                "The asyncDelegate parameter must not be null.");
+        }
+        if (executor == null) {
+            throw new NullPointerException(
+                "The executor parameter must not be null.");
+        }
+        this.asyncDelegate = asyncDelegate;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the asynchronous delegate.
+     *
+     * @return the asynchronous delegate
+     */
+    public AsyncDatastoreDelegate getAsyncDelegate() {
+        return asyncDelegate;
+    }
+
+    /**
+     * Returns the executor to run the queries and the dependent stages.
+     *
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Converts the {@link Future} to {@link CompletableFuture}. The call is
+     * polled by the {@link FuturePoller} of the current request and the
+     * returned future is completed on the executor.
+     *
+     * @param <T>
+     *            the value type
+     * @param future
+     *            the future
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the future parameter is null
+     */
+    public <T> CompletableFuture<T> toCompletableFuture(Future<T> future)
+            throws NullPointerException {
+        return FuturePoller.getInstance().toCompletableFuture(future, executor);
+    }
+
+    /**
+     * Returns {@link CompletableFuture} that is completed with the values of
+     * all the stages in order when all of them complete.
+     *
+     * @param <T>
+     *            the value type
+     * @param stages
+     *            the stages
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the stages parameter is null
+     */
+    public static <T> CompletableFuture<List<T>> allOf(
+            Iterable<? extends CompletionStage<? extends T>> stages)
+            throws NullPointerException {
+        return FutureUtil.allOf(stages);
+    }
+
+    /**
+     * Returns {@link CompletableFuture} that is completed with the values of
+     * all the stages in order when all of them complete.
+     *
+     * @param <T>
+     *            the value type
+     * @param stages
+     *            the stages
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the stages parameter is null
+     */
+    @SafeVarargs
+    public static <T> CompletableFuture<List<T>> allOf(
+            CompletionStage<? extends T>... stages) throws NullPointerException {
+        if (stages == null) {
+            throw new NullPointerException(
+                "The stages parameter must not be null.");
+        }
+        List<CompletionStage<? extends T>> list =
+            new ArrayList<CompletionStage<? extends T>>(stages.length);
+        for (CompletionStage<? extends T> stage : stages) {
+            list.add(stage);
+        }
+        return FutureUtil.allOf(list);
+    }
+
+    /**
+     * Gets an entity.
+     *
+     * @param key
+     *            the key
+     * @return an entity represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the key parameter is null
+     */
+    public CompletableFuture<Entity> get(Key key) throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getAsync(key));
+    }
+
+    /**
+     * Gets a model.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelClass
+     *            the model class
+     * @param key
+     *            the key
+     * @return a model represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelClass parameter is null or if the key parameter
+     *             is null
+     */
+    public <M> CompletableFuture<M> get(Class<M> modelClass, Key key)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getAsync(modelClass, key));
+    }
+
+    /**
+     * Gets a model.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param key
+     *            the key
+     * @return a model represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null or if the key parameter
+     *             is null
+     */
+    public <M> CompletableFuture<M> get(ModelMeta<M> modelMeta, Key key)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getAsync(modelMeta, key));
+    }
+
+    /**
+     * Gets an entity. Completes with null if no entity is found.
+     *
+     * @param key
+     *            the key
+     * @return an entity represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the key parameter is null
+     */
+    public CompletableFuture<Entity> getOrNull(Key key)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getOrNullAsync(key));
+    }
+
+    /**
+     * Gets a model. Completes with null if no entity is found.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelClass
+     *            the model class
+     * @param key
+     *            the key
+     * @return a model represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelClass parameter is null or if the key parameter
+     *             is null
+     */
+    public <M> CompletableFuture<M> getOrNull(Class<M> modelClass, Key key)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getOrNullAsync(
+            modelClass,
+            key));
+    }
+
+    /**
+     * Gets a model. Completes with null if no entity is found.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param key
+     *            the key
+     * @return a model represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null or if the key parameter
+     *             is null
+     */
+    public <M> CompletableFuture<M> getOrNull(ModelMeta<M> modelMeta, Key key)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate
+            .getOrNullAsync(modelMeta, key));
+    }
+
+    /**
+     * Gets models.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param keys
+     *            the keys
+     * @return models represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null or if the keys parameter
+     *             is null
+     */
+    public <M> CompletableFuture<List<M>> get(ModelMeta<M> modelMeta,
+            Iterable<Key> keys) throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getAsync(modelMeta, keys));
+    }
+
+    /**
+     * Gets models as map.
+     *
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param keys
+     *            the keys
+     * @return models represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null or if the keys parameter
+     *             is null
+     */
+    public <M> CompletableFuture<Map<Key, M>> getAsMap(ModelMeta<M> modelMeta,
+            Iterable<Key> keys) throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.getAsMapAsync(modelMeta, keys));
+    }
+
+    /**
+     * Puts the entity.
+     *
+     * @param entity
+     *            the entity
+     * @return a key represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the entity parameter is null
+     */
+    public CompletableFuture<Key> put(Entity entity)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.putAsync(entity));
+    }
+
+    /**
+     * Puts the model.
+     *
+     * @param model
+     *            the model
+     * @return a key represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the model parameter is null
+     */
+    public CompletableFuture<Key> put(Object model) throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.putAsync(model));
+    }
+
+    /**
+     * Puts the models.
+     *
+     * @param models
+     *            the models
+     * @return keys represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the models parameter is null
+     */
+    public CompletableFuture<List<Key>> put(Iterable<?> models)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.putAsync(models));
+    }
+
+    /**
+     * Deletes entities specified by the keys.
+     *
+     * @param keys
+     *            the keys
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public CompletableFuture<Void> delete(Iterable<Key> keys)
+            throws NullPointerException {
+        return toCompletableFuture(asyncDelegate.deleteAsync(keys));
+    }
+
+    /**
+     * Deletes entities specified by the keys.
+     *
+     * @param keys
+     *            the keys
+     * @return {@link CompletableFuture}
+     */
+    public CompletableFuture<Void> delete(Key... keys) {
+        return toCompletableFuture(asyncDelegate.deleteAsync(keys));
+    }
+
+    /**
+     * Runs the query on the executor and returns the result list.
+     *
+     * @param <M>
+     *            the model type
+     * @param query
+     *            the query
+     * @return the result list represented as {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the query parameter is null
+     */
+    public <M> CompletableFuture<List<M>> asList(final ModelQuery<M> query)
+            throws NullPointerException {
+        if (query == null) {
+            throw new NullPointerException(
+                "The query parameter must not be null.");
+        }
+        return CompletableFuture.supplyAsync(new Supplier<List<M>>() {
+            public List<M> get() {
+                return query.asList();
+            }
+        }, executor);
+    }
+}
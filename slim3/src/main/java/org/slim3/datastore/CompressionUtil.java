@@ -0,0 +1,244 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * A utility to compress the properties of the attributes annotated with
+ * {@literal @}Attribute(compress = true). A {@link Text} or a {@link Blob}
+ * larger than {@link #THRESHOLD} bytes is deflated and stored as a
+ * {@link Blob} starting with a header, if the compression saves bytes. The
+ * values without the header are returned as they are, so the values stored
+ * before the compression was enabled stay readable.
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public final class CompressionUtil {
+
+    /**
+     * The minimum number of bytes to compress.
+     */
+    public static final int THRESHOLD = 1024;
+
+    /**
+     * The header of compressed values.
+     */
+    protected static final byte[] MAGIC = { 'S', '3', 'Z' };
+
+    /**
+     * The length of the header.
+     */
+    protected static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    private static final byte TEXT = 'T';
+
+    private static final byte BLOB = 'B';
+
+    private static final byte STORED = 0;
+
+    private static final byte DEFLATED = 1;
+
+    private static final AtomicLong compressedCount = new AtomicLong();
+
+    private static final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Compresses the property.
+     *
+     * @param value
+     *            the {@link Text} or the {@link Blob}
+     * @return the compressed {@link Blob} or the value itself
+     * @throws IllegalArgumentException
+     *             if the value parameter is neither {@link Text} nor
+     *             {@link Blob}
+     */
+    public static Object compress(Object value)
+            throws IllegalArgumentException {
+        if (value == null) {
+            return null;
+        }
+        byte kind;
+        byte[] bytes;
+        if (value instanceof Text) {
+            kind = TEXT;
+            bytes = ((Text) value).getValue().getBytes(StandardCharsets.UTF_8);
+        } else if (value instanceof Blob) {
+            kind = BLOB;
+            bytes = ((Blob) value).getBytes();
+        } else {
+            throw new IllegalArgumentException("The value parameter("
+                + value.getClass().getName()
+                + ") must be Text or Blob.");
+        }
+        if (bytes.length >= THRESHOLD) {
+            byte[] compressed = deflate(bytes);
+            int length = HEADER_LENGTH + compressed.length;
+            if (length < bytes.length) {
+                compressedCount.incrementAndGet();
+                bytesSaved.addAndGet(bytes.length - length);
+                return new Blob(withHeader(kind, DEFLATED, compressed));
+            }
+        }
+        if (kind == BLOB && hasHeader(bytes)) {
+            return new Blob(withHeader(kind, STORED, bytes));
+        }
+        return value;
+    }
+
+    /**
+     * Decompresses the property.
+     *
+     * @param value
+     *            the property
+     * @return the original {@link Text} or {@link Blob}, or the value itself
+     *         if the value is not compressed
+     */
+    public static Object decompress(Object value) {
+        if (!(value instanceof Blob)) {
+            return value;
+        }
+        byte[] bytes = ((Blob) value).getBytes();
+        if (!hasHeader(bytes)) {
+            return value;
+        }
+        byte kind = bytes[MAGIC.length];
+        byte method = bytes[MAGIC.length + 1];
+        byte[] data;
+        if (method == DEFLATED) {
+            data = inflate(bytes, HEADER_LENGTH);
+        } else if (method == STORED) {
+            data = new byte[bytes.length - HEADER_LENGTH];
+            System.arraycopy(bytes, HEADER_LENGTH, data, 0, data.length);
+        } else {
+            throw new IllegalArgumentException("The compression method("
+                + method
+                + ") is unknown.");
+        }
+        if (kind == TEXT) {
+            return new Text(new String(data, StandardCharsets.UTF_8));
+        }
+        return new Blob(data);
+    }
+
+    /**
+     * Returns the number of the compressed values.
+     *
+     * @return the number of the compressed values
+     */
+    public static long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * Returns the number of the bytes saved by the compression.
+     *
+     * @return the number of the bytes saved by the compression
+     */
+    public static long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public static void resetStatistics() {
+        compressedCount.set(0);
+        bytesSaved.set(0);
+    }
+
+    /**
+     * Determines if the bytes start with the header.
+     *
+     * @param bytes
+     *            the bytes
+     * @return whether the bytes start with the header
+     */
+    protected static boolean hasHeader(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] withHeader(byte kind, byte method, byte[] data) {
+        byte[] bytes = new byte[HEADER_LENGTH + data.length];
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[MAGIC.length] = kind;
+        bytes[MAGIC.length + 1] = method;
+        System.arraycopy(data, 0, bytes, HEADER_LENGTH, data.length);
+        return bytes;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out =
+                new ByteArrayOutputStream(bytes.length / 2);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            ByteArrayOutputStream out =
+                new ByteArrayOutputStream(bytes.length * 3);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException(
+                        "The compressed value is truncated.");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private CompressionUtil() {
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * The counts of {@link java.util.ConcurrentModificationException} per entity
+ * group in this instance. The entity groups counted frequently are the
+ * candidates for sharding. At most {@link #MAX_ENTITY_GROUPS} entity groups
+ * are counted.
+ *
+ * @author higa
+ * @since 2.0.0
+ * @see AbstractUow#getEntityGroupKey()
+ *
+ */
+public final class ContentionCounter {
+
+    /**
+     * The maximum number of the counted entity groups.
+     */
+    public static final int MAX_ENTITY_GROUPS = 1000;
+
+    private static final ConcurrentHashMap<Key, AtomicLong> counts =
+        new ConcurrentHashMap<Key, AtomicLong>();
+
+    /**
+     * Counts a contention on the entity group.
+     *
+     * @param key
+     *            a key in the entity group
+     * @throws NullPointerException
+     *             if the key parameter is null
+     */
+    public static void record(Key key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException(
+                "The key parameter must not be null.");
+        }
+        Key root = DatastoreUtil.getRoot(key);
+        AtomicLong count = counts.get(root);
+        if (count == null) {
+            if (counts.size() >= MAX_ENTITY_GROUPS) {
+                return;
+            }
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(root, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the contentions on the entity group.
+     *
+     * @param key
+     *            a key in the entity group
+     * @return the number of the contentions
+     * @throws NullPointerException
+     *             if the key parameter is null
+     */
+    public static long getCount(Key key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException(
+                "The key parameter must not be null.");
+        }
+        AtomicLong count = counts.get(DatastoreUtil.getRoot(key));
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Returns the numbers of the contentions keyed by the root keys of the
+     * entity groups.
+     *
+     * @return the numbers of the contentions
+     */
+    public static Map<Key, Long> getCounts() {
+        Map<Key, Long> ret = new HashMap<Key, Long>();
+        for (Map.Entry<Key, AtomicLong> e : counts.entrySet()) {
+            ret.put(e.getKey(), e.getValue().get());
+        }
+        return ret;
+    }
+
+    /**
+     * Clears the counts.
+     */
+    public static void clear() {
+        counts.clear();
+    }
+
+    private ContentionCounter() {
+    }
+}
@@ -122,6 +122,17 @@ public final class Datastore {
         return delegate(deadline);
     }
 
+    /**
+     * Returns a delegate to access datastore through
+     * {@link java.util.concurrent.CompletableFuture}.
+     * 
+     * @return a delegate to access datastore through
+     *         {@link java.util.concurrent.CompletableFuture}
+     */
+    public static CompletableDatastoreDelegate async() {
+        return new CompletableDatastoreDelegate(asyncDelegate());
+    }
+
     /**
      * Begins a transaction. If you use HRD this method starts XG transaction
      * automatically.
@@ -2968,6 +2979,52 @@ public final class Datastore {
         return asyncDelegate().getAsMapWithoutTxAsync(modelMeta, keys);
     }
 
+    /**
+     * Fills the models of the {@link ModelRef}s specified by the attribute
+     * meta data. The referenced keys of all the models are read by one batch
+     * get without transaction, so that later calls of
+     * {@link ModelRef#getModel()} do not access datastore.
+     * 
+     * <pre>
+     * List&lt;Bbb&gt; list = Datastore.query(b).asList();
+     * Datastore.prefetch(list, b.hogeRef);
+     * </pre>
+     * 
+     * @param models
+     *            the models
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @throws NullPointerException
+     *             if the models parameter is null or if the element of the
+     *             models parameter is null or if the element of the
+     *             attributeMetas parameter is null
+     */
+    public static void prefetch(Iterable<?> models,
+            ModelRefAttributeMeta<?, ?, ?>... attributeMetas)
+            throws NullPointerException {
+        delegate().prefetch(models, attributeMetas);
+    }
+
+    /**
+     * Fills the models of the {@link ModelRef}s specified by the attribute
+     * meta data asynchronously.
+     * 
+     * @param models
+     *            the models
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @return {@link Future}
+     * @throws NullPointerException
+     *             if the models parameter is null or if the element of the
+     *             models parameter is null or if the element of the
+     *             attributeMetas parameter is null
+     */
+    public static Future<Void> prefetchAsync(Iterable<?> models,
+            ModelRefAttributeMeta<?, ?, ?>... attributeMetas)
+            throws NullPointerException {
+        return asyncDelegate().prefetchAsync(models, attributeMetas);
+    }
+
     /**
      * Returns entities specified by the keys within the provided transaction.
      * 
@@ -4100,6 +4157,65 @@ public final class Datastore {
         return delegate().query(tx, ancestorKey);
     }
 
+    /**
+     * Returns a {@link ParallelScan}.
+     * 
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param shards
+     *            the number of the key ranges
+     * @return a {@link ParallelScan}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null
+     * @throws IllegalArgumentException
+     *             if the shards parameter is less than 1
+     */
+    public static <M> ParallelScan<M> parallelScan(ModelMeta<M> modelMeta,
+            int shards) throws NullPointerException, IllegalArgumentException {
+        return delegate().parallelScan(modelMeta, shards);
+    }
+
+    /**
+     * Scans all the models of the kind splitting it into the key ranges.
+     * 
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param shards
+     *            the number of the key ranges
+     * @param handler
+     *            the handler
+     * @return the checkpoint
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null or if the handler
+     *             parameter is null
+     * @throws IllegalArgumentException
+     *             if the shards parameter is less than 1
+     * @see ParallelScan
+     */
+    public static <M> ScanCheckpoint parallelScan(ModelMeta<M> modelMeta,
+            int shards, ScanHandler<M> handler) throws NullPointerException,
+            IllegalArgumentException {
+        return delegate().parallelScan(modelMeta, shards).run(handler);
+    }
+
+    /**
+     * Returns a {@link ShardedCounter}.
+     * 
+     * @param name
+     *            the name of the counter
+     * @return a {@link ShardedCounter}
+     * @throws NullPointerException
+     *             if the name parameter is null
+     */
+    public static ShardedCounter counter(String name)
+            throws NullPointerException {
+        return delegate().counter(name);
+    }
+
     /**
      * Returns a meta data of the model
      * 
@@ -2051,6 +2051,27 @@ public class DatastoreDelegate {
         return getAsMap(tx, modelMeta, Arrays.asList(keys));
     }
 
+    /**
+     * Fills the models of the {@link ModelRef}s specified by the attribute
+     * meta data. The referenced keys of all the models are read by one batch
+     * get without transaction, so that later calls of
+     * {@link ModelRef#getModel()} do not access datastore.
+     * 
+     * @param models
+     *            the models
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @throws NullPointerException
+     *             if the models parameter is null or if the element of the
+     *             models parameter is null or if the element of the
+     *             attributeMetas parameter is null
+     */
+    public void prefetch(Iterable<?> models,
+            ModelRefAttributeMeta<?, ?, ?>... attributeMetas)
+            throws NullPointerException {
+        FutureUtil.getQuietly(async.prefetchAsync(models, attributeMetas));
+    }
+
     /**
      * Puts the entity to datastore. If there is a current transaction, this
      * operation will execute within that transaction.
@@ -2140,7 +2161,9 @@ public class DatastoreDelegate {
      */
     public Key put(Transaction tx, Object model) throws NullPointerException,
             IllegalStateException {
-        return FutureUtil.getQuietly(async.putAsync(tx, model));
+        return put(tx, DatastoreUtil.modelToEntity(
+            async.getAsyncDatastoreService(),
+            model));
     }
 
     /**
@@ -2337,7 +2360,10 @@ public class DatastoreDelegate {
      */
     public void deleteAll(Transaction tx, Key ancestorKey)
             throws NullPointerException, IllegalStateException {
-        FutureUtil.getQuietly(async.deleteAllAsync(tx, ancestorKey));
+        if (tx != null && !tx.isActive()) {
+            throw new IllegalStateException("The transaction must be active.");
+        }
+        delete(tx, query(ancestorKey).asKeyList());
     }
 
     /**
@@ -2551,6 +2577,39 @@ public class DatastoreDelegate {
         return async.query(tx, ancestorKey);
     }
 
+    /**
+     * Returns a {@link ParallelScan}.
+     * 
+     * @param <M>
+     *            the model type
+     * @param modelMeta
+     *            the meta data of model
+     * @param shards
+     *            the number of the key ranges
+     * @return a {@link ParallelScan}
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null
+     * @throws IllegalArgumentException
+     *             if the shards parameter is less than 1
+     */
+    public <M> ParallelScan<M> parallelScan(ModelMeta<M> modelMeta, int shards)
+            throws NullPointerException, IllegalArgumentException {
+        return async.parallelScan(modelMeta, shards);
+    }
+
+    /**
+     * Returns a {@link ShardedCounter}.
+     * 
+     * @param name
+     *            the name of the counter
+     * @return a {@link ShardedCounter}
+     * @throws NullPointerException
+     *             if the name parameter is null
+     */
+    public ShardedCounter counter(String name) throws NullPointerException {
+        return new ShardedCounter(this, name);
+    }
+
     /**
      * Returns a meta data of the model
      * 
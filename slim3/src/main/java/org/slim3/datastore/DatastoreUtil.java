@@ -17,11 +17,17 @@ package org.slim3.datastore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
@@ -31,7 +37,9 @@ import org.slim3.util.Cleaner;
 import org.slim3.util.FutureUtil;
 
 import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.api.datastore.Key;
@@ -39,7 +47,12 @@ import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.KeyRange;
 import com.google.appengine.api.datastore.KeyUtil;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.ShortBlob;
 import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.datastore.Transaction;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
@@ -70,6 +83,12 @@ public final class DatastoreUtil {
      */
     public static final int EXTRA_SIZE = 200;
 
+    /**
+     * The estimated size of a value whose size does not depend on its
+     * content.
+     */
+    private static final int VALUE_SIZE = 16;
+
     /**
      * The cache for {@link ModelMeta}.
      */
@@ -127,15 +146,12 @@ public final class DatastoreUtil {
             throw new NullPointerException(
                 "The kind parameter must not be null.");
         }
-        Iterator<Key> keys =
-            FutureUtil
-                .getQuietly(allocateIdsAsync(ds, kind, 1))
-                .iterator();
-        return keys.next();
+        return KeyRangePool.allocateId(ds, null, kind);
     }
 
     /**
-     * Allocates a key within a namespace defined by the parentKey and the kind.
+     * Allocates a key within a namespace defined by the parentKey and the kind
+     * with caching.
      * 
      * @param ds
      *            the asynchronous datastore service
@@ -161,11 +177,7 @@ public final class DatastoreUtil {
             throw new NullPointerException(
                 "The kind parameter must not be null.");
         }
-        Iterator<Key> keys =
-            FutureUtil
-                .getQuietly(allocateIdsAsync(ds, parentKey, kind, 1))
-                .iterator();
-        return keys.next();
+        return KeyRangePool.allocateId(ds, parentKey, kind);
     }
 
     /**
@@ -256,7 +268,7 @@ public final class DatastoreUtil {
     }
 
     /**
-     * Assigns a new key to the entity if necessary.
+     * Assigns new keys to the entities if necessary.
      * 
      * @param ds
      *            the asynchronous datastore service
@@ -275,8 +287,80 @@ public final class DatastoreUtil {
             throw new NullPointerException(
                 "The entities parameter must not be null.");
         }
-        for (Entity e : entities) {
-            assignKeyIfNecessary(ds, e);
+        assignKeysIfNecessary(ds, entities);
+    }
+
+    /**
+     * Assigns new keys to the models or entities if necessary. The models and
+     * entities without a complete key are grouped by the parent key and the
+     * kind, and one allocateIds call is issued for each group before waiting
+     * for any of them.
+     * 
+     * @param ds
+     *            the asynchronous datastore service
+     * @param models
+     *            the models or entities
+     */
+    protected static void assignKeysIfNecessary(AsyncDatastoreService ds,
+            Iterable<?> models) {
+        Map<List<Object>, List<Object>> groups =
+            new LinkedHashMap<List<Object>, List<Object>>();
+        for (Object model : models) {
+            List<Object> group;
+            if (model == null) {
+                continue;
+            } else if (model instanceof Entity) {
+                Key key = ((Entity) model).getKey();
+                if (key.isComplete()) {
+                    continue;
+                }
+                group = Arrays.<Object> asList(key.getParent(), key.getKind());
+            } else {
+                ModelMeta<?> modelMeta = getModelMeta(model.getClass());
+                if (modelMeta.getKey(model) != null) {
+                    continue;
+                }
+                group = Arrays.<Object> asList(null, modelMeta.getKind());
+            }
+            List<Object> list = groups.get(group);
+            if (list == null) {
+                list = new ArrayList<Object>();
+                groups.put(group, list);
+            }
+            list.add(model);
+        }
+        List<Future<KeyRange>> futures =
+            new ArrayList<Future<KeyRange>>(groups.size());
+        for (Map.Entry<List<Object>, List<Object>> e : groups.entrySet()) {
+            Key parentKey = (Key) e.getKey().get(0);
+            String kind = (String) e.getKey().get(1);
+            int size = e.getValue().size();
+            if (size == 1 && KeyRangePool.getPoolSize(kind) > 1) {
+                futures.add(null);
+            } else if (parentKey == null) {
+                futures.add(allocateIdsAsync(ds, kind, size));
+            } else {
+                futures.add(allocateIdsAsync(ds, parentKey, kind, size));
+            }
+        }
+        int i = 0;
+        for (Map.Entry<List<Object>, List<Object>> e : groups.entrySet()) {
+            Future<KeyRange> future = futures.get(i++);
+            Iterator<Key> keys =
+                future != null ? FutureUtil.getQuietly(future).iterator()
+                    : Arrays.asList(
+                        KeyRangePool.allocateId(
+                            ds,
+                            (Key) e.getKey().get(0),
+                            (String) e.getKey().get(1))).iterator();
+            for (Object model : e.getValue()) {
+                Key key = keys.next();
+                if (model instanceof Entity) {
+                    KeyUtil.setId(((Entity) model).getKey(), key.getId());
+                } else {
+                    getModelMeta(model.getClass()).setKey(model, key);
+                }
+            }
         }
     }
 
@@ -446,8 +530,9 @@ public final class DatastoreUtil {
     }
 
     /**
-     * Puts the entity to datastore within the provided transaction
-     * asynchronously.
+     * Puts the entity to datastore within the provided transaction. This
+     * method waits for the put, because the returned key cannot report a
+     * failure of the put.
      * 
      * @param ds
      *            the asynchronous datastore service
@@ -456,14 +541,18 @@ public final class DatastoreUtil {
      * @param entity
      *            the entity
      * 
-     * @return a list of keys represented as {@link Future}
+     * @return a key
      * @throws NullPointerException
      *             if the ds parameter is null or if the entity parameter is
      *             null
      * @throws IllegalStateException
      *             if the transaction is not null and the transaction is not
      *             active
+     * @deprecated use {@link #putAsync(AsyncDatastoreService, Transaction,
+     *             Iterable)} or {@link #put(AsyncDatastoreService, Transaction,
+     *             Entity)} instead
      */
+    @Deprecated
     public static Key putAsync(AsyncDatastoreService ds, Transaction tx,
             Entity entity) throws NullPointerException, IllegalStateException {
         if (entity == null) {
@@ -588,6 +677,265 @@ public final class DatastoreUtil {
         return ds.delete(tx, keys);
     }
 
+    /**
+     * Splits the entities into chunks that can be sent by one batch call. A
+     * chunk has at most {@link #MAX_NUMBER_OF_ENTITIES} entities and its
+     * size estimated by {@link #estimateSize(Entity)} does not exceed {@link #MAX_ENTITY_SIZE} unless it
+     * consists of a single entity.
+     * 
+     * @param entities
+     *            the entities
+     * @return the chunks
+     * @throws NullPointerException
+     *             if the entities parameter is null or if the element of
+     *             entities is null
+     */
+    public static List<List<Entity>> splitEntities(Iterable<Entity> entities)
+            throws NullPointerException {
+        if (entities == null) {
+            throw new NullPointerException(
+                "The entities parameter must not be null.");
+        }
+        List<List<Entity>> chunks = new ArrayList<List<Entity>>();
+        List<Entity> chunk = new ArrayList<Entity>();
+        int size = 0;
+        for (Entity entity : entities) {
+            if (entity == null) {
+                throw new NullPointerException(
+                    "The element of entities must not be null.");
+            }
+            int entitySize = estimateSize(entity) + EXTRA_SIZE;
+            if (chunk.size() > 0
+                && (chunk.size() >= MAX_NUMBER_OF_ENTITIES || size
+                    + entitySize > MAX_ENTITY_SIZE)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<Entity>();
+                size = 0;
+            }
+            chunk.add(entity);
+            size += entitySize;
+        }
+        if (chunk.size() > 0) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Estimates the encoded size of the entity. The size is calculated from
+     * the lengths of the key, the property names and the property values
+     * without encoding the entity.
+     * 
+     * @param entity
+     *            the entity
+     * @return the estimated size
+     * @throws NullPointerException
+     *             if the entity parameter is null
+     */
+    public static int estimateSize(Entity entity) throws NullPointerException {
+        if (entity == null) {
+            throw new NullPointerException(
+                "The entity parameter must not be null.");
+        }
+        return estimateKeySize(entity.getKey())
+            + estimatePropertiesSize(entity.getProperties());
+    }
+
+    private static int estimatePropertiesSize(Map<String, Object> properties) {
+        int size = 0;
+        for (Map.Entry<String, Object> e : properties.entrySet()) {
+            size += e.getKey().length() + estimateValueSize(e.getValue());
+        }
+        return size;
+    }
+
+    private static int estimateValueSize(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length();
+        }
+        if (value instanceof Text) {
+            String s = ((Text) value).getValue();
+            return s != null ? s.length() : 0;
+        }
+        if (value instanceof Blob) {
+            return ((Blob) value).getBytes().length;
+        }
+        if (value instanceof ShortBlob) {
+            return ((ShortBlob) value).getBytes().length;
+        }
+        if (value instanceof Key) {
+            return estimateKeySize((Key) value);
+        }
+        if (value instanceof Collection<?>) {
+            int size = 0;
+            for (Object o : (Collection<?>) value) {
+                size += estimateValueSize(o);
+            }
+            return size;
+        }
+        if (value instanceof EmbeddedEntity) {
+            EmbeddedEntity ee = (EmbeddedEntity) value;
+            return estimateKeySize(ee.getKey())
+                + estimatePropertiesSize(ee.getProperties());
+        }
+        return VALUE_SIZE;
+    }
+
+    private static int estimateKeySize(Key key) {
+        int size = 0;
+        for (Key k = key; k != null; k = k.getParent()) {
+            size += k.getKind().length() + VALUE_SIZE;
+            if (k.getName() != null) {
+                size += k.getName().length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Splits the keys into chunks that have at most
+     * {@link #MAX_NUMBER_OF_ENTITIES} keys.
+     * 
+     * @param keys
+     *            the keys
+     * @return the chunks
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public static List<List<Key>> splitKeys(Iterable<Key> keys)
+            throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        List<List<Key>> chunks = new ArrayList<List<Key>>();
+        List<Key> chunk = new ArrayList<Key>();
+        for (Key key : keys) {
+            if (chunk.size() >= MAX_NUMBER_OF_ENTITIES) {
+                chunks.add(chunk);
+                chunk = new ArrayList<Key>();
+            }
+            chunk.add(key);
+        }
+        if (chunk.size() > 0) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the filters joined by AND into the disjunctive normal form. Each
+     * element of the result is a list of filters joined by AND that has no IN
+     * filter and no OR filter, and the whole result is the union of them. An
+     * IN filter becomes the EQUAL filters of its distinct values.
+     * 
+     * @param filters
+     *            the filters joined by AND
+     * @return the filters in the disjunctive normal form
+     * @throws NullPointerException
+     *             if the filters parameter is null or if the element of the
+     *             filters parameter is null
+     */
+    public static List<List<Filter>> toDisjunctiveFilters(
+            Iterable<? extends Filter> filters) throws NullPointerException {
+        return toDisjunctiveFilters(filters, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Splits the filters joined by AND into the disjunctive normal form. Returns
+     * null if the number of the parts exceeds the max parameter.
+     * 
+     * @param filters
+     *            the filters joined by AND
+     * @param max
+     *            the maximum number of the parts
+     * @return the filters in the disjunctive normal form or null
+     * @throws NullPointerException
+     *             if the filters parameter is null or if the element of the
+     *             filters parameter is null
+     * @see #toDisjunctiveFilters(Iterable)
+     */
+    public static List<List<Filter>> toDisjunctiveFilters(
+            Iterable<? extends Filter> filters, int max)
+            throws NullPointerException {
+        if (filters == null) {
+            throw new NullPointerException(
+                "The filters parameter must not be null.");
+        }
+        List<List<Filter>> ret = new ArrayList<List<Filter>>();
+        ret.add(new ArrayList<Filter>());
+        for (Filter f : filters) {
+            if (f == null) {
+                throw new NullPointerException(
+                    "The element of the filters parameter must not be null.");
+            }
+            List<List<Filter>> right = toDisjunctiveFilters(f, max);
+            if (right == null || (long) ret.size() * right.size() > max) {
+                return null;
+            }
+            ret = crossFilters(ret, right);
+        }
+        return ret;
+    }
+
+    private static List<List<Filter>> toDisjunctiveFilters(Filter filter,
+            int max) {
+        List<List<Filter>> ret = new ArrayList<List<Filter>>();
+        if (filter instanceof CompositeFilter) {
+            CompositeFilter cf = (CompositeFilter) filter;
+            if (cf.getOperator() == CompositeFilterOperator.AND) {
+                return toDisjunctiveFilters(cf.getSubFilters(), max);
+            }
+            for (Filter f : cf.getSubFilters()) {
+                List<List<Filter>> list = toDisjunctiveFilters(f, max);
+                if (list == null || ret.size() + list.size() > max) {
+                    return null;
+                }
+                ret.addAll(list);
+            }
+            return ret;
+        }
+        if (filter instanceof FilterPredicate) {
+            FilterPredicate fp = (FilterPredicate) filter;
+            if (fp.getOperator() == FilterOperator.IN
+                && fp.getValue() instanceof Collection<?>) {
+                Set<Object> values =
+                    new LinkedHashSet<Object>((Collection<?>) fp.getValue());
+                if (values.size() > max) {
+                    return null;
+                }
+                for (Object value : values) {
+                    List<Filter> list = new ArrayList<Filter>(1);
+                    list.add(new FilterPredicate(
+                        fp.getPropertyName(),
+                        FilterOperator.EQUAL,
+                        value));
+                    ret.add(list);
+                }
+                return ret;
+            }
+        }
+        List<Filter> list = new ArrayList<Filter>(1);
+        list.add(filter);
+        ret.add(list);
+        return ret;
+    }
+
+    private static List<List<Filter>> crossFilters(List<List<Filter>> left,
+            List<List<Filter>> right) {
+        List<List<Filter>> ret =
+            new ArrayList<List<Filter>>(left.size() * right.size());
+        for (List<Filter> l : left) {
+            for (List<Filter> r : right) {
+                List<Filter> list = new ArrayList<Filter>(l.size() + r.size());
+                list.addAll(l);
+                list.addAll(r);
+                ret.add(list);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Filters the list in memory.
      * 
@@ -629,7 +977,16 @@ public final class DatastoreUtil {
         return newList;
     }
 
-    private static boolean accept(Object model,
+    /**
+     * Determines if the model is accepted by all the filter criteria.
+     * 
+     * @param model
+     *            the model
+     * @param criteria
+     *            the filter criteria
+     * @return whether the model is accepted
+     */
+    protected static boolean accept(Object model,
             List<? extends InMemoryFilterCriterion> criteria) {
         for (InMemoryFilterCriterion c : criteria) {
             if (c == null) {
@@ -673,6 +1030,85 @@ public final class DatastoreUtil {
         return list;
     }
 
+    /**
+     * Sorts the models returned by the iterator in memory and returns the
+     * first models. Only the number of models specified by the size parameter
+     * are held at once, so the memory used does not depend on the number of
+     * the models returned by the iterator. The models that are equal keep the
+     * order of the iterator.
+     * 
+     * @param <M>
+     *            the model type
+     * @param iterator
+     *            the model iterator
+     * @param criteria
+     *            criteria to sort
+     * @param size
+     *            the maximum number of the returned models
+     * @return the sorted list
+     * @throws NullPointerException
+     *             if the iterator parameter is null of if the criteria
+     *             parameter is null or if the model of the iterator is null
+     * @throws IllegalArgumentException
+     *             if the size parameter is negative
+     */
+    public static <M> List<M> sortInMemory(Iterator<? extends M> iterator,
+            List<InMemorySortCriterion> criteria, int size)
+            throws NullPointerException, IllegalArgumentException {
+        if (iterator == null) {
+            throw new NullPointerException(
+                "The iterator parameter must not be null.");
+        }
+        if (criteria == null) {
+            throw new NullPointerException(
+                "The criteria parameter must not be null.");
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("The size parameter("
+                + size
+                + ") must not be negative.");
+        }
+        final AttributeComparator comparator =
+            new AttributeComparator(criteria);
+        PriorityQueue<SortHead<M>> heap =
+            new PriorityQueue<SortHead<M>>(
+                Math.min(size, MAX_NUMBER_OF_ENTITIES) + 1,
+                new Comparator<SortHead<M>>() {
+                    public int compare(SortHead<M> o1, SortHead<M> o2) {
+                        int ret = comparator.compare(o2.model, o1.model);
+                        if (ret != 0) {
+                            return ret;
+                        }
+                        return o1.index < o2.index ? 1 : o1.index > o2.index
+                            ? -1
+                            : 0;
+                    }
+                });
+        long index = 0;
+        while (iterator.hasNext()) {
+            M model = iterator.next();
+            if (model == null) {
+                throw new NullPointerException(
+                    "The element of iterator must not be null.");
+            }
+            if (size == 0) {
+                continue;
+            }
+            if (heap.size() < size) {
+                heap.add(new SortHead<M>(model, index++));
+            } else if (comparator.compare(model, heap.peek().model) < 0) {
+                heap.poll();
+                heap.add(new SortHead<M>(model, index++));
+            }
+        }
+        List<M> list = new ArrayList<M>(heap.size());
+        while (!heap.isEmpty()) {
+            list.add(heap.poll().model);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
     /**
      * Returns a meta data of the model
      * 
@@ -953,12 +1389,11 @@ public final class DatastoreUtil {
             throw new NullPointerException(
                 "The models parameter must not be null.");
         }
+        assignKeysIfNecessary(ds, models);
         List<Entity> entities = new ArrayList<Entity>();
         for (Object model : models) {
             if (model instanceof Entity) {
-                Entity entity = (Entity) model;
-                assignKeyIfNecessary(ds, entity);
-                entities.add(entity);
+                entities.add((Entity) model);
             } else {
                 entities.add(modelToEntity(ds, model));
             }
@@ -1117,6 +1552,24 @@ public final class DatastoreUtil {
         return key;
     }
 
+    /**
+     * A model held by the heap of {@link #sortInMemory(Iterator, List, int)}.
+     * 
+     * @param <M>
+     *            the model type
+     */
+    private static class SortHead<M> {
+
+        private final M model;
+
+        private final long index;
+
+        private SortHead(M model, long index) {
+            this.model = model;
+            this.index = index;
+        }
+    }
+
     private DatastoreUtil() {
     }
 
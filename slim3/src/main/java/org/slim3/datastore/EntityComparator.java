@@ -0,0 +1,238 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Category;
+import com.google.appengine.api.datastore.Email;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Link;
+import com.google.appengine.api.datastore.PhoneNumber;
+import com.google.appengine.api.datastore.PostalAddress;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Query.SortPredicate;
+import com.google.appengine.api.datastore.Rating;
+import com.google.appengine.api.datastore.ShortBlob;
+import com.google.appengine.api.users.User;
+
+/**
+ * {@link Comparator} for {@link Entity} that follows the order of datastore.
+ * The entities are compared by the sort orders, and then by the keys in
+ * ascending order. For a multi-valued property, the smallest value is used in
+ * ascending order and the largest value is used in descending order.
+ * 
+ * @author higa
+ * @since 2.0.0
+ * 
+ */
+public class EntityComparator implements Comparator<Entity> {
+
+    /**
+     * The sort orders.
+     */
+    protected List<SortPredicate> sorts;
+
+    /**
+     * Constructor.
+     * 
+     * @param sorts
+     *            the sort orders
+     * @throws NullPointerException
+     *             if the sorts parameter is null
+     */
+    public EntityComparator(List<SortPredicate> sorts)
+            throws NullPointerException {
+        if (sorts == null) {
+            throw new NullPointerException(
+                "The sorts parameter must not be null.");
+        }
+        this.sorts = new ArrayList<SortPredicate>(sorts);
+    }
+
+    public int compare(Entity e1, Entity e2) {
+        for (SortPredicate s : sorts) {
+            boolean desc = s.getDirection() == SortDirection.DESCENDING;
+            int compared =
+                compareValue(getValue(e1, s.getPropertyName(), desc), getValue(
+                    e2,
+                    s.getPropertyName(),
+                    desc));
+            if (compared != 0) {
+                return desc ? -compared : compared;
+            }
+        }
+        return e1.getKey().compareTo(e2.getKey());
+    }
+
+    /**
+     * Returns the value used for sorting.
+     * 
+     * @param entity
+     *            the entity
+     * @param propertyName
+     *            the property name
+     * @param desc
+     *            whether the sort order is descending
+     * @return the value used for sorting
+     */
+    protected Object getValue(Entity entity, String propertyName, boolean desc) {
+        if (Entity.KEY_RESERVED_PROPERTY.equals(propertyName)) {
+            return entity.getKey();
+        }
+        Object value = entity.getProperty(propertyName);
+        if (!(value instanceof Collection<?>)) {
+            return value;
+        }
+        Object ret = null;
+        boolean first = true;
+        for (Object v : (Collection<?>) value) {
+            if (first) {
+                ret = v;
+                first = false;
+                continue;
+            }
+            int compared = compareValue(v, ret);
+            if (desc ? compared > 0 : compared < 0) {
+                ret = v;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Compares the values in the order of datastore. The values of different
+     * types are ordered by the types.
+     * 
+     * @param v1
+     *            the first value
+     * @param v2
+     *            the second value
+     * @return the compared result
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected int compareValue(Object v1, Object v2) {
+        int rank1 = getTypeRank(v1);
+        int rank2 = getTypeRank(v2);
+        if (rank1 != rank2) {
+            return rank1 < rank2 ? -1 : 1;
+        }
+        switch (rank1) {
+        case 0:
+            return 0;
+        case 1:
+            return compareLong(toLong(v1), toLong(v2));
+        case 5:
+            return Double.compare(
+                ((Number) v1).doubleValue(),
+                ((Number) v2).doubleValue());
+        case 4:
+            return toStringValue(v1).compareTo(toStringValue(v2));
+        default:
+            if (v1 instanceof Comparable && v1.getClass() == v2.getClass()) {
+                return ((Comparable) v1).compareTo(v2);
+            }
+            return v1.getClass().getName().compareTo(v2.getClass().getName());
+        }
+    }
+
+    /**
+     * Returns the rank of the type in the order of datastore.
+     * 
+     * @param value
+     *            the value
+     * @return the rank of the type
+     */
+    protected int getTypeRank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Long
+            || value instanceof Integer
+            || value instanceof Short
+            || value instanceof Byte
+            || value instanceof Date
+            || value instanceof Rating) {
+            return 1;
+        }
+        if (value instanceof Boolean) {
+            return 2;
+        }
+        if (value instanceof ShortBlob) {
+            return 3;
+        }
+        if (value instanceof String
+            || value instanceof Category
+            || value instanceof Email
+            || value instanceof Link
+            || value instanceof PhoneNumber
+            || value instanceof PostalAddress) {
+            return 4;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return 5;
+        }
+        if (value instanceof GeoPt) {
+            return 6;
+        }
+        if (value instanceof User) {
+            return 7;
+        }
+        if (value instanceof Key) {
+            return 8;
+        }
+        return 9;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime() * 1000L;
+        }
+        if (value instanceof Rating) {
+            return ((Rating) value).getRating();
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static String toStringValue(Object value) {
+        if (value instanceof Category) {
+            return ((Category) value).getCategory();
+        }
+        if (value instanceof Email) {
+            return ((Email) value).getEmail();
+        }
+        if (value instanceof Link) {
+            return ((Link) value).getValue();
+        }
+        if (value instanceof PhoneNumber) {
+            return ((PhoneNumber) value).getNumber();
+        }
+        if (value instanceof PostalAddress) {
+            return ((PostalAddress) value).getAddress();
+        }
+        return (String) value;
+    }
+
+    private static int compareLong(long l1, long l2) {
+        return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
+
+/**
+ * A retry policy of exponential backoff with full jitter. The time to sleep
+ * before the n-th retry is chosen at random between 0 and
+ * min(maxDelay, baseDelay * 2^(n - 1)), so the requests contending on an
+ * entity group do not retry at the same time.
+ *
+ * <p>
+ * The unit of work is not retried when the time budget would be exceeded or
+ * when less than {@link #getDeadlineMargin()} milliseconds of the current
+ * request would remain after the sleep.
+ * </p>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    /**
+     * The default maximum time to sleep.
+     */
+    public static final long DEFAULT_MAX_DELAY = 2000;
+
+    /**
+     * The default milliseconds of the request left for the last attempt.
+     */
+    public static final long DEFAULT_DEADLINE_MARGIN = 1000;
+
+    /**
+     * The max retries.
+     */
+    protected int maxRetries;
+
+    /**
+     * The base time to sleep.
+     */
+    protected long baseDelay;
+
+    /**
+     * The maximum time to sleep.
+     */
+    protected long maxDelay = DEFAULT_MAX_DELAY;
+
+    /**
+     * The time budget of all the attempts. 0 means no budget.
+     */
+    protected long timeBudget;
+
+    /**
+     * The milliseconds of the request left for the last attempt.
+     */
+    protected long deadlineMargin = DEFAULT_DEADLINE_MARGIN;
+
+    /**
+     * Constructor.
+     *
+     * @param maxRetries
+     *            the max retries
+     * @param baseDelay
+     *            the base time to sleep in milliseconds
+     * @throws IllegalArgumentException
+     *             if the baseDelay parameter is less than 1
+     */
+    public ExponentialBackoffRetryPolicy(int maxRetries, long baseDelay)
+            throws IllegalArgumentException {
+        if (baseDelay < 1) {
+            throw new IllegalArgumentException("The baseDelay parameter("
+                + baseDelay
+                + ") must be greater than 0.");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+    }
+
+    /**
+     * Specifies the maximum time to sleep.
+     *
+     * @param maxDelay
+     *            the maximum time to sleep in milliseconds
+     * @return this instance
+     */
+    public ExponentialBackoffRetryPolicy maxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Specifies the time budget of all the attempts.
+     *
+     * @param timeBudget
+     *            the time budget in milliseconds
+     * @return this instance
+     */
+    public ExponentialBackoffRetryPolicy timeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+        return this;
+    }
+
+    /**
+     * Specifies the milliseconds of the request left for the last attempt.
+     *
+     * @param deadlineMargin
+     *            the milliseconds of the request left for the last attempt
+     * @return this instance
+     */
+    public ExponentialBackoffRetryPolicy deadlineMargin(long deadlineMargin) {
+        this.deadlineMargin = deadlineMargin;
+        return this;
+    }
+
+    /**
+     * Returns the milliseconds of the request left for the last attempt.
+     *
+     * @return the milliseconds of the request left for the last attempt
+     */
+    public long getDeadlineMargin() {
+        return deadlineMargin;
+    }
+
+    public long getDelay(int retries, long elapsedTime) {
+        if (retries > maxRetries) {
+            return -1;
+        }
+        long ceiling = maxDelay;
+        if (retries - 1 < Long.numberOfLeadingZeros(baseDelay) - 1) {
+            ceiling = Math.min(maxDelay, baseDelay << (retries - 1));
+        }
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (timeBudget > 0 && elapsedTime + delay >= timeBudget) {
+            return -1;
+        }
+        Environment env = ApiProxy.getCurrentEnvironment();
+        if (env != null && env.getRemainingMillis() - delay < deadlineMargin) {
+            return -1;
+        }
+        return delay;
+    }
+}
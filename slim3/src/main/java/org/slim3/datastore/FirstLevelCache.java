@@ -0,0 +1,351 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * A cache of entities bound to the current thread(usually a request). While a
+ * cache is bound, {@link AsyncDatastoreDelegate} serves the gets outside of
+ * transactions from the cache and remembers the results of the gets,
+ * including the keys that have no entity. Puts and deletes remove the keys
+ * from the cache. The results of the gets issued before a put or a delete of
+ * the key, and the results read while the put or the delete is not completed
+ * or its transaction is not committed, are not remembered. The cache holds
+ * copies of the entities, so the entities returned by the gets can be
+ * modified freely.
+ *
+ * <pre>
+ * FirstLevelCache previous = FirstLevelCache.get();
+ * FirstLevelCache.set(new FirstLevelCache());
+ * try {
+ *     ...
+ * } finally {
+ *     FirstLevelCache.set(previous);
+ * }
+ * </pre>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class FirstLevelCache {
+
+    private static ThreadLocal<FirstLevelCache> caches =
+        new ThreadLocal<FirstLevelCache>();
+
+    /**
+     * The cached entities. The value is null if no entity exists for the key.
+     */
+    protected Map<Key, Entity> entities = new HashMap<Key, Entity>();
+
+    /**
+     * The number of the writes recorded by this cache.
+     */
+    protected long writeCount;
+
+    /**
+     * The value of the write count when the key was last written.
+     */
+    protected Map<Key, Long> writeStamps = new HashMap<Key, Long>();
+
+    /**
+     * The writes not completed yet. The value is the transaction of the write
+     * or the future of the write without transaction.
+     */
+    protected Map<Key, Object> pendingWrites = new HashMap<Key, Object>();
+
+    /**
+     * The number of the keys found in the cache.
+     */
+    protected long hitCount;
+
+    /**
+     * The number of the keys not found in the cache.
+     */
+    protected long missCount;
+
+    /**
+     * Returns the cache bound to the current thread.
+     *
+     * @return the cache bound to the current thread
+     */
+    public static FirstLevelCache get() {
+        return caches.get();
+    }
+
+    /**
+     * Binds the cache to the current thread.
+     *
+     * @param cache
+     *            the cache
+     */
+    public static void set(FirstLevelCache cache) {
+        if (cache == null) {
+            caches.remove();
+        } else {
+            caches.set(cache);
+        }
+    }
+
+    /**
+     * Looks up the keys. The entities found in the cache are copied to the
+     * found parameter, and the keys not found are returned.
+     *
+     * @param keys
+     *            the keys
+     * @param found
+     *            the map to receive the entities found in the cache
+     * @return the keys not found in the cache
+     * @throws NullPointerException
+     *             if the keys parameter is null or if the found parameter is
+     *             null
+     */
+    public synchronized List<Key> lookup(Iterable<Key> keys,
+            Map<Key, Entity> found) throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        if (found == null) {
+            throw new NullPointerException(
+                "The found parameter must not be null.");
+        }
+        List<Key> misses = new ArrayList<Key>();
+        for (Key key : keys) {
+            if (entities.containsKey(key)) {
+                hitCount++;
+                Entity entity = entities.get(key);
+                if (entity != null) {
+                    found.put(key, entity.clone());
+                }
+            } else {
+                missCount++;
+                misses.add(key);
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Remembers the result of the get.
+     *
+     * @param keys
+     *            the keys
+     * @param found
+     *            the entities found by the keys
+     * @throws NullPointerException
+     *             if the keys parameter is null or if the found parameter is
+     *             null
+     */
+    public synchronized void putAll(Iterable<Key> keys, Map<Key, Entity> found)
+            throws NullPointerException {
+        putAll(keys, found, writeCount);
+    }
+
+    /**
+     * Remembers the result of the get issued when the write count was the
+     * writeCount parameter. The keys written after the get was issued and the
+     * keys whose writes are not completed are not remembered.
+     *
+     * @param keys
+     *            the keys
+     * @param found
+     *            the entities found by the keys
+     * @param writeCount
+     *            the write count when the get was issued
+     * @throws NullPointerException
+     *             if the keys parameter is null or if the found parameter is
+     *             null
+     * @see #getWriteCount()
+     */
+    public synchronized void putAll(Iterable<Key> keys,
+            Map<Key, Entity> found, long writeCount)
+            throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        if (found == null) {
+            throw new NullPointerException(
+                "The found parameter must not be null.");
+        }
+        for (Key key : keys) {
+            Object pending = pendingWrites.get(key);
+            if (pending != null) {
+                if (isCompleted(pending)) {
+                    pendingWrites.remove(key);
+                    writeStamps.put(key, ++this.writeCount);
+                }
+                continue;
+            }
+            Long stamp = writeStamps.get(key);
+            if (stamp != null && stamp > writeCount) {
+                continue;
+            }
+            Entity entity = found.get(key);
+            entities.put(key, entity != null ? entity.clone() : null);
+        }
+    }
+
+    /**
+     * Returns the write count. The value is passed to
+     * {@link #putAll(Iterable, Map, long)} when the result of the get is
+     * remembered. The writes completed by now are settled, so the results of
+     * the gets issued after them can be remembered.
+     *
+     * @return the write count
+     */
+    public synchronized long getWriteCount() {
+        if (!pendingWrites.isEmpty()) {
+            long stamp = writeCount + 1;
+            for (Iterator<Map.Entry<Key, Object>> i =
+                pendingWrites.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<Key, Object> e = i.next();
+                if (isCompleted(e.getValue())) {
+                    i.remove();
+                    writeStamps.put(e.getKey(), stamp);
+                    writeCount = stamp;
+                }
+            }
+        }
+        return writeCount;
+    }
+
+    /**
+     * Removes the written keys from the cache. Until the write is completed,
+     * or the transaction is committed or rolled back, the results of the gets
+     * for the keys are not remembered.
+     *
+     * @param keys
+     *            the keys
+     * @param tx
+     *            the transaction of the write
+     * @param future
+     *            the future of the write
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public synchronized void write(Iterable<Key> keys, Transaction tx,
+            Future<?> future) throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        Object pending = tx != null ? tx : future;
+        writeCount++;
+        for (Key key : keys) {
+            if (key == null || !key.isComplete()) {
+                continue;
+            }
+            entities.remove(key);
+            writeStamps.put(key, writeCount);
+            if (pending != null) {
+                pendingWrites.put(key, pending);
+            }
+        }
+    }
+
+    /**
+     * Determines if the write is completed.
+     *
+     * @param pending
+     *            the transaction or the future of the write
+     * @return whether the write is completed
+     */
+    protected boolean isCompleted(Object pending) {
+        if (pending instanceof Transaction) {
+            return !((Transaction) pending).isActive();
+        }
+        return ((Future<?>) pending).isDone();
+    }
+
+    /**
+     * Removes the key from the cache.
+     *
+     * @param key
+     *            the key
+     */
+    public synchronized void remove(Key key) {
+        if (key != null) {
+            entities.remove(key);
+        }
+    }
+
+    /**
+     * Removes the keys from the cache.
+     *
+     * @param keys
+     *            the keys
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public synchronized void removeAll(Iterable<Key> keys)
+            throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        for (Key key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Removes all the keys from the cache.
+     */
+    public synchronized void clear() {
+        entities.clear();
+        writeStamps.clear();
+        pendingWrites.clear();
+    }
+
+    /**
+     * Returns the number of the cached keys.
+     *
+     * @return the number of the cached keys
+     */
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    /**
+     * Returns the number of the keys found in the cache.
+     *
+     * @return the number of the keys found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of the keys not found in the cache.
+     *
+     * @return the number of the keys not found in the cache
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+/**
+ * A retry policy that sleeps the fixed time before each retry.
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class FixedRetryPolicy implements RetryPolicy {
+
+    /**
+     * The max retries.
+     */
+    protected int maxRetries;
+
+    /**
+     * The sleep time.
+     */
+    protected long sleepTime;
+
+    /**
+     * Constructor.
+     *
+     * @param maxRetries
+     *            the max retries
+     * @param sleepTime
+     *            the sleep time in milliseconds
+     */
+    public FixedRetryPolicy(int maxRetries, long sleepTime) {
+        this.maxRetries = maxRetries;
+        this.sleepTime = sleepTime;
+    }
+
+    public long getDelay(int retries, long elapsedTime) {
+        return retries <= maxRetries ? sleepTime : -1;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * A class to batch the gets of single keys issued outside of transactions.
+ * While a batcher is bound to the current thread, {@link AsyncDatastoreDelegate}
+ * queues the keys of getAsync and getOrNullAsync instead of calling datastore
+ * one by one. The queued keys are sent as one batch get when one of the
+ * returned futures is asked for its value or whether it is done, or when the
+ * number of the queued keys reaches the batch size. Duplicate keys are sent
+ * only once.
+ *
+ * <pre>
+ * GetBatcher previous = GetBatcher.get();
+ * GetBatcher.set(new GetBatcher());
+ * try {
+ *     ...
+ * } finally {
+ *     GetBatcher.set(previous);
+ * }
+ * </pre>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class GetBatcher {
+
+    private static ThreadLocal<GetBatcher> batchers =
+        new ThreadLocal<GetBatcher>();
+
+    /**
+     * The maximum number of keys sent at a time.
+     */
+    protected final int batchSize;
+
+    /**
+     * The keys not sent yet.
+     */
+    protected Window window;
+
+    /**
+     * The number of the queued gets.
+     */
+    protected int numberOfGets;
+
+    /**
+     * The number of the batch gets sent to datastore.
+     */
+    protected int numberOfBatches;
+
+    /**
+     * Returns the batcher bound to the current thread.
+     *
+     * @return the batcher bound to the current thread
+     */
+    public static GetBatcher get() {
+        return batchers.get();
+    }
+
+    /**
+     * Binds the batcher to the current thread. The keys queued by the
+     * previous batcher are sent.
+     *
+     * @param batcher
+     *            the batcher
+     */
+    public static void set(GetBatcher batcher) {
+        GetBatcher previous = batchers.get();
+        if (previous != null && previous != batcher) {
+            previous.flush();
+        }
+        if (batcher == null) {
+            batchers.remove();
+        } else {
+            batchers.set(batcher);
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    public GetBatcher() {
+        this(DatastoreUtil.MAX_NUMBER_OF_ENTITIES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param batchSize
+     *            the maximum number of keys sent at a time
+     * @throws IllegalArgumentException
+     *             if the batchSize parameter is less than 1
+     */
+    public GetBatcher(int batchSize) throws IllegalArgumentException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batchSize parameter("
+                + batchSize
+                + ") must be greater than 0.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the maximum number of keys sent at a time.
+     *
+     * @return the maximum number of keys sent at a time
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of the queued gets.
+     *
+     * @return the number of the queued gets
+     */
+    public synchronized int getNumberOfGets() {
+        return numberOfGets;
+    }
+
+    /**
+     * Returns the number of the batch gets sent to datastore.
+     *
+     * @return the number of the batch gets sent to datastore
+     */
+    public synchronized int getNumberOfBatches() {
+        return numberOfBatches;
+    }
+
+    /**
+     * Queues the key.
+     *
+     * @param delegate
+     *            the delegate to send the batch get
+     * @param key
+     *            the key
+     * @return entities including the one specified by the key represented as
+     *         {@link Future}
+     * @throws NullPointerException
+     *             if the delegate parameter is null or if the key parameter is
+     *             null
+     */
+    public synchronized Future<Map<Key, Entity>> add(
+            AsyncDatastoreDelegate delegate, Key key)
+            throws NullPointerException {
+        if (delegate == null) {
+            throw new NullPointerException(
+                "The delegate parameter must not be null.");
+        }
+        if (key == null) {
+            throw new NullPointerException(
+                "The key parameter must not be null.");
+        }
+        if (window != null && window.delegate != delegate) {
+            flush();
+        }
+        if (window == null) {
+            window = new Window(delegate);
+        }
+        Window w = window;
+        w.keys.add(key);
+        numberOfGets++;
+        if (w.keys.size() >= batchSize) {
+            flush();
+        }
+        return new WindowFuture(w);
+    }
+
+    /**
+     * Sends the queued keys.
+     */
+    public synchronized void flush() {
+        if (window == null) {
+            return;
+        }
+        Window w = window;
+        window = null;
+        numberOfBatches++;
+        try {
+            w.future =
+                w.delegate.getAsMapAsync(
+                    (Transaction) null,
+                    new ArrayList<Key>(w.keys));
+        } catch (RuntimeException e) {
+            CompletableFuture<Map<Key, Entity>> failure =
+                new CompletableFuture<Map<Key, Entity>>();
+            failure.completeExceptionally(e);
+            w.future = failure;
+        }
+    }
+
+    /**
+     * Sends the queued keys if the window has not been sent yet.
+     *
+     * @param w
+     *            the window
+     */
+    protected synchronized void flush(Window w) {
+        if (window == w) {
+            flush();
+        }
+    }
+
+    /**
+     * The keys sent as one batch get.
+     *
+     */
+    protected static class Window {
+
+        /**
+         * The delegate to send the batch get.
+         */
+        protected final AsyncDatastoreDelegate delegate;
+
+        /**
+         * The keys.
+         */
+        protected final Set<Key> keys = new LinkedHashSet<Key>();
+
+        /**
+         * The result of the batch get.
+         */
+        protected volatile Future<Map<Key, Entity>> future;
+
+        /**
+         * Constructor.
+         *
+         * @param delegate
+         *            the delegate to send the batch get
+         */
+        protected Window(AsyncDatastoreDelegate delegate) {
+            this.delegate = delegate;
+        }
+    }
+
+    /**
+     * A future of a queued get.
+     *
+     */
+    protected class WindowFuture implements Future<Map<Key, Entity>> {
+
+        /**
+         * The window.
+         */
+        protected final Window window;
+
+        /**
+         * Constructor.
+         *
+         * @param window
+         *            the window
+         */
+        protected WindowFuture(Window window) {
+            this.window = window;
+        }
+
+        /**
+         * Sends the window if it has not been sent yet. A queued get cannot be
+         * cancelled because the batch get is shared by the other gets.
+         *
+         * @return false
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            flush(window);
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        /**
+         * Sends the window if it has not been sent yet and determines if the
+         * batch get is done, so that a caller polling this future does not
+         * wait forever.
+         *
+         * @return whether the batch get is done
+         */
+        public boolean isDone() {
+            flush(window);
+            return window.future.isDone();
+        }
+
+        public Map<Key, Entity> get() throws InterruptedException,
+                ExecutionException {
+            flush(window);
+            return window.future.get();
+        }
+
+        public Map<Key, Entity> get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            flush(window);
+            return window.future.get(timeout, unit);
+        }
+    }
+}
@@ -15,7 +15,6 @@
  */
 package org.slim3.datastore;
 
-import java.util.Arrays;
 import java.util.Collection;
 
 /**
@@ -42,13 +41,17 @@ public class InMemoryDescCriterion extends AbstractCriterion implements
     }
 
     public int compare(Object model1, Object model2) {
-        Object v1 = convertValueForDatastore(attributeMeta.getValue(model1));
+        Object v1 = attributeMeta.getValue(model1);
         if (v1 instanceof Collection<?>) {
             v1 = getGreatestValue((Collection<?>) v1);
+        } else {
+            v1 = convertValueForDatastore(v1);
         }
-        Object v2 = convertValueForDatastore(attributeMeta.getValue(model2));
+        Object v2 = attributeMeta.getValue(model2);
         if (v2 instanceof Collection<?>) {
             v2 = getGreatestValue((Collection<?>) v2);
+        } else {
+            v2 = convertValueForDatastore(v2);
         }
         return -1 * compareValue(v1, v2);
     }
@@ -66,14 +69,15 @@ public class InMemoryDescCriterion extends AbstractCriterion implements
      * @return the greatest value of the collection
      */
     protected Object getGreatestValue(Collection<?> collection) {
-        if (collection.size() == 0) {
-            return null;
+        Object greatest = null;
+        boolean first = true;
+        for (Object o : collection) {
+            Object v = convertValueForDatastore(o);
+            if (first || compareValue(v, greatest) > 0) {
+                greatest = v;
+                first = false;
+            }
         }
-        if (collection.size() == 1) {
-            return collection.iterator().next();
-        }
-        Object[] array = collection.toArray();
-        Arrays.sort(array);
-        return array[array.length - 1];
+        return greatest;
     }
 }
\ No newline at end of file
@@ -15,8 +15,6 @@
  */
 package org.slim3.datastore;
 
-import com.google.appengine.api.datastore.Text;
-
 /**
  * An implementation class for "equal" in-memory filter.
  * 
@@ -49,19 +47,16 @@ public class InMemoryEqualCriterion extends AbstractCriterion implements
     }
 
     public boolean accept(Object model) {
-        Object v = convertValueForDatastore(attributeMeta.getValue(model));
+        Object v = attributeMeta.getValue(model);
         if (v instanceof Iterable<?>) {
             for (Object o : (Iterable<?>) v) {
-                if (compareValue(o, value) == 0) {
+                if (compareValue(convertValueForDatastore(o), value) == 0) {
                     return true;
                 }
             }
             return false;
         }
-        if (v instanceof Text) {
-            return compareValue(((Text) v).getValue(), value) == 0;
-        }
-        return compareValue(v, value) == 0;
+        return compareValue(convertValueForDatastore(v), value) == 0;
     }
 
     @Override
@@ -48,16 +48,16 @@ public class InMemoryGreaterThanOrEqualCriterion extends AbstractCriterion
     }
 
     public boolean accept(Object model) {
-        Object v = convertValueForDatastore(attributeMeta.getValue(model));
+        Object v = attributeMeta.getValue(model);
         if (v instanceof Iterable<?>) {
             for (Object o : (Iterable<?>) v) {
-                if (compareValue(o, value) >= 0) {
+                if (compareValue(convertValueForDatastore(o), value) >= 0) {
                     return true;
                 }
             }
             return false;
         }
-        return compareValue(v, value) >= 0;
+        return compareValue(convertValueForDatastore(v), value) >= 0;
     }
 
     @Override
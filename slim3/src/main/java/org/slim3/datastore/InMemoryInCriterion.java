@@ -15,7 +15,13 @@
  */
 package org.slim3.datastore;
 
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import com.google.appengine.api.datastore.Key;
 
 /**
  * An implementation class for "in" in-memory filter.
@@ -32,6 +38,37 @@ public class InMemoryInCriterion extends AbstractCriterion implements
      */
     protected List<?> value;
 
+    /**
+     * The minimum number of the values looked up by hash.
+     */
+    protected static final int HASH_THRESHOLD = 8;
+
+    /**
+     * The classes whose equals method is consistent with compareTo.
+     */
+    protected static final Set<Class<?>> HASHABLE_CLASSES =
+        new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+            String.class,
+            Boolean.class,
+            Byte.class,
+            Short.class,
+            Integer.class,
+            Long.class,
+            Float.class,
+            Double.class,
+            Date.class,
+            Key.class));
+
+    /**
+     * The hashed values or null if the values are scanned linearly.
+     */
+    protected Set<Object> valueSet;
+
+    /**
+     * The class of the hashed values.
+     */
+    protected Class<?> valueClass;
+
     /**
      * Constructor.
      * 
@@ -56,10 +93,39 @@ public class InMemoryInCriterion extends AbstractCriterion implements
             throw new IllegalArgumentException(
                 "The IN parameter must not be empty.");
         }
+        if (this.value.size() >= HASH_THRESHOLD) {
+            prepareValueSet();
+        }
+    }
+
+    /**
+     * Prepares the hashed values if all the values are of the same hashable
+     * class.
+     */
+    protected void prepareValueSet() {
+        Class<?> c = null;
+        for (Object o : value) {
+            if (o == null) {
+                continue;
+            }
+            if (c == null) {
+                c = o.getClass();
+            } else if (c != o.getClass()) {
+                return;
+            }
+        }
+        if (c == null || !HASHABLE_CLASSES.contains(c)) {
+            return;
+        }
+        valueSet = new HashSet<Object>(value);
+        valueClass = c;
     }
 
     public boolean accept(Object model) {
         Object v = convertValueForDatastore(attributeMeta.getValue(model));
+        if (valueSet != null && (v == null || v.getClass() == valueClass)) {
+            return valueSet.contains(v);
+        }
         for (Object o : value) {
             if (compareValue(v, o) == 0) {
                 return true;
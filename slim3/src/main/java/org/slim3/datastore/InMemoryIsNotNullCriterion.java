@@ -39,16 +39,16 @@ public class InMemoryIsNotNullCriterion extends AbstractCriterion implements
     }
 
     public boolean accept(Object model) {
-        Object v = convertValueForDatastore(attributeMeta.getValue(model));
+        Object v = attributeMeta.getValue(model);
         if (v instanceof Iterable<?>) {
             for (Object o : (Iterable<?>) v) {
-                if (o != null) {
+                if (convertValueForDatastore(o) != null) {
                     return true;
                 }
             }
             return false;
         }
-        return v != null;
+        return convertValueForDatastore(v) != null;
     }
 
     @Override
@@ -18,6 +18,7 @@ package org.slim3.datastore;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 
@@ -96,6 +97,70 @@ public class InverseModelListRef<M, O> extends AbstractInverseModelRef<M, O> {
         return new ModelListQuery();
     }
 
+    /**
+     * Loads the models of the {@link InverseModelListRef}s. The queries of the
+     * owners are sent concurrently up to
+     * {@link AsyncDatastoreDelegate#getBatchParallelism()}, and each result
+     * keeps the default sort orders of the {@link InverseModelListRef}. The
+     * {@link InverseModelListRef}s that already have the models are skipped.
+     * 
+     * <pre>
+     * List&lt;InverseModelListRef&lt;Bbb, Hoge&gt;&gt; refs = ...;
+     * for (Hoge hoge : hogeList) {
+     *     refs.add(hoge.getBbbListRef());
+     * }
+     * InverseModelListRef.load(refs);
+     * </pre>
+     * 
+     * @param refs
+     *            the {@link InverseModelListRef}s
+     * @throws NullPointerException
+     *             if the refs parameter is null or if the element of the refs
+     *             parameter is null
+     */
+    public static void load(Iterable<? extends InverseModelListRef<?, ?>> refs)
+            throws NullPointerException {
+        if (refs == null) {
+            throw new NullPointerException(
+                "The refs parameter must not be null.");
+        }
+        int parallelism = Datastore.asyncDelegate().getBatchParallelism();
+        List<InverseModelListRef<?, ?>.PendingLoad> pendings =
+            new ArrayList<InverseModelListRef<?, ?>.PendingLoad>();
+        int loaded = 0;
+        for (InverseModelListRef<?, ?> ref : refs) {
+            if (ref == null) {
+                throw new NullPointerException(
+                    "The element of the refs parameter must not be null.");
+            }
+            if (ref.modelList != null) {
+                continue;
+            }
+            pendings.add(ref.startLoad());
+            if (pendings.size() - loaded > parallelism) {
+                pendings.get(loaded++).finish();
+            }
+        }
+        for (; loaded < pendings.size(); loaded++) {
+            pendings.get(loaded).finish();
+        }
+    }
+
+    /**
+     * Sends the query of this {@link InverseModelListRef} without waiting for
+     * the result.
+     * 
+     * @return the pending load
+     */
+    protected PendingLoad startLoad() {
+        ModelListQuery q = query();
+        if (!q.prepare()) {
+            return new PendingLoad(q, null);
+        }
+        q.query.applyPolyModelFilter();
+        return new PendingLoad(q, q.query.asEntityList());
+    }
+
     /**
      * Clears the state of this {@link InverseModelListRef}.
      */
@@ -269,14 +334,9 @@ public class InverseModelListRef<M, O> extends AbstractInverseModelRef<M, O> {
          * @return models
          */
         public List<M> getModelList() {
-            Key key = getOwnerKey();
-            if (key == null) {
+            if (!prepare()) {
                 modelList = new ArrayList<M>();
             } else {
-                query.filter(mappedPropertyName, FilterOperator.EQUAL, key);
-                if (!sortsSet) {
-                    query.sort(defaultSorts);
-                }
                 modelList = query.asList();
             }
             return modelList;
@@ -288,15 +348,69 @@ public class InverseModelListRef<M, O> extends AbstractInverseModelRef<M, O> {
          * @return a query result list
          */
         public S3QueryResultList<M> asQueryResultList() {
+            if (!prepare()) {
+                return new S3QueryResultList<M>(new ArrayList<M>());
+            }
+            return query.asQueryResultList();
+        }
+
+        /**
+         * Adds the filter of the owner key and the default sort orders if no
+         * sort orders are set.
+         * 
+         * @return false if the owner has no key
+         */
+        protected boolean prepare() {
             Key key = getOwnerKey();
             if (key == null) {
-                return new S3QueryResultList<M>(new ArrayList<M>());
+                return false;
             }
             query.filter(mappedPropertyName, FilterOperator.EQUAL, key);
             if (!sortsSet) {
                 query.sort(defaultSorts);
             }
-            return query.asQueryResultList();
+            return true;
+        }
+    }
+
+    /**
+     * A load of {@link InverseModelListRef} whose query has been sent.
+     * 
+     */
+    protected class PendingLoad {
+
+        /**
+         * The query.
+         */
+        protected ModelListQuery query;
+
+        /**
+         * The entities returned by the query. Null if the owner has no key.
+         */
+        protected List<Entity> entityList;
+
+        /**
+         * Constructor.
+         * 
+         * @param query
+         *            the query
+         * @param entityList
+         *            the entities returned by the query
+         */
+        protected PendingLoad(ModelListQuery query, List<Entity> entityList) {
+            this.query = query;
+            this.entityList = entityList;
+        }
+
+        /**
+         * Waits for the result and sets the models.
+         */
+        protected void finish() {
+            if (entityList == null) {
+                modelList = new ArrayList<M>();
+            } else {
+                modelList = query.query.entityListToModelList(entityList);
+            }
         }
     }
-}
\ No newline at end of file
+}
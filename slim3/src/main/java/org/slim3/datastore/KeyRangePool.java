@@ -0,0 +1,403 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slim3.util.Cleanable;
+import org.slim3.util.Cleaner;
+import org.slim3.util.FutureUtil;
+import org.slim3.util.IntegerUtil;
+import org.slim3.util.StringUtil;
+
+import com.google.appengine.api.NamespaceManager;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.KeyRange;
+
+/**
+ * A pool of pre-allocated ids. Ids are handed out without locking, and the
+ * next range is requested asynchronously when half of the current range has
+ * been consumed. A pool is kept for each namespace, parent key and kind.
+ * Pooling is disabled(the pool size is 0) unless it is configured by
+ * {@link #setPoolSize(String, int)}, {@link #setDefaultPoolSize(int)} or the
+ * system property "slim3.keyPoolSize".
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public final class KeyRangePool {
+
+    /**
+     * The key of the default pool size.
+     */
+    public static final String POOL_SIZE = "slim3.keyPoolSize";
+
+    /**
+     * The maximum number of pools. Ids for a parent key are allocated without
+     * pooling when the number of pools reaches this value.
+     */
+    public static final int MAX_NUMBER_OF_POOLS = 1000;
+
+    /**
+     * The default pool size.
+     */
+    protected static volatile int defaultPoolSize =
+        IntegerUtil.toPrimitiveInt(System.getProperty(POOL_SIZE));
+
+    /**
+     * The pool sizes for each kind.
+     */
+    protected static ConcurrentHashMap<String, Integer> poolSizes =
+        new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * The pools.
+     */
+    protected static ConcurrentHashMap<String, Pool> pools =
+        new ConcurrentHashMap<String, Pool>();
+
+    private static volatile boolean initialized = false;
+
+    static {
+        initialize();
+    }
+
+    private static void initialize() {
+        Cleaner.add(new Cleanable() {
+            public void clean() {
+                pools.clear();
+                initialized = false;
+            }
+        });
+        initialized = true;
+    }
+
+    /**
+     * Returns the default pool size.
+     *
+     * @return the default pool size
+     */
+    public static int getDefaultPoolSize() {
+        return defaultPoolSize;
+    }
+
+    /**
+     * Sets the default pool size. The pool size 0 means that ids are allocated
+     * one by one.
+     *
+     * @param poolSize
+     *            the default pool size
+     * @throws IllegalArgumentException
+     *             if the poolSize parameter is negative
+     */
+    public static void setDefaultPoolSize(int poolSize)
+            throws IllegalArgumentException {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("The poolSize parameter("
+                + poolSize
+                + ") must not be negative.");
+        }
+        defaultPoolSize = poolSize;
+    }
+
+    /**
+     * Returns the pool size for the kind.
+     *
+     * @param kind
+     *            the kind
+     * @return the pool size
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     */
+    public static int getPoolSize(String kind) throws NullPointerException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        Integer poolSize = poolSizes.get(kind);
+        return poolSize != null ? poolSize : defaultPoolSize;
+    }
+
+    /**
+     * Sets the pool size for the kind. The pool size 0 means that ids are
+     * allocated one by one.
+     *
+     * @param kind
+     *            the kind
+     * @param poolSize
+     *            the pool size
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     * @throws IllegalArgumentException
+     *             if the poolSize parameter is negative
+     */
+    public static void setPoolSize(String kind, int poolSize)
+            throws NullPointerException, IllegalArgumentException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("The poolSize parameter("
+                + poolSize
+                + ") must not be negative.");
+        }
+        poolSizes.put(kind, poolSize);
+    }
+
+    /**
+     * Discards all the pools and the pool sizes for each kind.
+     */
+    public static void clear() {
+        pools.clear();
+        poolSizes.clear();
+    }
+
+    /**
+     * Allocates a key within a namespace defined by the parent key and the
+     * kind.
+     *
+     * @param ds
+     *            the asynchronous datastore service
+     * @param parentKey
+     *            the parent key
+     * @param kind
+     *            the kind
+     * @return a key
+     * @throws NullPointerException
+     *             if the ds parameter is null or if the kind parameter is null
+     */
+    public static Key allocateId(AsyncDatastoreService ds, Key parentKey,
+            String kind) throws NullPointerException {
+        if (ds == null) {
+            throw new NullPointerException("The ds parameter must not be null.");
+        }
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        if (!initialized) {
+            initialize();
+        }
+        Pool pool = getPool(parentKey, kind);
+        if (pool == null) {
+            KeyRange range =
+                FutureUtil.getQuietly(allocateIdsAsync(ds, parentKey, kind, 1));
+            return range.getStart();
+        }
+        long id = pool.nextId(ds);
+        return parentKey == null ? KeyFactory.createKey(kind, id) : KeyFactory
+            .createKey(parentKey, kind, id);
+    }
+
+    /**
+     * Returns the pool. Returns null if pooling is disabled.
+     *
+     * @param parentKey
+     *            the parent key
+     * @param kind
+     *            the kind
+     * @return the pool
+     */
+    protected static Pool getPool(Key parentKey, String kind) {
+        int poolSize = getPoolSize(kind);
+        if (poolSize <= 1) {
+            return null;
+        }
+        String name = toPoolName(parentKey, kind);
+        Pool pool = pools.get(name);
+        if (pool != null) {
+            return pool;
+        }
+        if (parentKey != null && pools.size() >= MAX_NUMBER_OF_POOLS) {
+            return null;
+        }
+        pool = new Pool(parentKey, kind, poolSize);
+        Pool old = pools.putIfAbsent(name, pool);
+        return old != null ? old : pool;
+    }
+
+    private static String toPoolName(Key parentKey, String kind) {
+        StringBuilder sb = new StringBuilder(64);
+        if (parentKey != null) {
+            sb.append(KeyFactory.keyToString(parentKey));
+        } else {
+            String namespace = NamespaceManager.get();
+            if (!StringUtil.isEmpty(namespace)) {
+                sb.append(namespace);
+            }
+        }
+        return sb.append('/').append(kind).toString();
+    }
+
+    private static Future<KeyRange> allocateIdsAsync(AsyncDatastoreService ds,
+            Key parentKey, String kind, long num) {
+        return parentKey == null ? DatastoreUtil.allocateIdsAsync(
+            ds,
+            kind,
+            num) : DatastoreUtil.allocateIdsAsync(ds, parentKey, kind, num);
+    }
+
+    private KeyRangePool() {
+    }
+
+    /**
+     * A pool of ids for a parent key and a kind.
+     *
+     */
+    protected static final class Pool {
+
+        /**
+         * The parent key.
+         */
+        protected final Key parentKey;
+
+        /**
+         * The kind.
+         */
+        protected final String kind;
+
+        /**
+         * The number of ids allocated at a time.
+         */
+        protected final int poolSize;
+
+        /**
+         * The range being consumed.
+         */
+        protected final AtomicReference<Range> current =
+            new AtomicReference<Range>();
+
+        /**
+         * The range being allocated.
+         */
+        protected final AtomicReference<Future<KeyRange>> pending =
+            new AtomicReference<Future<KeyRange>>();
+
+        /**
+         * Constructor.
+         *
+         * @param parentKey
+         *            the parent key
+         * @param kind
+         *            the kind
+         * @param poolSize
+         *            the number of ids allocated at a time
+         */
+        protected Pool(Key parentKey, String kind, int poolSize) {
+            this.parentKey = parentKey;
+            this.kind = kind;
+            this.poolSize = poolSize;
+        }
+
+        /**
+         * Returns the next id.
+         *
+         * @param ds
+         *            the asynchronous datastore service
+         * @return the next id
+         */
+        protected long nextId(AsyncDatastoreService ds) {
+            while (true) {
+                Range range = current.get();
+                if (range != null) {
+                    long id = range.next.getAndIncrement();
+                    if (id <= range.end) {
+                        if (id == range.refillId) {
+                            prefetch(ds);
+                        }
+                        return id;
+                    }
+                }
+                Future<KeyRange> future = prefetch(ds);
+                KeyRange keyRange;
+                try {
+                    keyRange = FutureUtil.getQuietly(future);
+                } catch (RuntimeException e) {
+                    pending.compareAndSet(future, null);
+                    throw e;
+                }
+                // Only the thread that takes the pending range installs it,
+                // so that no range is handed out twice.
+                if (pending.compareAndSet(future, null)) {
+                    current.set(new Range(keyRange));
+                }
+            }
+        }
+
+        /**
+         * Requests the next range asynchronously unless it has already been
+         * requested.
+         *
+         * @param ds
+         *            the asynchronous datastore service
+         * @return the next range represented as {@link Future}
+         */
+        protected Future<KeyRange> prefetch(AsyncDatastoreService ds) {
+            while (true) {
+                Future<KeyRange> future = pending.get();
+                if (future != null) {
+                    return future;
+                }
+                future = allocateIdsAsync(ds, parentKey, kind, poolSize);
+                if (pending.compareAndSet(null, future)) {
+                    return future;
+                }
+            }
+        }
+    }
+
+    /**
+     * A range of ids.
+     *
+     */
+    protected static final class Range {
+
+        /**
+         * The next id.
+         */
+        protected final AtomicLong next;
+
+        /**
+         * The last id.
+         */
+        protected final long end;
+
+        /**
+         * The id that triggers the allocation of the next range.
+         */
+        protected final long refillId;
+
+        /**
+         * Constructor.
+         *
+         * @param keyRange
+         *            the key range
+         */
+        protected Range(KeyRange keyRange) {
+            long start = keyRange.getStart().getId();
+            end = keyRange.getEnd().getId();
+            next = new AtomicLong(start);
+            refillId = start + (end - start) / 2;
+        }
+    }
+}
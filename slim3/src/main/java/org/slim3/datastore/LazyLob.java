@@ -0,0 +1,168 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.io.Serializable;
+
+import org.slim3.util.ByteUtil;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * A holder of a large object decoded on first access. An attribute of this
+ * type annotated with {@literal @}Attribute(lob = true, lazy = true) keeps the
+ * {@link Text} or the {@link Blob} read from datastore, and the value is
+ * decoded when {@link #get()} is called first. A holder that has not been
+ * decoded puts the original property back without encoding it again.
+ *
+ * <p>
+ * A string is stored as {@link Text} and the other values are stored as a
+ * {@link Blob} of the serialized bytes, the same as the lob attributes that
+ * are not lazy. A byte array is not supported because the byte array lob
+ * attributes are stored as a raw {@link Blob}, so use byte[] or {@link Blob}
+ * directly.
+ * </p>
+ *
+ * @author higa
+ * @param <T>
+ *            the value type
+ * @since 2.0.0
+ *
+ */
+public class LazyLob<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The property read from datastore. This is null after the value is
+     * decoded or set.
+     */
+    protected Object property;
+
+    /**
+     * The value.
+     */
+    protected T value;
+
+    /**
+     * Whether the value has been decoded or set.
+     */
+    protected boolean decoded;
+
+    /**
+     * Constructor.
+     */
+    public LazyLob() {
+        decoded = true;
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param value
+     *            the value
+     */
+    public LazyLob(T value) {
+        set(value);
+    }
+
+    /**
+     * Creates a holder of the property read from datastore.
+     * 
+     * @param <T>
+     *            the value type
+     * @param property
+     *            the {@link Text} or the {@link Blob} read from datastore
+     * @return a holder
+     * @throws IllegalArgumentException
+     *             if the property parameter is neither {@link Text} nor
+     *             {@link Blob}
+     */
+    public static <T> LazyLob<T> fromProperty(Object property)
+            throws IllegalArgumentException {
+        if (property != null
+            && !(property instanceof Text)
+            && !(property instanceof Blob)) {
+            throw new IllegalArgumentException("The property parameter("
+                + property.getClass().getName()
+                + ") must be Text or Blob.");
+        }
+        LazyLob<T> lob = new LazyLob<T>();
+        lob.property = property;
+        lob.decoded = property == null;
+        return lob;
+    }
+
+    /**
+     * Returns the value decoding the property if necessary.
+     * 
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        if (!decoded) {
+            if (property instanceof Text) {
+                value = (T) ((Text) property).getValue();
+            } else {
+                value = (T) ByteUtil.toObject(((Blob) property).getBytes());
+            }
+            property = null;
+            decoded = true;
+        }
+        return value;
+    }
+
+    /**
+     * Sets the value.
+     * 
+     * @param value
+     *            the value
+     */
+    public void set(T value) {
+        this.value = value;
+        property = null;
+        decoded = true;
+    }
+
+    /**
+     * Determines if the value has been decoded or set.
+     * 
+     * @return whether the value has been decoded or set
+     */
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Returns the property to store in datastore. The property read from
+     * datastore is returned as it is if the value has not been decoded.
+     * 
+     * @return the {@link Text} or the {@link Blob}
+     */
+    public Object toProperty() {
+        if (!decoded) {
+            return property;
+        }
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String) {
+            return new Text((String) value);
+        }
+        return new Blob(ByteUtil.toByteArray(value));
+    }
+}
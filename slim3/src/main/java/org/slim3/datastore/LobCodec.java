@@ -0,0 +1,48 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+/**
+ * A codec of large objects. A codec specified by
+ * {@literal @}Attribute(lob = true, codec = ...) is used by the generated meta
+ * data instead of Java serialization. The codec must be thread safe and have
+ * a public default constructor.
+ *
+ * @author higa
+ * @since 2.0.0
+ * @see BinaryLobCodec
+ *
+ */
+public interface LobCodec {
+
+    /**
+     * Encodes the value.
+     *
+     * @param value
+     *            the value that is not null
+     * @return the encoded bytes
+     */
+    byte[] encode(Object value);
+
+    /**
+     * Decodes the bytes.
+     *
+     * @param bytes
+     *            the encoded bytes that are not null
+     * @return the value
+     */
+    Object decode(byte[] bytes);
+}
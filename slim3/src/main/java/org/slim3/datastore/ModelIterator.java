@@ -15,7 +15,10 @@
  */
 package org.slim3.datastore;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.google.appengine.api.datastore.Entity;
 
@@ -40,6 +43,32 @@ public class ModelIterator<M> implements Iterator<M> {
      */
     protected ModelMeta<M> modelMeta;
 
+    /**
+     * The in-memory filter criteria.
+     */
+    protected List<? extends InMemoryFilterCriterion> filterCriteria =
+        Collections.emptyList();
+
+    /**
+     * The maximum number of the accepted models. Null means no limit.
+     */
+    protected Integer limit;
+
+    /**
+     * The number of the returned models.
+     */
+    protected int count;
+
+    /**
+     * The next model that was read ahead and accepted.
+     */
+    protected M nextModel;
+
+    /**
+     * Whether the next model was read ahead.
+     */
+    protected boolean readAhead;
+
     /**
      * Constructor.
      * 
@@ -65,12 +94,94 @@ public class ModelIterator<M> implements Iterator<M> {
         this.modelMeta = modelMeta;
     }
 
+    /**
+     * Constructor. The models are filtered lazily while reading the entities,
+     * and the iteration stops when the number of the accepted models reaches
+     * the limit.
+     * 
+     * @param entityIterator
+     *            the {@link Iterator} for the entity
+     * @param modelMeta
+     *            the meta data of the model
+     * @param filterCriteria
+     *            the in-memory filter criteria
+     * @param limit
+     *            the maximum number of the accepted models or null
+     * @throws NullPointerException
+     *             if the entityIterator parameter is null or if the modelMeta
+     *             parameter is null or if the filterCriteria parameter is null
+     * @since 2.0.0
+     */
+    public ModelIterator(Iterator<Entity> entityIterator,
+            ModelMeta<M> modelMeta,
+            List<? extends InMemoryFilterCriterion> filterCriteria,
+            Integer limit) throws NullPointerException {
+        this(entityIterator, modelMeta);
+        if (filterCriteria == null) {
+            throw new NullPointerException(
+                "The filterCriteria parameter must not be null.");
+        }
+        this.filterCriteria = filterCriteria;
+        this.limit = limit;
+    }
+
     public boolean hasNext() {
-        return entityIterator.hasNext();
+        if (limit != null && count >= limit) {
+            return false;
+        }
+        if (filterCriteria.isEmpty()) {
+            return entityIterator.hasNext();
+        }
+        if (readAhead) {
+            return true;
+        }
+        while (true) {
+            beforeReadAhead();
+            if (!entityIterator.hasNext()) {
+                return false;
+            }
+            M model = toModel(entityIterator.next());
+            if (DatastoreUtil.accept(model, filterCriteria)) {
+                nextModel = model;
+                readAhead = true;
+                return true;
+            }
+        }
     }
 
     public M next() {
-        Entity entity = entityIterator.next();
+        if (limit != null && count >= limit) {
+            throw new NoSuchElementException();
+        }
+        M model;
+        if (filterCriteria.isEmpty()) {
+            model = toModel(entityIterator.next());
+        } else {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            model = nextModel;
+            nextModel = null;
+            readAhead = false;
+        }
+        count++;
+        return model;
+    }
+
+    /**
+     * Called before an entity is read ahead to find the next accepted model.
+     */
+    protected void beforeReadAhead() {
+    }
+
+    /**
+     * Converts the entity to a model.
+     * 
+     * @param entity
+     *            the entity
+     * @return a model
+     */
+    protected M toModel(Entity entity) {
         ModelMeta<M> mm = DatastoreUtil.getModelMeta(modelMeta, entity);
         M model = mm.entityToModel(entity);
         mm.postGet(model);
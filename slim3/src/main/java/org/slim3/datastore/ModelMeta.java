@@ -474,6 +474,73 @@ public abstract class ModelMeta<M> {
         return value != null ? new Blob(ByteUtil.toByteArray(value)) : null;
     }
 
+    /**
+     * Compresses the text or the blob.
+     *
+     * @param value the text or the blob
+     * @return a compressed blob or the value itself
+     * @see CompressionUtil#compress(Object)
+     */
+    protected Object compressProperty(Object value) {
+        return CompressionUtil.compress(value);
+    }
+
+    /**
+     * Decompresses the property.
+     *
+     * @param value the property
+     * @return the original text or blob
+     * @see CompressionUtil#decompress(Object)
+     */
+    protected Object decompressProperty(Object value) {
+        return CompressionUtil.decompress(value);
+    }
+
+    /**
+     * Converts the blob to an object by the codec.
+     *
+     * @param <T>   the type
+     * @param codec the codec
+     * @param value the blob
+     * @return an object
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T blobToObject(LobCodec codec, Blob value) {
+        return value != null ? (T) codec.decode(value.getBytes()) : null;
+    }
+
+    /**
+     * Converts the object to a blob by the codec.
+     *
+     * @param codec the codec
+     * @param value the object
+     * @return a blob
+     */
+    protected Blob objectToBlob(LobCodec codec, Object value) {
+        return value != null ? new Blob(codec.encode(value)) : null;
+    }
+
+    /**
+     * Converts the text or the blob to a lazy large object.
+     *
+     * @param <T>   the value type
+     * @param value the text or the blob
+     * @return a lazy large object
+     */
+    protected <T> LazyLob<T> toLazyLob(Object value) {
+        return LazyLob.fromProperty(value);
+    }
+
+    /**
+     * Converts the lazy large object to a text or a blob.
+     *
+     * @param value the lazy large object
+     * @return a text or a blob
+     */
+    protected Object lazyLobToProperty(LazyLob<?> value) {
+        return value != null ? value.toProperty() : null;
+    }
+
     /**
      * Converts the list to an array list.
      *
@@ -21,17 +21,20 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.slim3.util.ConversionUtil;
+import org.slim3.util.FutureUtil;
 
 import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
 
 /**
  * A query class for select.
@@ -61,6 +64,24 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
     protected List<InMemorySortCriterion> inMemorySortCriteria =
         new ArrayList<InMemorySortCriterion>();
 
+    /**
+     * Whether the offset and the limit are applied to the models sorted in
+     * memory.
+     */
+    protected boolean inMemoryTopN = false;
+
+    /**
+     * The meta data of the {@link ModelRef} attributes to prefetch.
+     */
+    protected List<ModelRefAttributeMeta<?, ?, ?>> prefetchAttributeMetas =
+        new ArrayList<ModelRefAttributeMeta<?, ?, ?>>();
+
+    /**
+     * The expiration of the result cached by {@link QueryCache}. Null means
+     * the result is not cached.
+     */
+    protected Expiration cacheExpiration;
+
     /**
      * Constructor.
      * 
@@ -218,14 +239,245 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
         return this;
     }
 
+    /**
+     * Adds the in-memory sort criteria, and applies the offset and the limit
+     * to the models sorted in memory instead of to the datastore fetch. All
+     * the results of the query are streamed, and only the number of models
+     * specified by the offset and the limit are held at once.
+     * 
+     * @param criteria
+     *            the in-memory sort criteria
+     * @return this instance
+     * @throws NullPointerException
+     *             if the element of the criteria parameter is null
+     * @see #sortInMemory(InMemorySortCriterion...)
+     */
+    public ModelQuery<M> sortInMemoryTopN(InMemorySortCriterion... criteria)
+            throws NullPointerException {
+        sortInMemory(criteria);
+        inMemoryTopN = true;
+        return this;
+    }
+
+    /**
+     * Adds the meta data of the {@link ModelRef} attributes to prefetch. The
+     * models referred by the attributes of the results are read by one batch
+     * get.
+     * 
+     * @param attributeMetas
+     *            the meta data of the {@link ModelRef} attributes
+     * @return this instance
+     * @throws NullPointerException
+     *             if the element of the attributeMetas parameter is null
+     * @see Datastore#prefetch(Iterable, ModelRefAttributeMeta...)
+     */
+    public ModelQuery<M> prefetch(
+            ModelRefAttributeMeta<?, ?, ?>... attributeMetas)
+            throws NullPointerException {
+        for (ModelRefAttributeMeta<?, ?, ?> am : attributeMetas) {
+            if (am == null) {
+                throw new NullPointerException(
+                    "The element of the attributeMetas parameter must not be null.");
+            }
+            prefetchAttributeMetas.add(am);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the attributes to project. Only the projected properties are read
+     * from the index, so the returned models are partly filled. The
+     * attributes must be indexed, and a model is returned for each value of a
+     * multi-valued property.
+     * 
+     * @param attributeMetas
+     *            the meta data of the attributes
+     * @return this instance
+     * @throws NullPointerException
+     *             if the element of the attributeMetas parameter is null
+     * @see #asProjectionList()
+     */
+    public ModelQuery<M> project(CoreAttributeMeta<?, ?>... attributeMetas)
+            throws NullPointerException {
+        for (CoreAttributeMeta<?, ?> am : attributeMetas) {
+            if (am == null) {
+                throw new NullPointerException(
+                    "The element of the attributeMetas parameter must not be null.");
+            }
+            query.addProjection(new PropertyProjection(
+                am.getName(),
+                getProjectionType(am.getAttributeClass())));
+        }
+        return this;
+    }
+
+    /**
+     * Removes the duplicate results of the projected attributes.
+     * 
+     * @return this instance
+     * @throws IllegalStateException
+     *             if no attribute is projected
+     * @see #project(CoreAttributeMeta...)
+     */
+    public ModelQuery<M> distinct() throws IllegalStateException {
+        if (query.getProjections().isEmpty()) {
+            throw new IllegalStateException(
+                "In case of distinct(), you must specify project().");
+        }
+        query.setDistinct(true);
+        return this;
+    }
+
+    /**
+     * Returns the type of the projected value stored for the attribute class.
+     * 
+     * @param attributeClass
+     *            the attribute class
+     * @return the type of the projected value
+     */
+    protected static Class<?> getProjectionType(Class<?> attributeClass) {
+        if (attributeClass == int.class
+            || attributeClass == Integer.class
+            || attributeClass == long.class
+            || attributeClass == Long.class
+            || attributeClass == short.class
+            || attributeClass == Short.class
+            || attributeClass == byte.class
+            || attributeClass == Byte.class) {
+            return Long.class;
+        }
+        if (attributeClass == double.class
+            || attributeClass == Double.class
+            || attributeClass == float.class
+            || attributeClass == Float.class) {
+            return Double.class;
+        }
+        if (attributeClass == boolean.class) {
+            return Boolean.class;
+        }
+        if (attributeClass.isEnum()) {
+            return String.class;
+        }
+        return attributeClass;
+    }
+
+    /**
+     * Caches the entities returned by this query in memcache shared by all
+     * requests. The kind must be registered to {@link QueryCache}, and the
+     * cached result is discarded when an entity of the kind is put or deleted.
+     * The in-memory filters, the in-memory sorts and the prefetches are
+     * applied to the cached entities. The queries within transactions and the
+     * queries sorted by {@link #sortInMemoryTopN(InMemorySortCriterion...)}
+     * with the limit are not cached.
+     * 
+     * @param expiration
+     *            the expiration of the cached result
+     * @return this instance
+     * @throws NullPointerException
+     *             if the expiration parameter is null
+     * @throws IllegalStateException
+     *             if the kind is not registered to {@link QueryCache}
+     */
+    public ModelQuery<M> cached(Expiration expiration)
+            throws NullPointerException, IllegalStateException {
+        if (expiration == null) {
+            throw new NullPointerException(
+                "The expiration parameter must not be null.");
+        }
+        if (!QueryCache.isCached(query.getKind())) {
+            throw new IllegalStateException("The kind("
+                + query.getKind()
+                + ") is not registered to QueryCache.");
+        }
+        cacheExpiration = expiration;
+        return this;
+    }
+
     /**
      * Returns the result as a list.
      * 
      * @return the result as a list
+     * @see #sortInMemoryTopN(InMemorySortCriterion...)
      */
     public List<M> asList() {
         applyPolyModelFilter();
-        List<Entity> entityList = asEntityList();
+        if (inMemoryTopN
+            && inMemorySortCriteria.size() > 0
+            && fetchOptions.getLimit() != null) {
+            return asSortedListWithLimit();
+        }
+        return entityListToModelList(asEntityList());
+    }
+
+    /**
+     * Returns the first models sorted in memory. The entities are streamed
+     * and only the number of models specified by the offset and the limit are
+     * held at once. The offset and the limit are applied to the models sorted
+     * in memory.
+     * 
+     * @return the result list
+     */
+    protected List<M> asSortedListWithLimit() {
+        Integer offset = fetchOptions.getOffset();
+        int limit = fetchOptions.getLimit();
+        int skip = offset != null ? offset : 0;
+        Iterator<M> iterator =
+            new ModelIterator<M>(
+                asEntityIterator(copyFetchOptions(null, null)),
+                modelMeta,
+                inMemoryFilterCriteria,
+                null);
+        int size = (int) Math.min((long) skip + limit, Integer.MAX_VALUE);
+        List<M> ret =
+            DatastoreUtil.sortInMemory(iterator, inMemorySortCriteria, size);
+        if (skip > 0) {
+            ret =
+                skip < ret.size()
+                    ? new ArrayList<M>(ret.subList(skip, ret.size()))
+                    : new ArrayList<M>();
+        }
+        applyPrefetch(ret);
+        return ret;
+    }
+
+    /**
+     * Returns entities as list. If the filters have IN or OR filters, the
+     * sub-queries are sent concurrently and the results are merged.
+     * 
+     * @return entities as list
+     * @see #asEntityListInParallel()
+     * @see #cached(Expiration)
+     */
+    @Override
+    public List<Entity> asEntityList() {
+        if (cacheExpiration != null && !txSet) {
+            return QueryCache.asEntityList(this, cacheExpiration);
+        }
+        return asEntityListFromDatastore();
+    }
+
+    /**
+     * Returns entities as list reading datastore without {@link QueryCache}.
+     * 
+     * @return entities as list
+     */
+    protected List<Entity> asEntityListFromDatastore() {
+        List<Entity> list = asEntityListInParallel();
+        if (list != null) {
+            return list;
+        }
+        return super.asEntityList();
+    }
+
+    /**
+     * Converts the entities returned by this query to the result list applying
+     * the in-memory filters, the in-memory sorts and the prefetches.
+     * 
+     * @param entityList
+     *            the entities returned by this query
+     * @return the result list
+     */
+    protected List<M> entityListToModelList(List<Entity> entityList) {
         List<M> ret = new ArrayList<M>(entityList.size());
         for (Entity e : entityList) {
             ModelMeta<M> mm = DatastoreUtil.getModelMeta(modelMeta, e);
@@ -234,24 +486,45 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
             ret.add(model);
         }
         ret = DatastoreUtil.filterInMemory(ret, inMemoryFilterCriteria);
-        return DatastoreUtil.sortInMemory(ret, inMemorySortCriteria);
+        ret = DatastoreUtil.sortInMemory(ret, inMemorySortCriteria);
+        applyPrefetch(ret);
+        return ret;
     }
 
     /**
-     * Returns a query result list.
+     * Prefetches the models referred by the {@link ModelRef} attributes.
      * 
-     * @return a query result list
+     * @param models
+     *            the models
      */
-    public S3QueryResultList<M> asQueryResultList() {
-        if (inMemoryFilterCriteria.size() > 0) {
-            throw new IllegalStateException(
-                "In case of asQueryResultList(), you cannot specify filterInMemory().");
+    protected void applyPrefetch(List<M> models) {
+        if (prefetchAttributeMetas.size() > 0) {
+            FutureUtil.getQuietly(Datastore.asyncDelegate().prefetchAsync(
+                models,
+                prefetchAttributeMetas));
         }
+    }
+
+    /**
+     * Returns a query result list. If in-memory filters are specified, the
+     * models are filtered while reading the entities, the limit is applied to
+     * the filtered models and the cursor points to the position after the last
+     * returned model.
+     * 
+     * @return a query result list
+     * @throws IllegalStateException
+     *             if in-memory sorts are specified
+     */
+    public S3QueryResultList<M> asQueryResultList()
+            throws IllegalStateException {
         if (inMemorySortCriteria.size() > 0) {
             throw new IllegalStateException(
                 "In case of asQueryResultList(), you cannot specify sortInMemory().");
         }
         applyPolyModelFilter();
+        if (inMemoryFilterCriteria.size() > 0) {
+            return asFilteredQueryResultList();
+        }
         List<M> modelList = null;
         boolean hasNext = false;
         Cursor cursor = null;
@@ -283,6 +556,7 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
                 modelList.add(model);
             }
         }
+        applyPrefetch(modelList);
         String cursorWebSafeString =
             cursor == null ? null : cursor.toWebSafeString();
         return new S3QueryResultList<M>(
@@ -294,11 +568,67 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
     }
 
     /**
-     * Returns a query result iterator.
+     * Returns a query result list filtering the models while reading the
+     * entities.
+     * 
+     * @return a query result list
+     */
+    protected S3QueryResultList<M> asFilteredQueryResultList() {
+        Integer limit = fetchOptions.getLimit();
+        QueryResultIterator<Entity> iterator =
+            asQueryResultEntityIterator(copyFetchOptions(
+                fetchOptions.getOffset(),
+                null));
+        S3QueryResultIterator<M> ite =
+            new S3QueryResultIterator<M>(
+                iterator,
+                modelMeta,
+                getEncodedFilter(),
+                getEncodedSorts(),
+                inMemoryFilterCriteria,
+                null);
+        List<M> modelList = new ArrayList<M>();
+        boolean hasNext = false;
+        String cursorWebSafeString = null;
+        while (true) {
+            hasNext = ite.hasNext();
+            if (!hasNext || (limit != null && modelList.size() == limit)) {
+                cursorWebSafeString = ite.getEncodedCursor();
+                break;
+            }
+            modelList.add(ite.next());
+        }
+        applyPrefetch(modelList);
+        return new S3QueryResultList<M>(
+            modelList,
+            cursorWebSafeString,
+            ite.getEncodedFilter(),
+            ite.getEncodedSorts(),
+            hasNext);
+    }
+
+    /**
+     * Returns a query result iterator. If in-memory filters are specified,
+     * the models are filtered while reading the entities and the limit is
+     * applied to the filtered models.
      * 
      * @return a query result iterator
      */
     public S3QueryResultIterator<M> asQueryResultIterator() {
+        if (inMemoryFilterCriteria.size() > 0) {
+            Integer limit = fetchOptions.getLimit();
+            QueryResultIterator<Entity> iterator =
+                asQueryResultEntityIterator(copyFetchOptions(
+                    fetchOptions.getOffset(),
+                    null));
+            return new S3QueryResultIterator<M>(
+                iterator,
+                modelMeta,
+                getEncodedFilter(),
+                getEncodedSorts(),
+                inMemoryFilterCriteria,
+                limit);
+        }
         QueryResultIterator<Entity> iterator = asQueryResultEntityIterator();
         return new S3QueryResultIterator<M>(
             iterator,
@@ -371,23 +701,30 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
     }
 
     /**
-     * Returns the result as an {@link Iterator}.
+     * Returns the result as an {@link Iterator}. If in-memory filters are
+     * specified, the models are filtered while reading the entities and the
+     * limit is applied to the filtered models.
      * 
      * @return the result as an {@link Iterator}
      * @throws IllegalStateException
-     *             if in-memory filers are specified or if in-memory sorts are
-     *             specified
+     *             if in-memory sorts are specified
      */
     public Iterator<M> asIterator() throws IllegalStateException {
-        if (inMemoryFilterCriteria.size() > 0) {
-            throw new IllegalStateException(
-                "In case of asIterator(), you cannot specify filterInMemory().");
-        }
         if (inMemorySortCriteria.size() > 0) {
             throw new IllegalStateException(
                 "In case of asIterator(), you cannot specify sortInMemory().");
         }
         applyPolyModelFilter();
+        if (inMemoryFilterCriteria.size() > 0) {
+            Integer limit = fetchOptions.getLimit();
+            return new ModelIterator<M>(
+                asEntityIterator(copyFetchOptions(
+                    fetchOptions.getOffset(),
+                    null)),
+                modelMeta,
+                inMemoryFilterCriteria,
+                limit);
+        }
         Iterator<Entity> entityIterator = asEntityIterator();
         return new ModelIterator<M>(entityIterator, modelMeta);
     }
@@ -397,14 +734,9 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
      * 
      * @return the result as an {@link Iterable}
      * @throws IllegalStateException
-     *             if in-memory filers are specified or if in-memory sorts are
-     *             specified
+     *             if in-memory sorts are specified
      */
     public Iterable<M> asIterable() throws IllegalStateException {
-        if (inMemoryFilterCriteria.size() > 0) {
-            throw new IllegalStateException(
-                "In case of asIterable(), you cannot specify filterInMemory().");
-        }
         if (inMemorySortCriteria.size() > 0) {
             throw new IllegalStateException(
                 "In case of asIterable(), you cannot specify sortInMemory().");
@@ -412,6 +744,40 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
         return new ModelIterable<M>(asIterator());
     }
 
+    /**
+     * Returns the partly filled models of the projected attributes as a list.
+     * 
+     * @return the result as a list
+     * @throws IllegalStateException
+     *             if no attribute is projected
+     * @see #project(CoreAttributeMeta...)
+     */
+    public List<M> asProjectionList() throws IllegalStateException {
+        if (query.getProjections().isEmpty()) {
+            throw new IllegalStateException(
+                "In case of asProjectionList(), you must specify project().");
+        }
+        return asList();
+    }
+
+    /**
+     * Returns the partly filled models of the projected attributes as an
+     * {@link Iterator}.
+     * 
+     * @return the result as an {@link Iterator}
+     * @throws IllegalStateException
+     *             if no attribute is projected or if in-memory sorts are
+     *             specified
+     * @see #project(CoreAttributeMeta...)
+     */
+    public Iterator<M> asProjectionIterator() throws IllegalStateException {
+        if (query.getProjections().isEmpty()) {
+            throw new IllegalStateException(
+                "In case of asProjectionIterator(), you must specify project().");
+        }
+        return asIterator();
+    }
+
     /**
      * Return a minimum value of the property. The value does not include null.
      * 
@@ -492,13 +858,48 @@ public class ModelQuery<M> extends AbstractQuery<ModelQuery<M>> {
     @Override
     public int count() {
         inMemorySortCriteria.clear();
-        applyPolyModelFilter();
         if (inMemoryFilterCriteria.size() > 0) {
-            return asList().size();
+            int count = 0;
+            for (Iterator<M> i = asIterator(); i.hasNext(); i.next()) {
+                count++;
+            }
+            return count;
         }
+        applyPolyModelFilter();
         return super.count();
     }
 
+    /**
+     * Determines if any model matches this query. If in-memory filters are
+     * specified, the models are read until one is accepted, otherwise only
+     * one key is read.
+     * 
+     * @return whether any model matches this query
+     */
+    public boolean exists() {
+        applyPolyModelFilter();
+        if (inMemoryFilterCriteria.size() > 0) {
+            return new ModelIterator<M>(
+                asEntityIterator(copyFetchOptions(
+                    fetchOptions.getOffset(),
+                    null)),
+                modelMeta,
+                inMemoryFilterCriteria,
+                fetchOptions.getLimit()).hasNext();
+        }
+        boolean keysOnly = query.isKeysOnly();
+        query.setKeysOnly();
+        try {
+            return prepareQuery()
+                .asIterator(copyFetchOptions(fetchOptions.getOffset(), 1))
+                .hasNext();
+        } finally {
+            if (!keysOnly) {
+                query.clearKeysOnly();
+            }
+        }
+    }
+
     /**
      * Applies the criteria.
      * 
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultIterator;
+
+/**
+ * A scan that splits a kind into key ranges by the scatter property and
+ * reads the ranges concurrently. The next batch of each range is requested
+ * asynchronously as soon as the previous batch is handled, so the batches of
+ * all the ranges are in flight at once. The models are passed to
+ * {@link ScanHandler} on the calling thread.
+ *
+ * <p>
+ * When the time limit is exceeded, the scan stops and returns a
+ * {@link ScanCheckpoint} that holds the cursor of each range. The scan can be
+ * resumed by {@link #resume(ScanCheckpoint)}.
+ * </p>
+ *
+ * @author higa
+ * @param <M>
+ *            the model type
+ * @since 2.0.0
+ *
+ */
+public class ParallelScan<M> {
+
+    /**
+     * The default number of the entities fetched per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The number of the scatter keys sampled per split point.
+     */
+    protected static final int OVERSAMPLING_FACTOR = 32;
+
+    /**
+     * The asynchronous datastore service.
+     */
+    protected AsyncDatastoreService ds;
+
+    /**
+     * The meta data of model.
+     */
+    protected ModelMeta<M> modelMeta;
+
+    /**
+     * The number of the key ranges.
+     */
+    protected int shards;
+
+    /**
+     * The filters.
+     */
+    protected List<Query.Filter> filters = new ArrayList<Query.Filter>();
+
+    /**
+     * Whether only keys are fetched.
+     */
+    protected boolean keysOnly;
+
+    /**
+     * The number of the entities fetched per batch.
+     */
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * The time limit in milliseconds.
+     */
+    protected long timeLimit;
+
+    /**
+     * The checkpoint to resume.
+     */
+    protected ScanCheckpoint checkpoint;
+
+    /**
+     * Constructor.
+     *
+     * @param ds
+     *            the asynchronous datastore service
+     * @param modelMeta
+     *            the meta data of model
+     * @param shards
+     *            the number of the key ranges
+     * @throws NullPointerException
+     *             if the ds parameter is null or if the modelMeta parameter
+     *             is null
+     * @throws IllegalArgumentException
+     *             if the shards parameter is less than 1
+     */
+    public ParallelScan(AsyncDatastoreService ds, ModelMeta<M> modelMeta,
+            int shards) throws NullPointerException, IllegalArgumentException {
+        if (ds == null) {
+            throw new NullPointerException("The ds parameter must not be null.");
+        }
+        if (modelMeta == null) {
+            throw new NullPointerException(
+                "The modelMeta parameter must not be null.");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("The shards parameter("
+                + shards
+                + ") must be greater than 0.");
+        }
+        this.ds = ds;
+        this.modelMeta = modelMeta;
+        this.shards = shards;
+    }
+
+    /**
+     * Adds the filter criteria. An inequality filter cannot be used because
+     * the key ranges are specified by inequality filters on the key.
+     *
+     * @param criteria
+     *            the filter criteria
+     * @return this instance
+     * @throws NullPointerException
+     *             if the element of the criteria parameter is null
+     */
+    public ParallelScan<M> filter(FilterCriterion... criteria)
+            throws NullPointerException {
+        filters.addAll(DatastoreUtil.toFilters(modelMeta, criteria));
+        return this;
+    }
+
+    /**
+     * Fetches only keys. The handler receives null as the model.
+     *
+     * @return this instance
+     */
+    public ParallelScan<M> keysOnly() {
+        keysOnly = true;
+        return this;
+    }
+
+    /**
+     * Specifies the number of the entities fetched per batch.
+     *
+     * @param batchSize
+     *            the number of the entities fetched per batch
+     * @return this instance
+     * @throws IllegalArgumentException
+     *             if the batchSize parameter is less than 1
+     */
+    public ParallelScan<M> batchSize(int batchSize)
+            throws IllegalArgumentException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batchSize parameter("
+                + batchSize
+                + ") must be greater than 0.");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Specifies the time limit. No batch is requested after the time limit
+     * is exceeded.
+     *
+     * @param millis
+     *            the time limit in milliseconds
+     * @return this instance
+     * @throws IllegalArgumentException
+     *             if the millis parameter is less than 1
+     */
+    public ParallelScan<M> timeLimit(long millis)
+            throws IllegalArgumentException {
+        if (millis < 1) {
+            throw new IllegalArgumentException("The millis parameter("
+                + millis
+                + ") must be greater than 0.");
+        }
+        timeLimit = millis;
+        return this;
+    }
+
+    /**
+     * Resumes the scan from the checkpoint. The key ranges of the checkpoint
+     * are used instead of splitting the kind again.
+     *
+     * @param checkpoint
+     *            the checkpoint
+     * @return this instance
+     * @throws NullPointerException
+     *             if the checkpoint parameter is null
+     */
+    public ParallelScan<M> resume(ScanCheckpoint checkpoint)
+            throws NullPointerException {
+        if (checkpoint == null) {
+            throw new NullPointerException(
+                "The checkpoint parameter must not be null.");
+        }
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Runs the scan. The scan stops when all the ranges are completed, when
+     * the handler returns false or when the time limit is exceeded. The
+     * entity for which the handler returns false is regarded as processed.
+     *
+     * @param handler
+     *            the handler
+     * @return the checkpoint
+     * @throws NullPointerException
+     *             if the handler parameter is null
+     */
+    public ScanCheckpoint run(ScanHandler<M> handler)
+            throws NullPointerException {
+        if (handler == null) {
+            throw new NullPointerException(
+                "The handler parameter must not be null.");
+        }
+        ScanCheckpoint cp =
+            checkpoint != null ? checkpoint : new ScanCheckpoint(split());
+        long deadline =
+            timeLimit > 0
+                ? System.currentTimeMillis() + timeLimit
+                : Long.MAX_VALUE;
+        Deque<ScanCheckpoint.Range> queue =
+            new ArrayDeque<ScanCheckpoint.Range>(cp.getPendingRanges());
+        Map<ScanCheckpoint.Range, QueryResultIterator<Entity>> batches =
+            new IdentityHashMap<ScanCheckpoint.Range, QueryResultIterator<Entity>>();
+        for (ScanCheckpoint.Range r : queue) {
+            batches.put(r, fetch(r));
+        }
+        while (!queue.isEmpty()) {
+            ScanCheckpoint.Range r = queue.poll();
+            QueryResultIterator<Entity> ite = batches.remove(r);
+            int count = 0;
+            boolean proceeding = true;
+            while (ite.hasNext()) {
+                Entity entity = ite.next();
+                count++;
+                cp.processedCount++;
+                if (!handler.handle(entity.getKey(), keysOnly
+                    ? null
+                    : toModel(entity))) {
+                    proceeding = false;
+                    break;
+                }
+            }
+            r.cursor = ite.getCursor();
+            if (!proceeding) {
+                return cp;
+            }
+            if (count < batchSize) {
+                r.completed = true;
+                continue;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return cp;
+            }
+            queue.add(r);
+            batches.put(r, fetch(r));
+        }
+        return cp;
+    }
+
+    /**
+     * Splits the kind into the key ranges by the scatter property.
+     *
+     * @return the key ranges
+     */
+    protected List<ScanCheckpoint.Range> split() {
+        List<Key> splitKeys = new ArrayList<Key>();
+        if (shards > 1) {
+            Query q = new Query(modelMeta.getKind());
+            q.setKeysOnly();
+            q.addSort(Entity.SCATTER_RESERVED_PROPERTY);
+            List<Key> keys = new ArrayList<Key>();
+            for (Entity e : ds.prepare(q).asIterable(
+                FetchOptions.Builder.withLimit((shards - 1)
+                    * OVERSAMPLING_FACTOR))) {
+                keys.add(e.getKey());
+            }
+            Collections.sort(keys);
+            for (int i = 1; i < shards && !keys.isEmpty(); i++) {
+                Key key = keys.get(i * keys.size() / shards);
+                if (splitKeys.isEmpty()
+                    || !splitKeys.get(splitKeys.size() - 1).equals(key)) {
+                    splitKeys.add(key);
+                }
+            }
+        }
+        List<ScanCheckpoint.Range> ranges =
+            new ArrayList<ScanCheckpoint.Range>(splitKeys.size() + 1);
+        Key start = null;
+        for (Key key : splitKeys) {
+            ranges.add(new ScanCheckpoint.Range(start, key));
+            start = key;
+        }
+        ranges.add(new ScanCheckpoint.Range(start, null));
+        return ranges;
+    }
+
+    /**
+     * Requests the next batch of the key range.
+     *
+     * @param range
+     *            the key range
+     * @return the batch
+     */
+    protected QueryResultIterator<Entity> fetch(ScanCheckpoint.Range range) {
+        Query q = new Query(modelMeta.getKind());
+        if (keysOnly) {
+            q.setKeysOnly();
+        }
+        List<Query.Filter> fs = new ArrayList<Query.Filter>(filters);
+        if (!modelMeta.getClassHierarchyList().isEmpty()) {
+            fs.add(new Query.FilterPredicate(
+                modelMeta.getClassHierarchyListName(),
+                FilterOperator.EQUAL,
+                modelMeta.getModelClass().getName()));
+        }
+        if (range.start != null) {
+            fs.add(new Query.FilterPredicate(
+                Entity.KEY_RESERVED_PROPERTY,
+                FilterOperator.GREATER_THAN_OR_EQUAL,
+                range.start));
+        }
+        if (range.end != null) {
+            fs.add(new Query.FilterPredicate(
+                Entity.KEY_RESERVED_PROPERTY,
+                FilterOperator.LESS_THAN,
+                range.end));
+        }
+        if (fs.size() == 1) {
+            q.setFilter(fs.get(0));
+        } else if (fs.size() > 1) {
+            q.setFilter(new Query.CompositeFilter(
+                CompositeFilterOperator.AND,
+                fs));
+        }
+        FetchOptions options =
+            FetchOptions.Builder.withLimit(batchSize).prefetchSize(batchSize);
+        if (range.cursor != null) {
+            options.startCursor(range.cursor);
+        }
+        return ds.prepare(q).asQueryResultIterator(options);
+    }
+
+    /**
+     * Converts the entity to a model.
+     *
+     * @param entity
+     *            the entity
+     * @return the model
+     */
+    protected M toModel(Entity entity) {
+        ModelMeta<M> mm = DatastoreUtil.getModelMeta(modelMeta, entity);
+        M model = mm.entityToModel(entity);
+        mm.postGet(model);
+        return model;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.slim3.repackaged.com.google.gdata.util.common.util.Base64;
+import org.slim3.util.ByteUtil;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Projection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * A cache of query results in memcache shared by all requests. Only the
+ * queries of the kinds registered by {@link #register(ModelMeta)} or
+ * {@link #register(String)} can be cached by
+ * {@link ModelQuery#cached(Expiration)}.
+ * 
+ * <p>
+ * Each registered kind has a generation number in memcache, and the cached
+ * results are stored under a key that includes the generation. A put or a
+ * delete of the kind through {@link AsyncDatastoreDelegate} increments the
+ * generation, so the results cached before are never read again and expire
+ * by themselves. The write also puts a lock of the kind that expires in
+ * {@link #LOCK_SECONDS} before the generation is incremented. While the lock
+ * lives, the results are not cached, so a query run while the write is in
+ * flight, before the transaction of the write is committed or before the
+ * indexes catch up with the write cannot cache the old result under the new
+ * generation.
+ * </p>
+ * 
+ * @author higa
+ * @since 2.0.0
+ * 
+ */
+public final class QueryCache {
+
+    /**
+     * The prefix of the memcache keys of the results.
+     */
+    public static final String KEY_PREFIX = "slim3.query:";
+
+    /**
+     * The prefix of the memcache keys of the generations.
+     */
+    public static final String GENERATION_KEY_PREFIX = "slim3.generation:";
+
+    /**
+     * The prefix of the memcache keys of the locks.
+     */
+    public static final String LOCK_KEY_PREFIX = "slim3.query.lock:";
+
+    /**
+     * The number of seconds a lock lives.
+     */
+    public static final int LOCK_SECONDS = 32;
+
+    /**
+     * The maximum number of bytes of the entities stored in a cached result.
+     * If the entities are larger, only the keys are stored.
+     */
+    public static final int MAX_ENTITY_BYTES = 900 * 1024;
+
+    private static final Logger logger =
+        Logger.getLogger(QueryCache.class.getName());
+
+    /**
+     * The registered kinds.
+     */
+    protected static Set<String> kinds =
+        ConcurrentHashMap.<String> newKeySet();
+
+    /**
+     * Registers the kind of the model whose queries can be cached.
+     * 
+     * @param modelMeta
+     *            the meta data of model
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null
+     */
+    public static void register(ModelMeta<?> modelMeta)
+            throws NullPointerException {
+        if (modelMeta == null) {
+            throw new NullPointerException(
+                "The modelMeta parameter must not be null.");
+        }
+        register(modelMeta.getKind());
+    }
+
+    /**
+     * Registers the kind whose queries can be cached.
+     * 
+     * @param kind
+     *            the kind
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     */
+    public static void register(String kind) throws NullPointerException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        kinds.add(kind);
+    }
+
+    /**
+     * Unregisters the kind.
+     * 
+     * @param kind
+     *            the kind
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     */
+    public static void unregister(String kind) throws NullPointerException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        kinds.remove(kind);
+    }
+
+    /**
+     * Unregisters all the kinds.
+     */
+    public static void clear() {
+        kinds.clear();
+    }
+
+    /**
+     * Determines if the queries of the kind can be cached.
+     * 
+     * @param kind
+     *            the kind
+     * @return whether the queries of the kind can be cached
+     */
+    public static boolean isCached(String kind) {
+        return kind != null && kinds.contains(kind);
+    }
+
+    /**
+     * Returns the generation of the kind. If memcache has no generation, the
+     * current time is stored as the generation, so that a generation lost by
+     * eviction does not return to an old number.
+     * 
+     * @param kind
+     *            the kind
+     * @return the generation
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     */
+    public static long getGeneration(String kind) throws NullPointerException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        Long generation =
+            getMemcacheService().increment(
+                GENERATION_KEY_PREFIX + kind,
+                0,
+                System.currentTimeMillis());
+        return generation != null ? generation : 0;
+    }
+
+    /**
+     * Locks the kinds of the keys that are registered and increments their
+     * generations.
+     * 
+     * @param keys
+     *            the keys
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public static void invalidate(Iterable<Key> keys)
+            throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        if (kinds.isEmpty()) {
+            return;
+        }
+        Set<String> targets = new LinkedHashSet<String>();
+        for (Key key : keys) {
+            if (key != null && kinds.contains(key.getKind())) {
+                targets.add(key.getKind());
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        Map<String, Long> offsets = new HashMap<String, Long>();
+        Map<String, Object> locks = new HashMap<String, Object>();
+        for (String kind : targets) {
+            offsets.put(GENERATION_KEY_PREFIX + kind, 1L);
+            locks.put(LOCK_KEY_PREFIX + kind, Boolean.TRUE);
+        }
+        try {
+            getMemcacheService().putAll(
+                locks,
+                Expiration.byDeltaSeconds(LOCK_SECONDS));
+            getMemcacheService().incrementAll(
+                offsets,
+                System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Locks the kind of the key if it is registered and increments its
+     * generation.
+     * 
+     * @param key
+     *            the key
+     */
+    public static void invalidate(Key key) {
+        if (key != null && kinds.contains(key.getKind())) {
+            invalidate(Arrays.asList(key));
+        }
+    }
+
+    /**
+     * Returns the cached result of the query or runs the query and caches the
+     * result.
+     * 
+     * @param query
+     *            the query
+     * @param expiration
+     *            the expiration of the cached result
+     * @return the result
+     * @throws NullPointerException
+     *             if the query parameter is null or if the expiration
+     *             parameter is null
+     * @throws IllegalStateException
+     *             if the kind of the query is not registered
+     */
+    public static List<Entity> asEntityList(ModelQuery<?> query,
+            Expiration expiration) throws NullPointerException,
+            IllegalStateException {
+        if (query == null) {
+            throw new NullPointerException(
+                "The query parameter must not be null.");
+        }
+        if (expiration == null) {
+            throw new NullPointerException(
+                "The expiration parameter must not be null.");
+        }
+        String kind = query.query.getKind();
+        if (!isCached(kind)) {
+            throw new IllegalStateException("The kind("
+                + kind
+                + ") is not registered to QueryCache.");
+        }
+        String cacheKey = null;
+        try {
+            cacheKey = toCacheKey(query, getGeneration(kind));
+            String lockKey = LOCK_KEY_PREFIX + kind;
+            Map<String, Object> values =
+                getMemcacheService().getAll(Arrays.asList(cacheKey, lockKey));
+            if (values.containsKey(lockKey)) {
+                cacheKey = null;
+            } else if (values.get(cacheKey) instanceof CachedResult) {
+                return ((CachedResult) values.get(cacheKey))
+                    .toEntityList(query.ds);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+        List<Entity> entities = query.asEntityListFromDatastore();
+        if (cacheKey != null) {
+            try {
+                getMemcacheService().put(
+                    cacheKey,
+                    CachedResult.create(entities),
+                    expiration);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Converts the query to the memcache key. The query is not changed.
+     * 
+     * @param query
+     *            the query
+     * @param generation
+     *            the generation of the kind
+     * @return the memcache key
+     */
+    protected static String toCacheKey(AbstractQuery<?> query, long generation) {
+        StringBuilder sb = new StringBuilder(200);
+        sb.append(query.query.getNamespace()).append('\n');
+        sb.append(query.query.getAncestor()).append('\n');
+        sb.append(query.query.isKeysOnly()).append('\n');
+        for (Projection p : query.query.getProjections()) {
+            sb.append(p.getName()).append(',');
+        }
+        sb.append(query.query.getDistinct()).append('\n');
+        Query.Filter filter = query.createFilter();
+        if (filter != null) {
+            sb.append(Base64.encode(ByteUtil.toByteArray(filter)));
+        }
+        sb.append('\n');
+        sb.append(query.getEncodedSorts()).append('\n');
+        sb.append(query.fetchOptions.getOffset()).append('\n');
+        sb.append(query.fetchOptions.getLimit()).append('\n');
+        if (query.fetchOptions.getStartCursor() != null) {
+            sb.append(query.fetchOptions.getStartCursor().toWebSafeString());
+        }
+        sb.append('\n');
+        if (query.fetchOptions.getEndCursor() != null) {
+            sb.append(query.fetchOptions.getEndCursor().toWebSafeString());
+        }
+        return KEY_PREFIX
+            + query.query.getKind()
+            + ":"
+            + generation
+            + ":"
+            + digest(sb.toString());
+    }
+
+    private static String digest(String s) {
+        try {
+            byte[] bytes =
+                MessageDigest.getInstance("SHA-1").digest(
+                    s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the memcache service. The namespace of the query is included in
+     * the memcache key, so the global namespace is used.
+     * 
+     * @return the memcache service
+     */
+    protected static MemcacheService getMemcacheService() {
+        return MemcacheServiceFactory.getMemcacheService("");
+    }
+
+    private QueryCache() {
+    }
+
+    /**
+     * A cached result. The entities are stored as bytes, or only the keys are
+     * stored if the entities are too large.
+     */
+    protected static final class CachedResult implements
+            java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<byte[]> entities;
+
+        private ArrayList<Key> keys;
+
+        /**
+         * Creates a cached result.
+         * 
+         * @param entityList
+         *            the entities
+         * @return a cached result
+         */
+        protected static CachedResult create(List<Entity> entityList) {
+            CachedResult result = new CachedResult();
+            ArrayList<byte[]> list = new ArrayList<byte[]>(entityList.size());
+            int size = 0;
+            for (Entity e : entityList) {
+                byte[] bytes = DatastoreUtil.entityToBytes(e);
+                size += bytes.length;
+                if (size > MAX_ENTITY_BYTES) {
+                    list = null;
+                    break;
+                }
+                list.add(bytes);
+            }
+            if (list != null) {
+                result.entities = list;
+                return result;
+            }
+            result.keys = new ArrayList<Key>(entityList.size());
+            for (Entity e : entityList) {
+                result.keys.add(e.getKey());
+            }
+            return result;
+        }
+
+        /**
+         * Converts this result to the entities.
+         * 
+         * @param ds
+         *            the asynchronous datastore service to read the entities
+         *            if only the keys are cached
+         * @return the entities
+         */
+        protected List<Entity> toEntityList(AsyncDatastoreService ds) {
+            List<Entity> list = new ArrayList<Entity>();
+            if (entities != null) {
+                for (byte[] bytes : entities) {
+                    list.add(DatastoreUtil.bytesToEntity(bytes));
+                }
+                return list;
+            }
+            Map<Key, Entity> map =
+                DatastoreUtil.getAsMap(ds, (Transaction) null, keys);
+            for (Key key : keys) {
+                Entity entity = map.get(key);
+                if (entity != null) {
+                    list.add(entity);
+                }
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+/**
+ * A policy of the retries of {@link Uow} on
+ * {@link java.util.ConcurrentModificationException}.
+ *
+ * @author higa
+ * @since 2.0.0
+ * @see FixedRetryPolicy
+ * @see ExponentialBackoffRetryPolicy
+ *
+ */
+public interface RetryPolicy {
+
+    /**
+     * Returns the time to sleep before the retry.
+     *
+     * @param retries
+     *            the number of the retry starting with 1
+     * @param elapsedTime
+     *            the milliseconds elapsed since the first attempt
+     * @return the time to sleep in milliseconds, or a negative value if the
+     *         unit of work is not retried
+     */
+    long getDelay(int retries, long elapsedTime);
+}
@@ -16,7 +16,9 @@
 package org.slim3.datastore;
 
 import java.io.Serializable;
+import java.util.List;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.QueryResultIterator;
 
@@ -51,6 +53,11 @@ public class S3QueryResultIterator<M> extends ModelIterator<M> implements
      */
     protected String encodedSorts;
 
+    /**
+     * The cursor before the model that was read ahead.
+     */
+    protected Cursor readAheadCursor;
+
     /**
      * Constructor.
      * 
@@ -71,12 +78,48 @@ public class S3QueryResultIterator<M> extends ModelIterator<M> implements
         this.encodedSorts = encodedSorts;
     }
 
+    /**
+     * Constructor. The models are filtered lazily while reading the entities,
+     * and the cursor points to the position after the last returned model.
+     * 
+     * @param delegate
+     *            the delegate
+     * @param modelMeta
+     *            the meta data of the model
+     * @param encodedFilter
+     *            the encoded filter
+     * @param encodedSorts
+     *            the array of sorts
+     * @param filterCriteria
+     *            the in-memory filter criteria
+     * @param limit
+     *            the maximum number of the accepted models or null
+     * @since 2.0.0
+     */
+    public S3QueryResultIterator(QueryResultIterator<Entity> delegate,
+            ModelMeta<M> modelMeta, String encodedFilter, String encodedSorts,
+            List<? extends InMemoryFilterCriterion> filterCriteria,
+            Integer limit) {
+        super(delegate, modelMeta, filterCriteria, limit);
+        this.delegate = delegate;
+        this.encodedFilter = encodedFilter;
+        this.encodedSorts = encodedSorts;
+    }
+
+    @Override
+    protected void beforeReadAhead() {
+        readAheadCursor = delegate.getCursor();
+    }
+
     /**
      * Returns the encoded cursor.
      * 
      * @return the encoded cursor
      */
     public String getEncodedCursor() {
+        if (readAhead && readAheadCursor != null) {
+            return readAheadCursor.toWebSafeString();
+        }
         return delegate.getCursor().toWebSafeString();
     }
 
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * The progress of {@link ParallelScan}. It holds the key ranges of the scan
+ * and the cursor of each range, so a scan stopped by the time limit can be
+ * resumed by {@link ParallelScan#resume(ScanCheckpoint)}, for example in the
+ * next task.
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class ScanCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String RANGE_SEPARATOR = "~";
+
+    private static final String FIELD_SEPARATOR = ".";
+
+    /**
+     * The key ranges.
+     */
+    protected List<Range> ranges;
+
+    /**
+     * The number of the processed entities.
+     */
+    protected long processedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param ranges
+     *            the key ranges
+     * @throws NullPointerException
+     *             if the ranges parameter is null
+     */
+    public ScanCheckpoint(List<Range> ranges) throws NullPointerException {
+        if (ranges == null) {
+            throw new NullPointerException(
+                "The ranges parameter must not be null.");
+        }
+        this.ranges = new ArrayList<Range>(ranges);
+    }
+
+    /**
+     * Decodes the checkpoint encoded by {@link #toWebSafeString()}. Only the
+     * keys, the cursors and the flags of the ranges are decoded, so the
+     * checkpoint can be passed safely as a request parameter.
+     *
+     * @param encodedCheckpoint
+     *            the encoded checkpoint
+     * @return the checkpoint
+     * @throws NullPointerException
+     *             if the encodedCheckpoint parameter is null
+     * @throws IllegalArgumentException
+     *             if the encodedCheckpoint parameter is invalid
+     */
+    public static ScanCheckpoint fromWebSafeString(String encodedCheckpoint)
+            throws NullPointerException, IllegalArgumentException {
+        if (encodedCheckpoint == null) {
+            throw new NullPointerException(
+                "The encodedCheckpoint parameter must not be null.");
+        }
+        String[] parts = encodedCheckpoint.split(RANGE_SEPARATOR, -1);
+        try {
+            List<Range> ranges = new ArrayList<Range>(parts.length - 1);
+            for (int i = 1; i < parts.length; i++) {
+                String[] fields = parts[i].split("\\" + FIELD_SEPARATOR, -1);
+                if (fields.length != 4
+                    || !(fields[3].equals("0") || fields[3].equals("1"))) {
+                    throw new IllegalArgumentException("The range("
+                        + parts[i]
+                        + ") is invalid.");
+                }
+                Range range =
+                    new Range(decodeKey(fields[0]), decodeKey(fields[1]));
+                if (fields[2].length() > 0) {
+                    range.cursor = Cursor.fromWebSafeString(fields[2]);
+                }
+                range.completed = fields[3].equals("1");
+                ranges.add(range);
+            }
+            ScanCheckpoint checkpoint = new ScanCheckpoint(ranges);
+            checkpoint.processedCount = Long.parseLong(parts[0]);
+            return checkpoint;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The encodedCheckpoint parameter("
+                + encodedCheckpoint
+                + ") is invalid.", e);
+        }
+    }
+
+    private static Key decodeKey(String encodedKey) {
+        return encodedKey.length() > 0
+            ? KeyFactory.stringToKey(encodedKey)
+            : null;
+    }
+
+    private static String encodeKey(Key key) {
+        return key != null ? KeyFactory.keyToString(key) : "";
+    }
+
+    /**
+     * Encodes this checkpoint. The result consists of the number of the
+     * processed entities and, for each range, the start key and the end key
+     * encoded by {@link KeyFactory#keyToString(Key)}, the cursor encoded by
+     * {@link Cursor#toWebSafeString()} and the completed flag.
+     *
+     * @return the encoded checkpoint
+     */
+    public String toWebSafeString() {
+        StringBuilder sb = new StringBuilder(100 * (ranges.size() + 1));
+        sb.append(processedCount);
+        for (Range r : ranges) {
+            sb.append(RANGE_SEPARATOR);
+            sb.append(encodeKey(r.start)).append(FIELD_SEPARATOR);
+            sb.append(encodeKey(r.end)).append(FIELD_SEPARATOR);
+            if (r.cursor != null) {
+                sb.append(r.cursor.toWebSafeString());
+            }
+            sb.append(FIELD_SEPARATOR);
+            sb.append(r.completed ? "1" : "0");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the key ranges.
+     *
+     * @return the key ranges
+     */
+    public List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Returns the key ranges that are not completed.
+     *
+     * @return the key ranges that are not completed
+     */
+    public List<Range> getPendingRanges() {
+        List<Range> ret = new ArrayList<Range>(ranges.size());
+        for (Range r : ranges) {
+            if (!r.completed) {
+                ret.add(r);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Determines if all the key ranges are completed.
+     *
+     * @return whether all the key ranges are completed
+     */
+    public boolean isCompleted() {
+        for (Range r : ranges) {
+            if (!r.completed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of the processed entities.
+     *
+     * @return the number of the processed entities
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * A key range. The start key is inclusive and the end key is exclusive.
+     * A null key means the range is not bounded.
+     *
+     */
+    public static class Range implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The start key.
+         */
+        protected Key start;
+
+        /**
+         * The end key.
+         */
+        protected Key end;
+
+        /**
+         * The cursor where the next batch starts.
+         */
+        protected Cursor cursor;
+
+        /**
+         * Whether this range is completed.
+         */
+        protected boolean completed;
+
+        /**
+         * Constructor.
+         *
+         * @param start
+         *            the start key
+         * @param end
+         *            the end key
+         */
+        public Range(Key start, Key end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the start key.
+         *
+         * @return the start key
+         */
+        public Key getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end key.
+         *
+         * @return the end key
+         */
+        public Key getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the cursor where the next batch starts.
+         *
+         * @return the cursor
+         */
+        public Cursor getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Determines if this range is completed.
+         *
+         * @return whether this range is completed
+         */
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
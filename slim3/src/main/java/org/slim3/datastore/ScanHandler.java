@@ -0,0 +1,43 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * A handler of the models read by {@link ParallelScan}. The handler is
+ * called on the thread that runs the scan, so it does not need to be thread
+ * safe.
+ *
+ * @author higa
+ * @param <M>
+ *            the model type
+ * @since 2.0.0
+ *
+ */
+public interface ScanHandler<M> {
+
+    /**
+     * Handles the model.
+     *
+     * @param key
+     *            the key
+     * @param model
+     *            the model, or null if the scan is keys only
+     * @return whether the scan continues
+     */
+    boolean handle(Key key, M model);
+}
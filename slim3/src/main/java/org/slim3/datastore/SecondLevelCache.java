@@ -0,0 +1,402 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.slim3.util.FakeFuture;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.CasValues;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.utils.FutureWrapper;
+
+/**
+ * A read-through cache of entities in memcache shared by all requests. Only
+ * the kinds registered by {@link #register(ModelMeta)} or
+ * {@link #register(String, int)} are cached. The gets outside of transactions
+ * look up memcache first, and the entities read from datastore are stored as
+ * the bytes converted by {@link DatastoreUtil#entityToBytes(Entity)}.
+ *
+ * <p>
+ * To avoid stale reads, a get that misses puts a read token before reading
+ * datastore, and stores the entity only if the token is untouched. A put or a
+ * delete overwrites the entry with a lock that expires in
+ * {@link #LOCK_SECONDS}, so that a concurrent read cannot store the old
+ * entity and the entry is not cached until the lock expires.
+ * </p>
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public final class SecondLevelCache {
+
+    /**
+     * The prefix of the memcache keys.
+     */
+    public static final String KEY_PREFIX = "slim3.entity:";
+
+    /**
+     * The number of seconds a lock and a read token live.
+     */
+    public static final int LOCK_SECONDS = 32;
+
+    private static final Logger logger =
+        Logger.getLogger(SecondLevelCache.class.getName());
+
+    private static final String LOCK = "slim3.lock";
+
+    private static final String READ_TOKEN = "slim3.read";
+
+    private static final byte[] NO_ENTITY = new byte[0];
+
+    /**
+     * The expiration seconds for each kind. 0 means no time-based expiration.
+     */
+    protected static ConcurrentHashMap<String, Integer> expirations =
+        new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Registers the kind of the model to be cached without time-based
+     * expiration.
+     *
+     * @param modelMeta
+     *            the meta data of model
+     * @throws NullPointerException
+     *             if the modelMeta parameter is null
+     */
+    public static void register(ModelMeta<?> modelMeta)
+            throws NullPointerException {
+        if (modelMeta == null) {
+            throw new NullPointerException(
+                "The modelMeta parameter must not be null.");
+        }
+        register(modelMeta.getKind(), 0);
+    }
+
+    /**
+     * Registers the kind to be cached.
+     *
+     * @param kind
+     *            the kind
+     * @param expirationSeconds
+     *            the number of seconds the entities are cached. 0 means no
+     *            time-based expiration.
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     * @throws IllegalArgumentException
+     *             if the expirationSeconds parameter is negative
+     */
+    public static void register(String kind, int expirationSeconds)
+            throws NullPointerException, IllegalArgumentException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        if (expirationSeconds < 0) {
+            throw new IllegalArgumentException(
+                "The expirationSeconds parameter("
+                    + expirationSeconds
+                    + ") must not be negative.");
+        }
+        expirations.put(kind, expirationSeconds);
+    }
+
+    /**
+     * Unregisters the kind.
+     *
+     * @param kind
+     *            the kind
+     * @throws NullPointerException
+     *             if the kind parameter is null
+     */
+    public static void unregister(String kind) throws NullPointerException {
+        if (kind == null) {
+            throw new NullPointerException(
+                "The kind parameter must not be null.");
+        }
+        expirations.remove(kind);
+    }
+
+    /**
+     * Unregisters all the kinds.
+     */
+    public static void clear() {
+        expirations.clear();
+    }
+
+    /**
+     * Determines if any kind is cached.
+     *
+     * @return whether any kind is cached
+     */
+    public static boolean isEnabled() {
+        return !expirations.isEmpty();
+    }
+
+    /**
+     * Determines if the kind is cached.
+     *
+     * @param kind
+     *            the kind
+     * @return whether the kind is cached
+     */
+    public static boolean isCached(String kind) {
+        return kind != null && expirations.containsKey(kind);
+    }
+
+    /**
+     * Determines if the entity specified by the key is cached.
+     *
+     * @param key
+     *            the key
+     * @return whether the entity specified by the key is cached
+     */
+    public static boolean isCached(Key key) {
+        return key != null
+            && key.isComplete()
+            && expirations.containsKey(key.getKind());
+    }
+
+    /**
+     * Returns entities specified by the keys outside of transactions looking
+     * up memcache first.
+     *
+     * @param delegate
+     *            the delegate to read datastore
+     * @param keys
+     *            the keys
+     * @return entities represented as {@link Future}
+     * @throws NullPointerException
+     *             if the delegate parameter is null or if the keys parameter
+     *             is null
+     */
+    public static Future<Map<Key, Entity>> getAsMapAsync(
+            final AsyncDatastoreDelegate delegate, Iterable<Key> keys)
+            throws NullPointerException {
+        if (delegate == null) {
+            throw new NullPointerException(
+                "The delegate parameter must not be null.");
+        }
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        final List<Key> misses = new ArrayList<Key>();
+        final Map<String, Key> cacheKeys = new LinkedHashMap<String, Key>();
+        for (Key key : keys) {
+            if (isCached(key)) {
+                cacheKeys.put(toCacheKey(key), key);
+            } else {
+                misses.add(key);
+            }
+        }
+        if (cacheKeys.isEmpty()) {
+            return delegate.getAsMapAsyncFromDatastore(
+                (Transaction) null,
+                misses);
+        }
+        final Map<Key, Entity> found = new HashMap<Key, Entity>();
+        final Map<String, IdentifiableValue> tokens =
+            new HashMap<String, IdentifiableValue>();
+        try {
+            MemcacheService ms = getMemcacheService();
+            Map<String, Object> values = ms.getAll(cacheKeys.keySet());
+            Map<String, Object> absences = new HashMap<String, Object>();
+            for (Map.Entry<String, Key> e : cacheKeys.entrySet()) {
+                Object value = values.get(e.getKey());
+                if (value instanceof byte[]) {
+                    byte[] bytes = (byte[]) value;
+                    if (bytes.length > 0) {
+                        found.put(e.getValue(), DatastoreUtil
+                            .bytesToEntity(bytes));
+                    }
+                    continue;
+                }
+                misses.add(e.getValue());
+                if (value == null) {
+                    absences.put(e.getKey(), READ_TOKEN);
+                }
+            }
+            if (!absences.isEmpty()) {
+                Set<String> added =
+                    ms.putAll(
+                        absences,
+                        Expiration.byDeltaSeconds(LOCK_SECONDS),
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+                if (!added.isEmpty()) {
+                    for (Map.Entry<String, IdentifiableValue> e : ms
+                        .getIdentifiables(added)
+                        .entrySet()) {
+                        if (READ_TOKEN.equals(e.getValue().getValue())) {
+                            tokens.put(e.getKey(), e.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+            misses.clear();
+            found.clear();
+            tokens.clear();
+            for (Key key : keys) {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return new FakeFuture<Map<Key, Entity>>(found);
+        }
+        return new FutureWrapper<Map<Key, Entity>, Map<Key, Entity>>(delegate
+            .getAsMapAsyncFromDatastore((Transaction) null, misses)) {
+
+            @Override
+            protected Throwable convertException(Throwable throwable) {
+                return throwable;
+            }
+
+            @Override
+            protected Map<Key, Entity> wrap(Map<Key, Entity> map)
+                    throws Exception {
+                store(cacheKeys, tokens, map);
+                found.putAll(map);
+                return found;
+            }
+        };
+    }
+
+    /**
+     * Locks the entries of the keys so that the old entities are not cached.
+     *
+     * @param keys
+     *            the keys
+     * @throws NullPointerException
+     *             if the keys parameter is null
+     */
+    public static void lock(Iterable<Key> keys) throws NullPointerException {
+        if (keys == null) {
+            throw new NullPointerException(
+                "The keys parameter must not be null.");
+        }
+        if (expirations.isEmpty()) {
+            return;
+        }
+        Map<Object, Object> locks = new HashMap<Object, Object>();
+        for (Key key : keys) {
+            if (isCached(key)) {
+                locks.put(toCacheKey(key), LOCK);
+            }
+        }
+        if (locks.isEmpty()) {
+            return;
+        }
+        try {
+            getMemcacheService().putAll(
+                locks,
+                Expiration.byDeltaSeconds(LOCK_SECONDS));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Locks the entry of the key so that the old entity is not cached.
+     *
+     * @param key
+     *            the key
+     */
+    public static void lock(Key key) {
+        if (isCached(key)) {
+            lock(Arrays.asList(key));
+        }
+    }
+
+    /**
+     * Stores the entities if the read tokens are untouched.
+     *
+     * @param cacheKeys
+     *            the map of memcache keys to keys
+     * @param tokens
+     *            the read tokens
+     * @param entities
+     *            the entities read from datastore
+     */
+    protected static void store(Map<String, Key> cacheKeys,
+            Map<String, IdentifiableValue> tokens, Map<Key, Entity> entities) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        Map<String, CasValues> values = new HashMap<String, CasValues>();
+        for (Map.Entry<String, IdentifiableValue> e : tokens.entrySet()) {
+            Key key = cacheKeys.get(e.getKey());
+            Entity entity = entities.get(key);
+            Integer seconds = expirations.get(key.getKind());
+            byte[] bytes =
+                entity != null ? DatastoreUtil.entityToBytes(entity) : NO_ENTITY;
+            values.put(e.getKey(), new CasValues(
+                e.getValue(),
+                bytes,
+                seconds != null && seconds > 0 ? Expiration
+                    .byDeltaSeconds(seconds) : null));
+        }
+        try {
+            getMemcacheService().putIfUntouched(values);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts the key to the memcache key.
+     *
+     * @param key
+     *            the key
+     * @return the memcache key
+     */
+    protected static String toCacheKey(Key key) {
+        return KEY_PREFIX + KeyFactory.keyToString(key);
+    }
+
+    /**
+     * Returns the memcache service. The namespace of the key is included in
+     * the memcache key, so the global namespace is used.
+     *
+     * @return the memcache service
+     */
+    protected static MemcacheService getMemcacheService() {
+        return MemcacheServiceFactory.getMemcacheService("");
+    }
+
+    private SecondLevelCache() {
+    }
+}
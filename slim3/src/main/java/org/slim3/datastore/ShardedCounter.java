@@ -0,0 +1,428 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.slim3.memcache.Memcache;
+import org.slim3.util.IntegerUtil;
+import org.slim3.util.LongUtil;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+
+/**
+ * A counter whose value is split into shard entities, so increments of a hot
+ * counter do not contend on one entity group. An increment updates a shard
+ * selected at random in a transaction. When the transaction fails by
+ * contention, the number of the shards is doubled up to
+ * {@link #MAX_SHARD_COUNT} and the increment is retried on another shard.
+ * 
+ * <p>
+ * The value is the sum of the shards read by one batch get. The sum is cached
+ * in memcache and the increments also increment the cached value, so the
+ * shards are read only when the cached value is evicted or expired. An
+ * increment committed while the sum is read may be missing from the cached
+ * value until it expires. The sum reads the number of the shards from
+ * datastore, so the shards added by another request are never missed.
+ * </p>
+ * 
+ * @author higa
+ * @since 2.0.0
+ * 
+ */
+public class ShardedCounter {
+
+    /**
+     * The kind of the entities that hold the number of the shards.
+     */
+    public static final String CONFIG_KIND = "slim3.Counter";
+
+    /**
+     * The kind of the shard entities.
+     */
+    public static final String SHARD_KIND = "slim3.CounterShard";
+
+    /**
+     * The property name of the number of the shards.
+     */
+    public static final String SHARD_COUNT_PROPERTY = "shardCount";
+
+    /**
+     * The property name of the count of a shard.
+     */
+    public static final String COUNT_PROPERTY = "count";
+
+    /**
+     * The default number of the shards.
+     */
+    public static final int DEFAULT_SHARD_COUNT = 20;
+
+    /**
+     * The maximum number of the shards.
+     */
+    public static final int MAX_SHARD_COUNT = 500;
+
+    /**
+     * The maximum number of retries of an increment.
+     */
+    protected static final int MAX_RETRIES = 5;
+
+    /**
+     * The prefix of the memcache keys of the values.
+     */
+    protected static final String KEY_PREFIX = "slim3.counter:";
+
+    /**
+     * The prefix of the memcache keys of the number of the shards.
+     */
+    protected static final String SHARD_COUNT_KEY_PREFIX =
+        "slim3.counter.shards:";
+
+    /**
+     * The number of seconds the cached number of the shards lives.
+     */
+    protected static final int SHARD_COUNT_EXPIRATION_SECONDS = 60;
+
+    /**
+     * The number of milliseconds the number of the shards is not cached again
+     * after it grows, so that a request that read the old number cannot cache
+     * it.
+     */
+    protected static final long SHARD_COUNT_HOLD_MILLIS = 5000;
+
+    private static final Logger logger =
+        Logger.getLogger(ShardedCounter.class.getName());
+
+    private static final Random random = new Random();
+
+    /**
+     * The datastore delegate.
+     */
+    protected DatastoreDelegate delegate;
+
+    /**
+     * The name.
+     */
+    protected String name;
+
+    /**
+     * The expiration of the cached value.
+     */
+    protected Expiration expiration = Expiration.byDeltaSeconds(60);
+
+    /**
+     * Constructor.
+     * 
+     * @param delegate
+     *            the datastore delegate
+     * @param name
+     *            the name
+     * @throws NullPointerException
+     *             if the delegate parameter is null or if the name parameter
+     *             is null
+     */
+    public ShardedCounter(DatastoreDelegate delegate, String name)
+            throws NullPointerException {
+        if (delegate == null) {
+            throw new NullPointerException(
+                "The delegate parameter must not be null.");
+        }
+        if (name == null) {
+            throw new NullPointerException(
+                "The name parameter must not be null.");
+        }
+        this.delegate = delegate;
+        this.name = name;
+    }
+
+    /**
+     * Returns the name.
+     * 
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Specifies the expiration of the cached value.
+     * 
+     * @param expiration
+     *            the expiration
+     * @return this instance
+     * @throws NullPointerException
+     *             if the expiration parameter is null
+     */
+    public ShardedCounter expiration(Expiration expiration)
+            throws NullPointerException {
+        if (expiration == null) {
+            throw new NullPointerException(
+                "The expiration parameter must not be null.");
+        }
+        this.expiration = expiration;
+        return this;
+    }
+
+    /**
+     * Increments the counter by one.
+     * 
+     * @throws ConcurrentModificationException
+     *             if the increment fails by contention after retries
+     */
+    public void increment() throws ConcurrentModificationException {
+        increment(1);
+    }
+
+    /**
+     * Increments the counter.
+     * 
+     * @param delta
+     *            the size of the increment, positive or negative
+     * @throws ConcurrentModificationException
+     *             if the increment fails by contention after retries
+     */
+    public void increment(long delta) throws ConcurrentModificationException {
+        for (int i = 0;; i++) {
+            int shardCount = getShardCount();
+            Key key = createShardKey(random.nextInt(shardCount));
+            try {
+                incrementShard(key, delta);
+                break;
+            } catch (ConcurrentModificationException e) {
+                if (i >= MAX_RETRIES) {
+                    throw e;
+                }
+                if (shardCount < MAX_SHARD_COUNT) {
+                    growShardCount(Math.min(
+                        shardCount * 2,
+                        MAX_SHARD_COUNT));
+                }
+            }
+        }
+        try {
+            Memcache.increment(KEY_PREFIX + name, delta);
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Returns the value of the counter.
+     * 
+     * @return the value of the counter
+     */
+    public long getCount() {
+        String cacheKey = KEY_PREFIX + name;
+        try {
+            Object cached = Memcache.get(cacheKey);
+            if (cached != null) {
+                return LongUtil.toPrimitiveLong(cached);
+            }
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+        int shardCount = loadShardCount();
+        List<Key> keys = new ArrayList<Key>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(createShardKey(i));
+        }
+        long count = 0;
+        Map<Key, Entity> map = delegate.getAsMapWithoutTx(keys);
+        for (Entity e : map.values()) {
+            count += LongUtil.toPrimitiveLong(e.getProperty(COUNT_PROPERTY));
+        }
+        try {
+            Memcache.put(
+                cacheKey,
+                count,
+                expiration,
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of the shards. The number is cached in memcache for
+     * {@link #SHARD_COUNT_EXPIRATION_SECONDS}.
+     * 
+     * @return the number of the shards
+     */
+    public int getShardCount() {
+        String cacheKey = SHARD_COUNT_KEY_PREFIX + name;
+        try {
+            Object cached = Memcache.get(cacheKey);
+            if (cached != null) {
+                return IntegerUtil.toPrimitiveInt(cached);
+            }
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+        int shardCount = loadShardCount();
+        try {
+            Memcache.put(
+                cacheKey,
+                shardCount,
+                Expiration.byDeltaSeconds(SHARD_COUNT_EXPIRATION_SECONDS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+        return shardCount;
+    }
+
+    /**
+     * Reads the number of the shards from datastore.
+     * 
+     * @return the number of the shards
+     */
+    protected int loadShardCount() {
+        Entity config = delegate.getOrNullWithoutTx(createConfigKey());
+        return config != null ? IntegerUtil.toPrimitiveInt(config
+            .getProperty(SHARD_COUNT_PROPERTY)) : DEFAULT_SHARD_COUNT;
+    }
+
+    /**
+     * Sets the number of the shards. The number of the shards cannot be
+     * decreased, because the values of the removed shards would be lost.
+     * 
+     * @param shardCount
+     *            the number of the shards
+     * @throws IllegalArgumentException
+     *             if the shardCount parameter is less than the current number
+     *             or greater than {@link #MAX_SHARD_COUNT}
+     */
+    public void setShardCount(int shardCount) throws IllegalArgumentException {
+        if (shardCount > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("The shardCount parameter("
+                + shardCount
+                + ") must not be greater than "
+                + MAX_SHARD_COUNT
+                + ".");
+        }
+        int current = getShardCount();
+        if (shardCount < current) {
+            throw new IllegalArgumentException("The shardCount parameter("
+                + shardCount
+                + ") must not be less than the current number("
+                + current
+                + ").");
+        }
+        growShardCount(shardCount);
+    }
+
+    /**
+     * Increments the shard in a transaction.
+     * 
+     * @param key
+     *            the key of the shard
+     * @param delta
+     *            the size of the increment
+     * @throws ConcurrentModificationException
+     *             if the transaction fails by contention
+     */
+    protected void incrementShard(Key key, long delta)
+            throws ConcurrentModificationException {
+        Transaction tx = delegate.beginTransaction();
+        try {
+            Entity entity = delegate.getOrNull(tx, key);
+            long count = 0;
+            if (entity == null) {
+                entity = new Entity(key);
+            } else {
+                count =
+                    LongUtil.toPrimitiveLong(entity.getProperty(COUNT_PROPERTY));
+            }
+            entity.setUnindexedProperty(COUNT_PROPERTY, count + delta);
+            delegate.put(tx, entity);
+            tx.commit();
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Grows the number of the shards. The number is never decreased even if
+     * another request grows it concurrently.
+     * 
+     * @param shardCount
+     *            the number of the shards
+     */
+    protected void growShardCount(int shardCount) {
+        Transaction tx = delegate.beginTransaction();
+        try {
+            Key key = createConfigKey();
+            Entity config = delegate.getOrNull(tx, key);
+            if (config == null) {
+                config = new Entity(key);
+            }
+            if (config.getProperty(SHARD_COUNT_PROPERTY) == null
+                || IntegerUtil.toPrimitiveInt(config
+                    .getProperty(SHARD_COUNT_PROPERTY)) < shardCount) {
+                config.setUnindexedProperty(SHARD_COUNT_PROPERTY, shardCount);
+                delegate.put(tx, config);
+                tx.commit();
+            }
+        } catch (ConcurrentModificationException e) {
+            logger.log(Level.FINE, e.getMessage(), e);
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+        try {
+            Memcache.delete(
+                SHARD_COUNT_KEY_PREFIX + name,
+                SHARD_COUNT_HOLD_MILLIS);
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Creates the key of the entity that holds the number of the shards.
+     * 
+     * @return the key
+     */
+    protected Key createConfigKey() {
+        return KeyFactory.createKey(CONFIG_KIND, name);
+    }
+
+    /**
+     * Creates the key of the shard.
+     * 
+     * @param index
+     *            the index of the shard
+     * @return the key
+     */
+    protected Key createShardKey(int index) {
+        return KeyFactory.createKey(SHARD_KIND, name + "#" + index);
+    }
+}
@@ -18,6 +18,8 @@ package org.slim3.datastore;
 import java.util.ConcurrentModificationException;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Key;
+
 /**
  * Unit of Work template.
  * 
@@ -33,14 +35,16 @@ public final class Uow {
     public final static int DEFAULT_MAX_RETRIES = 5;
 
     /**
-     * The default sleep time.
+     * The default sleep time. It is the base time to sleep of the default
+     * retry policy.
      */
     public final static long DEFAULT_SLEEP_TIME = 100;
 
     private static final Logger logger = Logger.getLogger(Uow.class.getName());
 
     /**
-     * Runs the unit of work template.
+     * Runs the unit of work template retrying with
+     * {@link ExponentialBackoffRetryPolicy}.
      * 
      * @param uow
      *            the unit of work
@@ -52,11 +56,12 @@ public final class Uow {
      */
     @SuppressWarnings("unchecked")
     public static final <T> T run(AbstractUow uow) throws NullPointerException {
-        return (T) run(uow, DEFAULT_MAX_RETRIES, DEFAULT_SLEEP_TIME);
+        return (T) run(uow, DEFAULT_MAX_RETRIES);
     }
 
     /**
-     * Runs the unit of work template.
+     * Runs the unit of work template retrying with
+     * {@link ExponentialBackoffRetryPolicy}.
      * 
      * @param uow
      *            the unit of work
@@ -71,11 +76,14 @@ public final class Uow {
     @SuppressWarnings("unchecked")
     public static final <T> T run(AbstractUow uow, int maxRetries)
             throws NullPointerException {
-        return (T) run(uow, maxRetries, DEFAULT_SLEEP_TIME);
+        return (T) run(uow, new ExponentialBackoffRetryPolicy(
+            maxRetries,
+            DEFAULT_SLEEP_TIME));
     }
 
     /**
-     * Runs the unit of work template.
+     * Runs the unit of work template sleeping the fixed time before each
+     * retry.
      * 
      * @param uow
      *            the unit of work
@@ -92,10 +100,35 @@ public final class Uow {
     @SuppressWarnings("unchecked")
     public static final <T> T run(AbstractUow uow, int maxRetries,
             long sleepTime) throws NullPointerException {
+        return (T) run(uow, new FixedRetryPolicy(maxRetries, sleepTime));
+    }
+
+    /**
+     * Runs the unit of work template.
+     * 
+     * @param uow
+     *            the unit of work
+     * @param retryPolicy
+     *            the retry policy
+     * @param <T>
+     *            return type
+     * @return a result
+     * @throws NullPointerException
+     *             if the uow parameter is null or if the retryPolicy
+     *             parameter is null
+     */
+    @SuppressWarnings("unchecked")
+    public static final <T> T run(AbstractUow uow, RetryPolicy retryPolicy)
+            throws NullPointerException {
         if (uow == null) {
             throw new NullPointerException(
                 "The uow parameter must not be null.");
         }
+        if (retryPolicy == null) {
+            throw new NullPointerException(
+                "The retryPolicy parameter must not be null.");
+        }
+        long startTime = System.currentTimeMillis();
         int retries = 0;
         T ret;
         while (true) {
@@ -105,12 +138,19 @@ public final class Uow {
                 uow.commit();
                 return ret;
             } catch (ConcurrentModificationException e) {
-                if (retries < maxRetries) {
-                    retries++;
+                Key key = uow.getEntityGroupKey();
+                if (key != null) {
+                    ContentionCounter.record(key);
+                }
+                retries++;
+                long delay =
+                    retryPolicy.getDelay(retries, System.currentTimeMillis()
+                        - startTime);
+                if (delay >= 0) {
                     logger.warning("Concurrent modification exception: "
                         + e.getMessage());
                     try {
-                        Thread.sleep(sleepTime);
+                        Thread.sleep(delay);
                     } catch (InterruptedException ignore) {
                     }
                     continue;
@@ -32,8 +32,11 @@ public final class BeanUtil {
 
     private static final CopyOptions DEFAULT_OPTIONS = new CopyOptions();
 
-    private static ConcurrentHashMap<String, BeanDesc> beanDescCache =
-        new ConcurrentHashMap<String, BeanDesc>(200);
+    private static volatile ClassValue<BeanDesc> beanDescCache =
+        newBeanDescCache();
+
+    private static volatile ClassValue<ConcurrentHashMap<Object, CopyPlan>> copyPlanCache =
+        newCopyPlanCache();
 
     private static volatile boolean initialized = false;
 
@@ -44,13 +47,33 @@ public final class BeanUtil {
     private static void initialize() {
         Cleaner.add(new Cleanable() {
             public void clean() {
-                beanDescCache.clear();
+                beanDescCache = newBeanDescCache();
+                copyPlanCache = newCopyPlanCache();
                 initialized = false;
             }
         });
         initialized = true;
     }
 
+    private static ClassValue<ConcurrentHashMap<Object, CopyPlan>> newCopyPlanCache() {
+        return new ClassValue<ConcurrentHashMap<Object, CopyPlan>>() {
+            @Override
+            protected ConcurrentHashMap<Object, CopyPlan> computeValue(
+                    Class<?> type) {
+                return new ConcurrentHashMap<Object, CopyPlan>();
+            }
+        };
+    }
+
+    private static ClassValue<BeanDesc> newBeanDescCache() {
+        return new ClassValue<BeanDesc>() {
+            @Override
+            protected BeanDesc computeValue(Class<?> type) {
+                return BeanDesc.create(type);
+            }
+        };
+    }
+
     /**
      * Returns the bean descriptor.
      * 
@@ -69,14 +92,49 @@ public final class BeanUtil {
         if (!initialized) {
             initialize();
         }
+        return beanDescCache.get(beanClass);
+    }
 
-        BeanDesc beanDesc = beanDescCache.get(beanClass.getName());
-        if (beanDesc != null) {
-            return beanDesc;
+    /**
+     * Returns the copy plan for the destination class. The plans are cached
+     * for the copy options that have the same
+     * {@link CopyOptions#getPlanKey() plan key}.
+     * 
+     * @param destClass
+     *            the destination class
+     * @param options
+     *            the copy options
+     * @return the copy plan
+     * @throws NullPointerException
+     *             if the destClass parameter is null or if the options
+     *             parameter is null
+     */
+    public static CopyPlan getCopyPlan(Class<?> destClass, CopyOptions options)
+            throws NullPointerException {
+        if (destClass == null) {
+            throw new NullPointerException("The destClass parameter is null.");
+        }
+        if (options == null) {
+            throw new NullPointerException("The options parameter is null.");
+        }
+        if (!initialized) {
+            initialize();
         }
-        beanDesc = BeanDesc.create(beanClass);
-        beanDescCache.put(beanClass.getName(), beanDesc);
-        return beanDesc;
+        Object planKey = options.getPlanKey();
+        if (planKey == null) {
+            return new CopyPlan(getBeanDesc(destClass));
+        }
+        ConcurrentHashMap<Object, CopyPlan> plans =
+            copyPlanCache.get(destClass);
+        CopyPlan plan = plans.get(planKey);
+        if (plan == null) {
+            plan = new CopyPlan(getBeanDesc(destClass));
+            CopyPlan other = plans.putIfAbsent(planKey, plan);
+            if (other != null) {
+                plan = other;
+            }
+        }
+        return plan;
     }
 
     /**
@@ -121,33 +179,7 @@ public final class BeanUtil {
         if (options == null) {
             throw new NullPointerException("The options parameter is null.");
         }
-        BeanDesc srcBeanDesc = getBeanDesc(src.getClass());
-        BeanDesc destBeanDesc = getBeanDesc(dest.getClass());
-        int size = srcBeanDesc.getPropertyDescSize();
-        for (int i = 0; i < size; i++) {
-            PropertyDesc srcPropertyDesc = srcBeanDesc.getPropertyDesc(i);
-            String propertyName = srcPropertyDesc.getName();
-            if (!srcPropertyDesc.isReadable()
-                || !options.isTargetProperty(propertyName)) {
-                continue;
-            }
-            PropertyDesc destPropertyDesc =
-                destBeanDesc.getPropertyDesc(propertyName);
-            if (destPropertyDesc == null) {
-                continue;
-            }
-            if (!destPropertyDesc.isWritable()) {
-                continue;
-            }
-            Object value = srcPropertyDesc.getValue(src);
-            if (!options.isTargetValue(value)) {
-                continue;
-            }
-            value =
-                options.convertValue(value, propertyName, destPropertyDesc
-                    .getPropertyClass());
-            destPropertyDesc.setValue(dest, value);
-        }
+        getCopyPlan(dest.getClass(), options).copy(src, dest, options);
     }
 
     /**
@@ -256,29 +288,7 @@ public final class BeanUtil {
         if (options == null) {
             throw new NullPointerException("The options parameter is null.");
         }
-        BeanDesc destBeanDesc = getBeanDesc(dest.getClass());
-        for (Iterator<String> i = src.keySet().iterator(); i.hasNext();) {
-            String propertyName = i.next();
-            if (!options.isTargetProperty(propertyName)) {
-                continue;
-            }
-            PropertyDesc destPropertyDesc =
-                destBeanDesc.getPropertyDesc(propertyName);
-            if (destPropertyDesc == null) {
-                continue;
-            }
-            if (!destPropertyDesc.isWritable()) {
-                continue;
-            }
-            Object value = src.get(propertyName);
-            if (!options.isTargetValue(value)) {
-                continue;
-            }
-            value =
-                options.convertValue(value, propertyName, destPropertyDesc
-                    .getPropertyClass());
-            destPropertyDesc.setValue(dest, value);
-        }
+        getCopyPlan(dest.getClass(), options).copy(src, dest, options);
     }
 
     /**
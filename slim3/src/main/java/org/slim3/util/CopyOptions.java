@@ -18,6 +18,7 @@ package org.slim3.util;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -68,6 +69,11 @@ public class CopyOptions {
      */
     protected List<Converter<?>> converters = new ArrayList<Converter<?>>();
 
+    /**
+     * The key of the copy plans.
+     */
+    protected Object planKey;
+
     /**
      * Specifies the included property names.
      * 
@@ -81,6 +87,7 @@ public class CopyOptions {
         for (int i = 0; i < length; i++) {
             includedPropertyNames[i] = propertyNames[i].toString();
         }
+        planKey = null;
         return this;
     }
 
@@ -97,6 +104,7 @@ public class CopyOptions {
         for (int i = 0; i < length; i++) {
             excludedPropertyNames[i] = propertyNames[i].toString();
         }
+        planKey = null;
         return this;
     }
 
@@ -107,6 +115,7 @@ public class CopyOptions {
      */
     public CopyOptions excludeNull() {
         excludeNull = true;
+        planKey = null;
         return this;
     }
 
@@ -117,6 +126,7 @@ public class CopyOptions {
      */
     public CopyOptions excludeEmptyString() {
         excludeEmptyString = true;
+        planKey = null;
         return this;
     }
 
@@ -143,6 +153,7 @@ public class CopyOptions {
                 converterMap.put(name.toString(), converter);
             }
         }
+        planKey = null;
         return this;
     }
 
@@ -174,6 +185,45 @@ public class CopyOptions {
         return converter(new NumberConverter(pattern), propertyNames);
     }
 
+    /**
+     * Returns the key of the copy plans. The copy options that have the same
+     * key share the plans, so the key consists of the included and excluded
+     * property names, the flags and the classes of the converters, assuming
+     * that {@link Converter#isTarget(Class)} depends only on the class of the
+     * converter. Returns null if this class is a subclass of
+     * {@link CopyOptions}, since a subclass can change the decisions
+     * remembered by a plan.
+     * 
+     * @return the key of the copy plans
+     * @see CopyPlan
+     */
+    protected Object getPlanKey() {
+        if (getClass() != CopyOptions.class) {
+            return null;
+        }
+        if (planKey != null) {
+            return planKey;
+        }
+        Map<String, Class<?>> converterClassMap =
+            new HashMap<String, Class<?>>();
+        for (Map.Entry<String, Converter<?>> e : converterMap.entrySet()) {
+            converterClassMap.put(e.getKey(), e.getValue().getClass());
+        }
+        List<Class<?>> converterClasses = new ArrayList<Class<?>>();
+        for (Converter<?> c : converters) {
+            converterClasses.add(c.getClass());
+        }
+        planKey =
+            Arrays.asList(
+                Arrays.asList(includedPropertyNames),
+                Arrays.asList(excludedPropertyNames),
+                excludeNull,
+                excludeEmptyString,
+                converterClassMap,
+                converterClasses);
+        return planKey;
+    }
+
     /**
      * Determines if the property is target.
      * 
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A plan to copy values to the properties of a destination class. The plan
+ * remembers the destination property, the result of
+ * {@link CopyOptions#isTargetProperty(String)} and the converter selected for
+ * each source name, and the pairs of the properties for each source class, so
+ * that a repeated copy does not look up the properties again. A plan is shared
+ * by the copy options that have the same
+ * {@link CopyOptions#getPlanKey() plan key}.
+ * 
+ * @author higa
+ * @since 2.0.0
+ * 
+ */
+public final class CopyPlan {
+
+    /**
+     * The maximum number of the source names remembered by a plan.
+     */
+    protected static final int MAX_TARGETS = 1000;
+
+    private static final Target NO_TARGET =
+        new Target(null, null, false, -1);
+
+    private BeanDesc destBeanDesc;
+
+    private ConcurrentHashMap<String, Target> targets =
+        new ConcurrentHashMap<String, Target>();
+
+    private ConcurrentHashMap<Class<?>, SourcePlan> sourcePlans =
+        new ConcurrentHashMap<Class<?>, SourcePlan>();
+
+    /**
+     * Constructor.
+     * 
+     * @param destBeanDesc
+     *            the bean descriptor of the destination
+     * @throws NullPointerException
+     *             if the destBeanDesc parameter is null
+     */
+    CopyPlan(BeanDesc destBeanDesc) throws NullPointerException {
+        if (destBeanDesc == null) {
+            throw new NullPointerException(
+                "The destBeanDesc parameter is null.");
+        }
+        this.destBeanDesc = destBeanDesc;
+    }
+
+    /**
+     * Returns the bean descriptor of the destination.
+     * 
+     * @return the bean descriptor of the destination
+     */
+    public BeanDesc getDestBeanDesc() {
+        return destBeanDesc;
+    }
+
+    /**
+     * Copies the property values from the source bean to the destination.
+     * 
+     * @param src
+     *            the source
+     * @param dest
+     *            the destination
+     * @param options
+     *            the copy options
+     */
+    public void copy(Object src, Object dest, CopyOptions options) {
+        SourcePlan plan = getSourcePlan(src.getClass(), options);
+        PropertyDesc[] srcPropertyDescs = plan.srcPropertyDescs;
+        Target[] srcTargets = plan.targets;
+        for (int i = 0; i < srcPropertyDescs.length; i++) {
+            Object value = srcPropertyDescs[i].getValue(src);
+            if (!options.isTargetValue(value)) {
+                continue;
+            }
+            Target target = srcTargets[i];
+            target.destPropertyDesc.setValue(dest, target.convert(
+                value,
+                options));
+        }
+    }
+
+    /**
+     * Copies the values from the source map to the destination.
+     * 
+     * @param src
+     *            the source
+     * @param dest
+     *            the destination
+     * @param options
+     *            the copy options
+     */
+    public void copy(Map<String, ?> src, Object dest, CopyOptions options) {
+        for (Iterator<String> i = src.keySet().iterator(); i.hasNext();) {
+            String name = i.next();
+            Target target = getTarget(name, options);
+            if (target == null) {
+                continue;
+            }
+            Object value = src.get(name);
+            if (!options.isTargetValue(value)) {
+                continue;
+            }
+            target.destPropertyDesc.setValue(dest, target.convert(
+                value,
+                options));
+        }
+    }
+
+    private SourcePlan getSourcePlan(Class<?> srcClass, CopyOptions options) {
+        SourcePlan plan = sourcePlans.get(srcClass);
+        if (plan != null) {
+            return plan;
+        }
+        BeanDesc srcBeanDesc = BeanUtil.getBeanDesc(srcClass);
+        List<PropertyDesc> srcPropertyDescs = new ArrayList<PropertyDesc>();
+        List<Target> srcTargets = new ArrayList<Target>();
+        int size = srcBeanDesc.getPropertyDescSize();
+        for (int i = 0; i < size; i++) {
+            PropertyDesc srcPropertyDesc = srcBeanDesc.getPropertyDesc(i);
+            if (!srcPropertyDesc.isReadable()) {
+                continue;
+            }
+            Target target = getTarget(srcPropertyDesc.getName(), options);
+            if (target == null) {
+                continue;
+            }
+            srcPropertyDescs.add(srcPropertyDesc);
+            srcTargets.add(target);
+        }
+        plan =
+            new SourcePlan(srcPropertyDescs
+                .toArray(new PropertyDesc[srcPropertyDescs.size()]), srcTargets
+                .toArray(new Target[srcTargets.size()]));
+        sourcePlans.put(srcClass, plan);
+        return plan;
+    }
+
+    private Target getTarget(String name, CopyOptions options) {
+        Target target = targets.get(name);
+        if (target == null) {
+            target = createTarget(name, options);
+            if (targets.size() < MAX_TARGETS) {
+                targets.put(name, target);
+            }
+        }
+        return target != NO_TARGET ? target : null;
+    }
+
+    private Target createTarget(String name, CopyOptions options) {
+        if (!options.isTargetProperty(name)) {
+            return NO_TARGET;
+        }
+        PropertyDesc destPropertyDesc = destBeanDesc.getPropertyDesc(name);
+        if (destPropertyDesc == null || !destPropertyDesc.isWritable()) {
+            return NO_TARGET;
+        }
+        Class<?> destPropertyClass = destPropertyDesc.getPropertyClass();
+        int converterIndex = -1;
+        if (destPropertyClass != String.class) {
+            Converter<?> converter = options.findConverter(destPropertyClass);
+            if (converter != null) {
+                converterIndex = options.converters.indexOf(converter);
+            }
+        }
+        return new Target(
+            destPropertyDesc,
+            name,
+            options.converterMap.containsKey(name),
+            converterIndex);
+    }
+
+    /**
+     * The destination of a source name.
+     */
+    private static final class Target {
+
+        private final PropertyDesc destPropertyDesc;
+
+        private final String name;
+
+        private final boolean named;
+
+        private final int converterIndex;
+
+        private Target(PropertyDesc destPropertyDesc, String name,
+                boolean named, int converterIndex) {
+            this.destPropertyDesc = destPropertyDesc;
+            this.name = name;
+            this.named = named;
+            this.converterIndex = converterIndex;
+        }
+
+        /**
+         * Converts the value in the same way as
+         * {@link CopyOptions#convertValue(Object, String, Class)} using the
+         * selected converter.
+         */
+        private Object convert(Object value, CopyOptions options)
+                throws IllegalArgumentException {
+            if (value == null) {
+                return null;
+            }
+            try {
+                if (value.getClass() == String.class) {
+                    if (named) {
+                        return options.converterMap.get(name).getAsObject(
+                            (String) value);
+                    }
+                    if (converterIndex >= 0) {
+                        return options.converters
+                            .get(converterIndex)
+                            .getAsObject((String) value);
+                    }
+                    return value;
+                }
+                if (named) {
+                    return options.converterMap.get(name).getAsString(value);
+                }
+                if (destPropertyDesc.getPropertyClass() != String.class) {
+                    return value;
+                }
+                Converter<?> converter =
+                    options.findConverter(value.getClass());
+                if (converter != null) {
+                    return converter.getAsString(value);
+                }
+                return value;
+            } catch (Throwable cause) {
+                throw new IllegalArgumentException("The value("
+                    + value
+                    + ") of the property("
+                    + name
+                    + ") can not be converted. Error message: "
+                    + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * The pairs of the properties for a source class.
+     */
+    private static final class SourcePlan {
+
+        private final PropertyDesc[] srcPropertyDescs;
+
+        private final Target[] targets;
+
+        private SourcePlan(PropertyDesc[] srcPropertyDescs, Target[] targets) {
+            this.srcPropertyDescs = srcPropertyDescs;
+            this.targets = targets;
+        }
+    }
+}
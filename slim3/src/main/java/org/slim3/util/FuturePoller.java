@@ -0,0 +1,330 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
+
+/**
+ * A class to convert {@link Future}s to {@link CompletableFuture}s. A single
+ * thread polls all the pending futures of a request, so no thread is blocked
+ * waiting for each call. When a future is done, the converted future is
+ * completed on an executor and the dependent stages run there, so a stage
+ * that waits for another converted future does not block the polling thread.
+ * The polling thread is bound to the request so that it can call App Engine
+ * APIs. If the environment does not provide a request thread factory(for
+ * example in unit tests), a plain thread inheriting the API environment of
+ * the caller is used.
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public final class FuturePoller {
+
+    /**
+     * The minimum interval in milliseconds to poll the futures.
+     */
+    public static final long MIN_INTERVAL_MILLIS = 1;
+
+    /**
+     * The maximum interval in milliseconds to poll the futures.
+     */
+    public static final long MAX_INTERVAL_MILLIS = 16;
+
+    private static final Map<Environment, FuturePoller> pollers =
+        new WeakHashMap<Environment, FuturePoller>();
+
+    private static final FuturePoller noEnvironmentPoller = new FuturePoller();
+
+    /**
+     * The pending entries.
+     */
+    private final List<Entry<?>> entries = new ArrayList<Entry<?>>();
+
+    /**
+     * Whether the polling thread is running.
+     */
+    private boolean running;
+
+    /**
+     * Returns the poller for the current request.
+     *
+     * @return the poller
+     */
+    public static FuturePoller getInstance() {
+        Environment env = ApiProxy.getCurrentEnvironment();
+        if (env == null) {
+            return noEnvironmentPoller;
+        }
+        synchronized (pollers) {
+            FuturePoller poller = pollers.get(env);
+            if (poller == null) {
+                poller = new FuturePoller();
+                pollers.put(env, poller);
+            }
+            return poller;
+        }
+    }
+
+    /**
+     * Converts the {@link Future} to {@link CompletableFuture}. The returned
+     * future is completed on a {@link RequestThreadExecutor}. If the future
+     * has already completed, the returned future is completed on the current
+     * thread.
+     *
+     * @param <T>
+     *            the value type
+     *
+     * @param future
+     *            the future
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the future parameter is null
+     */
+    public <T> CompletableFuture<T> toCompletableFuture(Future<T> future)
+            throws NullPointerException {
+        return toCompletableFuture(future, new RequestThreadExecutor());
+    }
+
+    /**
+     * Converts the {@link Future} to {@link CompletableFuture}. The returned
+     * future is completed on the executor when the future is done. If the
+     * future has already completed, the returned future is completed on the
+     * current thread.
+     *
+     * @param <T>
+     *            the value type
+     *
+     * @param future
+     *            the future
+     * @param executor
+     *            the executor to complete the returned future
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the future parameter is null or if the executor parameter
+     *             is null
+     */
+    public <T> CompletableFuture<T> toCompletableFuture(Future<T> future,
+            Executor executor) throws NullPointerException {
+        if (future == null) {
+            throw new NullPointerException(
+                "The future parameter must not be null.");
+        }
+        if (executor == null) {
+            throw new NullPointerException(
+                "The executor parameter must not be null.");
+        }
+        CompletableFuture<T> completable = new CompletableFuture<T>();
+        if (future.isDone()) {
+            FutureUtil.complete(completable, future);
+            return completable;
+        }
+        boolean start;
+        synchronized (this) {
+            entries.add(new Entry<T>(future, completable, executor));
+            start = !running;
+            running = true;
+        }
+        if (start) {
+            try {
+                startThread();
+            } catch (Throwable t) {
+                failAll(t);
+            }
+        }
+        return completable;
+    }
+
+    /**
+     * Polls the pending futures until all of them complete.
+     */
+    private void poll() {
+        long interval = MIN_INTERVAL_MILLIS;
+        while (true) {
+            List<Entry<?>> pending;
+            synchronized (this) {
+                if (entries.isEmpty()) {
+                    running = false;
+                    return;
+                }
+                pending = new ArrayList<Entry<?>>(entries);
+            }
+            List<Entry<?>> done = new ArrayList<Entry<?>>();
+            for (Entry<?> entry : pending) {
+                if (entry.isDone()) {
+                    done.add(entry);
+                }
+            }
+            if (!done.isEmpty()) {
+                synchronized (this) {
+                    entries.removeAll(done);
+                }
+            }
+            for (Entry<?> entry : done) {
+                entry.dispatch();
+            }
+            if (!done.isEmpty()) {
+                interval = MIN_INTERVAL_MILLIS;
+                continue;
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                failAll(e);
+                return;
+            }
+            interval = Math.min(interval * 2, MAX_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Starts the thread to poll the futures.
+     */
+    private void startThread() {
+        final Environment env = ApiProxy.getCurrentEnvironment();
+        Runnable command = new Runnable() {
+            public void run() {
+                poll();
+            }
+        };
+        Thread thread = null;
+        if (env != null) {
+            ThreadFactory factory = ThreadManager.currentRequestThreadFactory();
+            if (factory != null) {
+                thread = factory.newThread(command);
+            }
+        }
+        if (thread == null) {
+            final Runnable inner = command;
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    if (env != null) {
+                        ApiProxy.setEnvironmentForCurrentThread(env);
+                    }
+                    try {
+                        inner.run();
+                    } finally {
+                        if (env != null) {
+                            ApiProxy.clearEnvironmentForCurrentThread();
+                        }
+                    }
+                }
+            });
+            thread.setDaemon(true);
+        }
+        thread.start();
+    }
+
+    /**
+     * Completes all the pending futures exceptionally.
+     *
+     * @param cause
+     *            the cause
+     */
+    private void failAll(Throwable cause) {
+        List<Entry<?>> failed;
+        synchronized (this) {
+            failed = new ArrayList<Entry<?>>(entries);
+            entries.clear();
+            running = false;
+        }
+        for (Entry<?> entry : failed) {
+            entry.completable.completeExceptionally(cause);
+        }
+    }
+
+    private FuturePoller() {
+    }
+
+    /**
+     * A pending future.
+     *
+     * @param <T>
+     *            the value type
+     */
+    private static class Entry<T> {
+
+        /**
+         * The future.
+         */
+        private final Future<T> future;
+
+        /**
+         * The converted future.
+         */
+        private final CompletableFuture<T> completable;
+
+        /**
+         * The executor to complete the converted future.
+         */
+        private final Executor executor;
+
+        /**
+         * Constructor.
+         *
+         * @param future
+         *            the future
+         * @param completable
+         *            the converted future
+         * @param executor
+         *            the executor to complete the converted future
+         */
+        private Entry(Future<T> future, CompletableFuture<T> completable,
+                Executor executor) {
+            this.future = future;
+            this.completable = completable;
+            this.executor = executor;
+        }
+
+        /**
+         * Determines if the future is done.
+         *
+         * @return whether the future is done
+         */
+        private boolean isDone() {
+            return completable.isDone() || future.isDone();
+        }
+
+        /**
+         * Completes the converted future on the executor.
+         */
+        private void dispatch() {
+            if (completable.isDone()) {
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        FutureUtil.complete(completable, future);
+                    }
+                });
+            } catch (Throwable t) {
+                completable.completeExceptionally(t);
+            }
+        }
+    }
+}
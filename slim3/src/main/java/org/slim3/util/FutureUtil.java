@@ -16,8 +16,14 @@
 package org.slim3.util;
 
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /**
  * A utility class for {@link Future}.
@@ -89,6 +95,128 @@ public final class FutureUtil {
         }
     }
 
+    /**
+     * Converts the {@link Future} to {@link CompletableFuture}. The returned
+     * future is completed when the {@link FuturePoller} of the current
+     * request, which polls all the pending futures on a single thread, finds
+     * the future done. The returned future and its dependent stages are
+     * completed on a {@link RequestThreadExecutor}. If the future has already
+     * completed, the returned future is completed on the current thread.
+     * 
+     * @param <T>
+     *            the value type
+     * 
+     * @param future
+     *            the future
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the future parameter is null
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(
+            Future<T> future) throws NullPointerException {
+        return FuturePoller.getInstance().toCompletableFuture(future);
+    }
+
+    /**
+     * Converts the {@link Future} to {@link CompletableFuture}. The returned
+     * future is completed by a task that waits for the future on the
+     * executor, so the callbacks run as soon as the future completes. If the
+     * future has already completed, the returned future is completed on the
+     * current thread.
+     * 
+     * @param <T>
+     *            the value type
+     * 
+     * @param future
+     *            the future
+     * @param executor
+     *            the executor to wait for the future
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the future parameter is null or if the executor parameter
+     *             is null
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(
+            final Future<T> future, Executor executor)
+            throws NullPointerException {
+        if (future == null) {
+            throw new NullPointerException(
+                "The future parameter must not be null.");
+        }
+        if (executor == null) {
+            throw new NullPointerException(
+                "The executor parameter must not be null.");
+        }
+        final CompletableFuture<T> completable = new CompletableFuture<T>();
+        if (future.isDone()) {
+            complete(completable, future);
+            return completable;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    complete(completable, future);
+                }
+            });
+        } catch (Throwable t) {
+            completable.completeExceptionally(t);
+        }
+        return completable;
+    }
+
+    /**
+     * Returns {@link CompletableFuture} that is completed with the values of
+     * all the stages when all of them complete. If any of the stages completes
+     * exceptionally, the returned future also completes exceptionally.
+     * 
+     * @param <T>
+     *            the value type
+     * 
+     * @param stages
+     *            the stages
+     * @return {@link CompletableFuture}
+     * @throws NullPointerException
+     *             if the stages parameter is null
+     */
+    public static <T> CompletableFuture<List<T>> allOf(
+            Iterable<? extends CompletionStage<? extends T>> stages)
+            throws NullPointerException {
+        if (stages == null) {
+            throw new NullPointerException(
+                "The stages parameter must not be null.");
+        }
+        final List<CompletableFuture<? extends T>> futures =
+            new ArrayList<CompletableFuture<? extends T>>();
+        for (CompletionStage<? extends T> stage : stages) {
+            futures.add(stage.toCompletableFuture());
+        }
+        return CompletableFuture.allOf(
+            futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(
+            new Function<Void, List<T>>() {
+                public List<T> apply(Void v) {
+                    List<T> list = new ArrayList<T>(futures.size());
+                    for (CompletableFuture<? extends T> f : futures) {
+                        list.add(f.join());
+                    }
+                    return list;
+                }
+            });
+    }
+
+    static <T> void complete(CompletableFuture<T> completable,
+            Future<T> future) {
+        try {
+            completable.complete(future.get());
+        } catch (ExecutionException e) {
+            completable.completeExceptionally(e.getCause());
+        } catch (InterruptedException e) {
+            completable.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            completable.completeExceptionally(t);
+        }
+    }
+
     private FutureUtil() {
     }
 }
\ No newline at end of file
@@ -15,6 +15,9 @@
  */
 package org.slim3.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 
 /**
@@ -35,6 +38,12 @@ public final class PropertyDesc {
 
     private Method writeMethod;
 
+    private MethodHandle readHandle;
+
+    private MethodHandle writeHandle;
+
+    private Class<?> wrapperClass;
+
     /**
      * Constructor.
      * 
@@ -63,6 +72,7 @@ public final class PropertyDesc {
         this.name = name;
         this.propertyClass = propertyClass;
         this.beanClass = beanClass;
+        wrapperClass = toWrapperClass(propertyClass);
     }
 
     /**
@@ -112,6 +122,10 @@ public final class PropertyDesc {
 
     void setReadMethod(Method readMethod) {
         this.readMethod = readMethod;
+        readHandle =
+            unreflect(readMethod, MethodType.methodType(
+                Object.class,
+                Object.class));
     }
 
     /**
@@ -134,6 +148,64 @@ public final class PropertyDesc {
 
     void setWriteMethod(Method writeMethod) {
         this.writeMethod = writeMethod;
+        writeHandle =
+            unreflect(writeMethod, MethodType.methodType(
+                void.class,
+                Object.class,
+                Object.class));
+    }
+
+    /**
+     * Converts the method to a method handle of the type. The handle is
+     * created once, so that the property is accessed without the access check
+     * of reflection.
+     * 
+     * @param method
+     *            the method
+     * @param type
+     *            the type of the method handle
+     * @return the method handle or null if the method cannot be converted
+     */
+    private static MethodHandle unreflect(Method method, MethodType type) {
+        if (method == null) {
+            return null;
+        }
+        try {
+            try {
+                return MethodHandles.publicLookup().unreflect(method).asType(
+                    type);
+            } catch (IllegalAccessException e) {
+                method.setAccessible(true);
+                return MethodHandles.publicLookup().unreflect(method).asType(
+                    type);
+            }
+        } catch (Throwable ignore) {
+            return null;
+        }
+    }
+
+    private static Class<?> toWrapperClass(Class<?> clazz) {
+        if (!clazz.isPrimitive()) {
+            return clazz;
+        }
+        if (clazz == int.class) {
+            return Integer.class;
+        } else if (clazz == long.class) {
+            return Long.class;
+        } else if (clazz == boolean.class) {
+            return Boolean.class;
+        } else if (clazz == double.class) {
+            return Double.class;
+        } else if (clazz == float.class) {
+            return Float.class;
+        } else if (clazz == short.class) {
+            return Short.class;
+        } else if (clazz == byte.class) {
+            return Byte.class;
+        } else if (clazz == char.class) {
+            return Character.class;
+        }
+        return null;
     }
 
     /**
@@ -157,6 +229,9 @@ public final class PropertyDesc {
                 + ") is not readable.");
         }
         try {
+            if (readHandle != null) {
+                return (Object) readHandle.invokeExact(bean);
+            }
             try {
                 return readMethod.invoke(bean);
             } catch (IllegalAccessException e) {
@@ -195,7 +270,15 @@ public final class PropertyDesc {
                 + ") is not writable.");
         }
         try {
-            value = ConversionUtil.convert(value, propertyClass);
+            if (value == null
+                ? propertyClass.isPrimitive()
+                : !wrapperClass.isInstance(value)) {
+                value = ConversionUtil.convert(value, propertyClass);
+            }
+            if (writeHandle != null) {
+                writeHandle.invokeExact(bean, value);
+                return;
+            }
             try {
                 writeMethod.invoke(bean, value);
             } catch (IllegalAccessException e) {
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.Environment;
+
+/**
+ * An {@link Executor} that runs each task on a thread bound to the current
+ * request, so that the task can call App Engine APIs. If the environment does
+ * not provide a request thread factory(for example in unit tests), a plain
+ * thread inheriting the API environment of the caller is used.
+ *
+ * @author higa
+ * @since 2.0.0
+ *
+ */
+public class RequestThreadExecutor implements Executor {
+
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw new NullPointerException(
+                "The command parameter must not be null.");
+        }
+        final Environment env = ApiProxy.getCurrentEnvironment();
+        Thread thread = null;
+        if (env != null) {
+            ThreadFactory factory = ThreadManager.currentRequestThreadFactory();
+            if (factory != null) {
+                thread = factory.newThread(command);
+            }
+        }
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    if (env != null) {
+                        ApiProxy.setEnvironmentForCurrentThread(env);
+                    }
+                    try {
+                        command.run();
+                    } finally {
+                        if (env != null) {
+                            ApiProxy.clearEnvironmentForCurrentThread();
+                        }
+                    }
+                }
+            });
+            thread.setDaemon(true);
+        }
+        thread.start();
+    }
+}
@@ -57,6 +57,34 @@ public class FrontControllerTest extends ControllerTestCase {
             is(ControllerConstants.DEFAULT_LOCALIZATION_CONTEXT));
         assertThat(ServletContextLocator.get(), is(not(nullValue())));
         assertThat(tester.frontController.rootPackageName, is(ROOT_PACKAGE));
+        assertThat(tester.frontController.autoBatch, is(false));
+        assertThat(tester.frontController.firstLevelCache, is(false));
+    }
+
+    /**
+     * @throws Exception
+     * 
+     */
+    @Test
+    public void initAutoBatch() throws Exception {
+        tester.servletContext.setInitParameter(
+            ControllerConstants.AUTO_BATCH_KEY,
+            "true");
+        tester.frontController.initAutoBatch();
+        assertThat(tester.frontController.autoBatch, is(true));
+    }
+
+    /**
+     * @throws Exception
+     * 
+     */
+    @Test
+    public void initFirstLevelCache() throws Exception {
+        tester.servletContext.setInitParameter(
+            ControllerConstants.FIRST_LEVEL_CACHE_KEY,
+            "true");
+        tester.frontController.initFirstLevelCache();
+        assertThat(tester.frontController.firstLevelCache, is(true));
     }
 
     /**
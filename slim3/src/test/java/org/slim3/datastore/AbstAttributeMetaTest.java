@@ -23,6 +23,7 @@ import org.slim3.datastore.model.Hoge;
 import org.slim3.tester.AppEngineTestCase;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
@@ -125,6 +126,29 @@ public class AbstAttributeMetaTest extends AppEngineTestCase {
         assertThat((String) attrMeta.getValue(hoge), is("aaa"));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getValueForGetter() throws Exception {
+        AbstractAttributeMeta<Hoge, String> attrMeta =
+                new AbstractAttributeMeta<Hoge, String>(
+                        meta,
+                        "myString",
+                        "myString",
+                        String.class) {
+                };
+        attrMeta.setGetter(new AttributeGetter<Hoge>() {
+            public Object getValue(Hoge model) {
+                return model.getMyString() + "!";
+            }
+        });
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        assertThat((String) attrMeta.getValue(hoge), is("aaa!"));
+        assertThat(attrMeta.propertyDesc, is(nullValue()));
+    }
+
     /**
      * @throws Exception
      */
@@ -18,14 +18,18 @@ package org.slim3.datastore;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.slim3.datastore.meta.AaaMeta;
+import org.slim3.datastore.meta.BbbMeta;
 import org.slim3.datastore.meta.HogeMeta;
+import org.slim3.datastore.model.Bbb;
 import org.slim3.datastore.model.Hoge;
 import org.slim3.tester.AppEngineTestCase;
 import org.slim3.util.CipherFactory;
@@ -372,6 +376,50 @@ public class AsyncDatastoreDelegateTest extends AppEngineTestCase {
         assertThat(key, is(notNullValue()));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAsyncForModelWithoutKey() throws Exception {
+        Hoge hoge = new Hoge();
+        Future<Key> future = delegate.putAsync((Transaction) null, hoge);
+        assertThat(hoge.getVersion(), is(1L));
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!future.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(future.isDone(), is(true));
+        Key key = future.get();
+        assertThat(key.isComplete(), is(true));
+        assertThat(hoge.getKey(), is(key));
+        assertThat(ds.get(key).get(), is(notNullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAsyncForModelWithoutKeyWithinTx() throws Exception {
+        Hoge hoge = new Hoge();
+        Transaction tx = ds.beginTransaction().get();
+        Future<Key> future = delegate.putAsync(tx, hoge);
+        assertThat(hoge.getKey(), is(notNullValue()));
+        tx.commit();
+        assertThat(future.get(), is(hoge.getKey()));
+        assertThat(ds.get(hoge.getKey()).get(), is(notNullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAsyncForEntityWithoutKey() throws Exception {
+        Entity entity = new Entity("Hoge");
+        Key key = delegate.putAsync((Transaction) null, entity).get();
+        assertThat(key.isComplete(), is(true));
+        assertThat(entity.getKey(), is(key));
+    }
+
     /**
      * @throws Exception
      */
@@ -384,6 +432,33 @@ public class AsyncDatastoreDelegateTest extends AppEngineTestCase {
         assertThat(keys.size(), is(2));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAsyncForLargeBatch() throws Exception {
+        delegate.setBatchParallelism(2);
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 1200; i++) {
+            entities.add(new Entity("Hoge"));
+        }
+        List<Key> keys = delegate.putAsync((Transaction) null, entities).get();
+        assertThat(keys.size(), is(1200));
+        assertThat(keys.get(1199), is(entities.get(1199).getKey()));
+        Map<Key, Entity> map = delegate.getAsMapAsync(keys).get();
+        assertThat(map.size(), is(1200));
+        delegate.deleteAsync(keys).get();
+        assertThat(delegate.getAsMapAsync(keys).get().size(), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void setBatchParallelismForIllegalValue() throws Exception {
+        delegate.setBatchParallelism(0);
+    }
+
     /**
      * @throws Exception
      */
@@ -397,4 +472,96 @@ public class AsyncDatastoreDelegateTest extends AppEngineTestCase {
         assertThat(tester.count("Parent"), is(0));
         assertThat(tester.count("Child"), is(0));
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void deleteAllAsyncWithinTx() throws Exception {
+        Key parentKey = KeyFactory.createKey("Parent", 1);
+        Key childKey = KeyFactory.createKey(parentKey, "Child", 1);
+        DatastoreUtil.put(ds, null, new Entity(parentKey));
+        DatastoreUtil.put(ds, null, new Entity(childKey));
+        Transaction tx = ds.beginTransaction().get();
+        Future<Void> future = delegate.deleteAllAsync(tx, parentKey);
+        future.get();
+        tx.commit();
+        assertThat(tester.count("Parent"), is(0));
+        assertThat(tester.count("Child"), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void deleteAllWithoutTxAsyncWithoutGet() throws Exception {
+        Key parentKey = KeyFactory.createKey("Parent", 1);
+        Key childKey = KeyFactory.createKey(parentKey, "Child", 1);
+        DatastoreUtil.put(ds, null, new Entity(parentKey));
+        DatastoreUtil.put(ds, null, new Entity(childKey));
+        delegate.deleteAllWithoutTxAsync(parentKey);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (tester.count("Child") > 0
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(tester.count("Parent"), is(0));
+        assertThat(tester.count("Child"), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void deleteAllAsyncForInactiveTx() throws Exception {
+        Transaction tx = ds.beginTransaction().get();
+        tx.rollback();
+        delegate.deleteAllAsync(tx, KeyFactory.createKey("Parent", 1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void prefetchAsync() throws Exception {
+        Key hogeKey = DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        Key hogeKey2 = DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        Bbb bbb = new Bbb();
+        bbb.getHogeRef().setKey(hogeKey);
+        bbb.getHoge2Ref().setKey(hogeKey2);
+        Bbb bbb2 = new Bbb();
+        bbb2.getHogeRef().setKey(hogeKey);
+        Bbb bbb3 = new Bbb();
+        BbbMeta b = BbbMeta.get();
+        delegate.prefetchAsync(
+            Arrays.asList(bbb, bbb2, bbb3),
+            b.hogeRef,
+            b.hoge2Ref).get();
+        assertThat(bbb.getHogeRef().model.getKey(), is(hogeKey));
+        assertThat(bbb.getHoge2Ref().model.getKey(), is(hogeKey2));
+        assertThat(bbb2.getHogeRef().model, is(sameInstance(bbb
+            .getHogeRef().model)));
+        assertThat(bbb3.getHogeRef().model, is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void prefetchAsyncForNoEntity() throws Exception {
+        Bbb bbb = new Bbb();
+        bbb.getHogeRef().setKey(KeyFactory.createKey("Hoge", "xxx"));
+        delegate.prefetchAsync(Arrays.asList(bbb), BbbMeta.get().hogeRef).get();
+        assertThat(bbb.getHogeRef().model, is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = NullPointerException.class)
+    public void prefetchAsyncForNullModel() throws Exception {
+        delegate.prefetchAsync(
+            Arrays.asList((Bbb) null),
+            BbbMeta.get().hogeRef);
+    }
+}
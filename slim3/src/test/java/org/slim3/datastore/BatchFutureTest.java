@@ -0,0 +1,124 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+import org.slim3.util.FakeFuture;
+
+/**
+ * @author higa
+ * 
+ */
+public class BatchFutureTest {
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void get() throws Exception {
+        List<Future<List<Integer>>> futures =
+            new ArrayList<Future<List<Integer>>>();
+        futures.add(new FakeFuture<List<Integer>>(Arrays.asList(1, 2)));
+        futures.add(new FakeFuture<List<Integer>>(Arrays.asList(3)));
+        assertThat(new MyFuture(futures, false).get(), is(Arrays
+            .asList(1, 2, 3)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getForFailure() throws Exception {
+        List<Future<List<Integer>>> futures =
+            new ArrayList<Future<List<Integer>>>();
+        futures.add(failedFuture());
+        futures.add(new FakeFuture<List<Integer>>(Arrays.asList(3)));
+        try {
+            new MyFuture(futures, false).get();
+            fail();
+        } catch (ExecutionException e) {
+            BatchFailureException cause = (BatchFailureException) e.getCause();
+            assertThat(cause.getNumberOfChunks(), is(2));
+            assertThat(cause.getFailures().keySet().iterator().next(), is(0));
+            assertThat(
+                cause.getFailures().get(0),
+                instanceOf(ConcurrentModificationException.class));
+            List<Integer> partial = cause.getPartialResult();
+            assertThat(partial, is(Arrays.asList(3)));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getForFailureWithinTx() throws Exception {
+        List<Future<List<Integer>>> futures =
+            new ArrayList<Future<List<Integer>>>();
+        futures.add(failedFuture());
+        futures.add(new FakeFuture<List<Integer>>(Arrays.asList(3)));
+        try {
+            new MyFuture(futures, true).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(
+                e.getCause(),
+                instanceOf(ConcurrentModificationException.class));
+        }
+    }
+
+    private Future<List<Integer>> failedFuture() {
+        FutureTask<List<Integer>> task =
+            new FutureTask<List<Integer>>(
+                new java.util.concurrent.Callable<List<Integer>>() {
+                    public List<Integer> call() throws Exception {
+                        throw new ConcurrentModificationException();
+                    }
+                });
+        task.run();
+        return task;
+    }
+
+    private static class MyFuture extends
+            BatchFuture<List<Integer>, List<Integer>> {
+
+        MyFuture(List<Future<List<Integer>>> futures, boolean transactional) {
+            super(futures, transactional);
+        }
+
+        @Override
+        protected List<Integer> merge(List<List<Integer>> results) {
+            List<Integer> list = new ArrayList<Integer>();
+            for (List<Integer> r : results) {
+                if (r != null) {
+                    list.addAll(r);
+                }
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+/**
+ * @author higa
+ *
+ */
+public class BatchQueueTest {
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void start() throws Exception {
+        MyQueue queue = new MyQueue(5);
+        List<Future<Integer>> futures = queue.start(2);
+        assertThat(futures.size(), is(5));
+        assertThat(queue.sent.size(), is(2));
+        queue.sent.get(0).run();
+        assertThat(futures.get(0).get(), is(1));
+        for (int i = 1; i < 5; i++) {
+            while (queue.sent.size() <= i) {
+                Thread.sleep(1);
+            }
+            assertThat(queue.sent.size() <= i + 2, is(true));
+            queue.sent.get(i).run();
+            assertThat(futures.get(i).get(), is(i + 1));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void startForFailure() throws Exception {
+        MyQueue queue = new MyQueue(3) {
+            @Override
+            protected Future<Integer> send(List<Integer> chunk) {
+                if (chunk.get(0) == 2) {
+                    throw new IllegalStateException("Hoge");
+                }
+                return super.send(chunk);
+            }
+        };
+        List<Future<Integer>> futures = queue.start(1);
+        queue.sent.get(0).run();
+        assertThat(futures.get(0).get(), is(1));
+        try {
+            futures.get(1).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("Hoge"));
+        }
+        while (queue.sent.size() < 2) {
+            Thread.sleep(1);
+        }
+        queue.sent.get(1).run();
+        assertThat(futures.get(2).get(), is(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void startForIllegalParallelism() throws Exception {
+        new MyQueue(1).start(0);
+    }
+
+    private static List<List<Integer>> createChunks(int size) {
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        for (int i = 1; i <= size; i++) {
+            chunks.add(Arrays.asList(i));
+        }
+        return chunks;
+    }
+
+    private static class MyQueue extends BatchQueue<Integer, Integer> {
+
+        private final List<FutureTask<Integer>> sent =
+            new CopyOnWriteArrayList<FutureTask<Integer>>();
+
+        /**
+         * @param size
+         */
+        public MyQueue(int size) {
+            super(createChunks(size));
+        }
+
+        @Override
+        protected Future<Integer> send(final List<Integer> chunk) {
+            FutureTask<Integer> future =
+                new FutureTask<Integer>(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return chunk.get(0);
+                    }
+                });
+            sent.add(future);
+            return future;
+        }
+    }
+}
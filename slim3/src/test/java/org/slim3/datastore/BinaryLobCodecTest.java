@@ -0,0 +1,358 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+import org.slim3.util.ByteUtil;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * @author higa
+ *
+ */
+public class BinaryLobCodecTest extends AppEngineTestCase {
+
+    private BinaryLobCodec codec = new BinaryLobCodec();
+
+    private Object roundTrip(Object value) {
+        byte[] bytes = codec.encode(value);
+        assertThat(BinaryLobCodec.hasMarker(bytes), is(true));
+        return codec.decode(bytes);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForSimpleValues() throws Exception {
+        List<Object> values =
+            Arrays.<Object> asList(
+                null,
+                true,
+                false,
+                (byte) 1,
+                (short) -2,
+                3,
+                Integer.MIN_VALUE,
+                Long.MAX_VALUE,
+                -5L,
+                1.5f,
+                2.5d,
+                'a',
+                "あいう",
+                new Date(123456789L),
+                KeyFactory.createKey("Hoge", 1),
+                SortDirection.DESCENDING);
+        for (Object value : values) {
+            assertThat(roundTrip(value), is(value));
+        }
+        assertThat(
+            (byte[]) roundTrip(new byte[] { 1, 2, 3 }),
+            is(new byte[] { 1, 2, 3 }));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForCollections() throws Exception {
+        List<Object> values =
+            Arrays.<Object> asList(
+                new ArrayList<Object>(Arrays.asList("a", 1L, null)),
+                new LinkedList<Object>(Arrays.asList("a", "b")),
+                new HashSet<Object>(Arrays.asList("a", "b")),
+                new LinkedHashSet<Object>(Arrays.asList("b", "a")),
+                new TreeSet<Object>(Arrays.asList("b", "a")));
+        for (Object value : values) {
+            Object decoded = roundTrip(value);
+            assertThat(decoded.getClass(), is((Object) value.getClass()));
+            assertThat(decoded, is(value));
+        }
+        LinkedHashSet<?> set =
+            (LinkedHashSet<?>) roundTrip(new LinkedHashSet<Object>(Arrays
+                .asList("b", "a")));
+        assertThat(set.iterator().next(), is((Object) "b"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForMaps() throws Exception {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("aaa", Arrays.asList(1, 2));
+        List<Map<String, Object>> values =
+            Arrays.<Map<String, Object>> asList(
+                new HashMap<String, Object>(),
+                new LinkedHashMap<String, Object>(),
+                new TreeMap<String, Object>());
+        for (Map<String, Object> value : values) {
+            value.put("bbb", 1);
+            value.put("aaa", new ArrayList<Object>(Arrays.asList("x")));
+            value.put("ccc", new HashMap<String, Object>(nested));
+            Object decoded = roundTrip(value);
+            assertThat(decoded.getClass(), is((Object) value.getClass()));
+            assertThat(decoded, is((Object) value));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForBean() throws Exception {
+        Bean bean = new Bean();
+        bean.setName("aaa");
+        bean.setCount(3);
+        bean.setChildren(new ArrayList<Bean>());
+        bean.getChildren().add(new Bean());
+        bean.getChildren().get(0).setName("bbb");
+        Bean decoded = (Bean) roundTrip(bean);
+        assertThat(decoded.getName(), is("aaa"));
+        assertThat(decoded.getCount(), is(3));
+        assertThat(decoded.getChildren().size(), is(1));
+        assertThat(decoded.getChildren().get(0).getName(), is("bbb"));
+        assertThat(BinaryLobCodec.isBeanClass(Bean.class), is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForNonBean() throws Exception {
+        assertThat(BinaryLobCodec.isBeanClass(NonBean.class), is(false));
+        assertThat(BinaryLobCodec.isBeanClass(Text.class), is(false));
+        NonBean decoded = (NonBean) roundTrip(new NonBean("aaa"));
+        assertThat(decoded.getName(), is("aaa"));
+        List<String> list = Arrays.asList("a", "b");
+        assertThat(roundTrip(list), is((Object) list));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForDeepNesting() throws Exception {
+        List<Object> list = new ArrayList<Object>();
+        List<Object> current = list;
+        for (int i = 0; i < BinaryLobCodec.MAX_DEPTH * 2; i++) {
+            List<Object> child = new ArrayList<Object>();
+            current.add(child);
+            current = child;
+        }
+        current.add("aaa");
+        assertThat(roundTrip(list), is((Object) list));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeIsSmallerThanSerialization() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, (long) i);
+        }
+        assertThat(
+            codec.encode(map).length < ByteUtil.toByteArray(map).length,
+            is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForCyclicReference() throws Exception {
+        Bean root = new Bean();
+        root.setName("aaa");
+        root.setChildren(new ArrayList<Bean>());
+        Bean child = new Bean();
+        child.setName("bbb");
+        child.setParent(root);
+        root.getChildren().add(child);
+        byte[] bytes = codec.encode(root);
+        assertThat(bytes.length < 200, is(true));
+        Bean decoded = (Bean) codec.decode(bytes);
+        assertThat(decoded.getChildren().get(0).getName(), is("bbb"));
+        assertThat(decoded.getChildren().get(0).getParent(), is(sameInstance(
+            decoded)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void encodeForSharedReference() throws Exception {
+        Bean root = new Bean();
+        root.setChildren(new ArrayList<Bean>());
+        for (int i = 0; i < 30; i++) {
+            Bean child = new Bean();
+            child.setParent(root);
+            child.setChildren(root.getChildren());
+            root.getChildren().add(child);
+        }
+        Bean decoded = (Bean) roundTrip(root);
+        assertThat(decoded.getChildren().size(), is(30));
+        for (Bean child : decoded.getChildren()) {
+            assertThat(child.getParent(), is(sameInstance(decoded)));
+            assertThat(child.getChildren(), is(sameInstance(decoded
+                .getChildren())));
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("aaa", root.getChildren().get(0));
+        map.put("bbb", root.getChildren().get(0));
+        map.put("ccc", map);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decodedMap = (Map<String, Object>) roundTrip(map);
+        assertThat(decodedMap.get("aaa"), is(sameInstance(decodedMap
+            .get("bbb"))));
+        assertThat(
+            decodedMap.get("ccc"),
+            is(sameInstance((Object) decodedMap)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void decodeForSerializedBytes() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("aaa", 1);
+        byte[] bytes = ByteUtil.toByteArray(map);
+        assertThat(BinaryLobCodec.hasMarker(bytes), is(false));
+        assertThat(codec.decode(bytes), is((Object) map));
+    }
+
+    /**
+     * A bean.
+     */
+    public static class Bean {
+
+        private String name;
+
+        private int count;
+
+        private List<Bean> children;
+
+        private Bean parent;
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param name
+         *            the name
+         */
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the count
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @param count
+         *            the count
+         */
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        /**
+         * @return the children
+         */
+        public List<Bean> getChildren() {
+            return children;
+        }
+
+        /**
+         * @param children
+         *            the children
+         */
+        public void setChildren(List<Bean> children) {
+            this.children = children;
+        }
+
+        /**
+         * @return the parent
+         */
+        public Bean getParent() {
+            return parent;
+        }
+
+        /**
+         * @param parent
+         *            the parent
+         */
+        public void setParent(Bean parent) {
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * A class that is not a bean.
+     */
+    public static class NonBean implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+
+        /**
+         * @param name
+         *            the name
+         */
+        public NonBean(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+    }
+}
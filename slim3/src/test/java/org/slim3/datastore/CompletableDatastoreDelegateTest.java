@@ -0,0 +1,231 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.slim3.datastore.meta.HogeMeta;
+import org.slim3.datastore.model.Hoge;
+import org.slim3.tester.AppEngineTestCase;
+import org.slim3.util.CipherFactory;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * @author higa
+ * 
+ */
+public class CompletableDatastoreDelegateTest extends AppEngineTestCase {
+
+    private HogeMeta meta = HogeMeta.get();
+
+    private CompletableDatastoreDelegate delegate =
+        new CompletableDatastoreDelegate(new AsyncDatastoreDelegate());
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CipherFactory.getFactory().setGlobalKey("xxxxxxxxxxxxxxxx");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        CipherFactory.getFactory().clearGlobalKey();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void async() throws Exception {
+        assertThat(Datastore.async(), is(notNullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void get() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        Hoge hoge = delegate.get(meta, key).join();
+        assertThat(hoge.getKey(), is(key));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getForNoEntity() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", "xxx");
+        try {
+            delegate.get(meta, key).join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(
+                e.getCause(),
+                instanceOf(EntityNotFoundRuntimeException.class));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getOrNull() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", "xxx");
+        assertThat(delegate.getOrNull(meta, key).join(), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void thenCombine() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        Hoge hoge2 = new Hoge();
+        hoge2.setMyString("bbb");
+        Key key = Datastore.put(hoge);
+        Key key2 = Datastore.put(hoge2);
+        String s =
+            delegate.get(meta, key).thenCombine(
+                delegate.get(meta, key2),
+                new BiFunction<Hoge, Hoge, String>() {
+                    public String apply(Hoge h1, Hoge h2) {
+                        return h1.getMyString() + h2.getMyString();
+                    }
+                }).join();
+        assertThat(s, is("aaabbb"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getWithGetBatcher() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        Key key = Datastore.put(hoge);
+        GetBatcher.set(new GetBatcher());
+        try {
+            assertThat(Datastore
+                .async()
+                .get(HogeMeta.get(), key)
+                .get(3, TimeUnit.SECONDS)
+                .getMyString(), is("aaa"));
+        } finally {
+            GetBatcher.set(null);
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void thenApplyJoiningAnotherCall() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        Hoge hoge2 = new Hoge();
+        hoge2.setMyString("bbb");
+        Key key = Datastore.put(hoge);
+        Key key2 = Datastore.put(hoge2);
+        final CompletableFuture<Hoge> future2 = delegate.get(meta, key2);
+        String s =
+            delegate
+                .get(meta, key)
+                .thenApply(new Function<Hoge, String>() {
+                    public String apply(Hoge h) {
+                        return h.getMyString() + future2.join().getMyString();
+                    }
+                })
+                .get(3, TimeUnit.SECONDS);
+        assertThat(s, is("aaabbb"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allOf() throws Exception {
+        Hoge hoge = new Hoge();
+        Hoge hoge2 = new Hoge();
+        List<Key> keys =
+            CompletableDatastoreDelegate
+                .allOf(delegate.put(hoge), delegate.put(hoge2))
+                .join();
+        assertThat(keys.size(), is(2));
+        assertThat(keys.get(0), is(hoge.getKey()));
+        assertThat(keys.get(1), is(hoge2.getKey()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allOfForFailure() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        CompletableFuture<List<Hoge>> future =
+            CompletableDatastoreDelegate.allOf(Arrays.asList(
+                delegate.get(meta, key),
+                delegate.get(meta, KeyFactory.createKey("Hoge", "xxx"))));
+        try {
+            future.join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(
+                e.getCause(),
+                instanceOf(EntityNotFoundRuntimeException.class));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asList() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        Datastore.put(hoge);
+        List<Hoge> list =
+            delegate.asList(
+                Datastore.query(meta).filter(meta.myString.equal("aaa")))
+                .join();
+        assertThat(list.size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void delete() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        delegate.delete(key).join();
+        assertThat(Datastore.getOrNull(key), is(nullValue()));
+    }
+}
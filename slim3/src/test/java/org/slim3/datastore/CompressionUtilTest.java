@@ -0,0 +1,146 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * @author higa
+ *
+ */
+public class CompressionUtilTest {
+
+    /**
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        CompressionUtil.resetStatistics();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        CompressionUtil.resetStatistics();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForLargeText() throws Exception {
+        Text text = new Text(repeat("abc", 1000));
+        Object compressed = CompressionUtil.compress(text);
+        assertThat(compressed instanceof Blob, is(true));
+        int length = ((Blob) compressed).getBytes().length;
+        assertThat(length < 3000, is(true));
+        assertThat(CompressionUtil.decompress(compressed), is((Object) text));
+        assertThat(CompressionUtil.getCompressedCount(), is(1L));
+        assertThat(CompressionUtil.getBytesSaved(), is(3000L - length));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForSmallText() throws Exception {
+        Text text = new Text("abc");
+        assertThat(CompressionUtil.compress(text), is((Object) text));
+        assertThat(CompressionUtil.decompress(text), is((Object) text));
+        assertThat(CompressionUtil.getCompressedCount(), is(0L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForLargeBlob() throws Exception {
+        Blob blob = new Blob(new byte[5000]);
+        Object compressed = CompressionUtil.compress(blob);
+        assertThat(((Blob) compressed).getBytes().length < 5000, is(true));
+        assertThat(CompressionUtil.decompress(compressed), is((Object) blob));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForIncompressibleBlob() throws Exception {
+        byte[] bytes = new byte[5000];
+        new Random(1).nextBytes(bytes);
+        Blob blob = new Blob(bytes);
+        assertThat(CompressionUtil.compress(blob), is((Object) blob));
+        assertThat(CompressionUtil.getCompressedCount(), is(0L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForBlobStartingWithHeader() throws Exception {
+        Blob blob = new Blob(new byte[] { 'S', '3', 'Z', 'T', 1 });
+        Object compressed = CompressionUtil.compress(blob);
+        assertThat(compressed, is(not((Object) blob)));
+        assertThat(CompressionUtil.decompress(compressed), is((Object) blob));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compressForNull() throws Exception {
+        assertThat(CompressionUtil.compress(null), is(nullValue()));
+        assertThat(CompressionUtil.decompress(null), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void compressForIllegalValue() throws Exception {
+        CompressionUtil.compress("abc");
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void decompressForUncompressedValue() throws Exception {
+        Blob blob = new Blob(new byte[] { 1, 2, 3 });
+        assertThat(CompressionUtil.decompress(blob), is((Object) blob));
+        assertThat(CompressionUtil.decompress("abc"), is((Object) "abc"));
+    }
+
+    private static String repeat(String s, int count) {
+        char[] chars = new char[s.length() * count];
+        for (int i = 0; i < count; i++) {
+            s.getChars(0, s.length(), chars, i * s.length());
+        }
+        return new String(chars);
+    }
+}
@@ -21,8 +21,10 @@ import static org.junit.Assert.assertThat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
 
 import org.junit.Test;
@@ -44,7 +46,10 @@ import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.KeyRange;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.datastore.Transaction;
 import com.google.storage.onestore.v3.OnestoreEntity.Path;
 import com.google.storage.onestore.v3.OnestoreEntity.Path.Element;
@@ -172,6 +177,29 @@ public class DatastoreUtilTest extends AppEngineTestCase {
         assertThat(entity.getKey().getId(), is(not(0L)));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void assignKeyIfNecessaryForEntitiesInGroups() throws Exception {
+        Key parentKey = KeyFactory.createKey("Parent", 1);
+        Entity entity = new Entity("Hoge");
+        Entity entity2 = new Entity("Hoge");
+        Entity entity3 = new Entity("Child", parentKey);
+        Entity entity4 = new Entity(KeyFactory.createKey("Hoge", 1));
+        DatastoreUtil.assignKeyIfNecessary(ds, Arrays.asList(
+            entity,
+            entity2,
+            entity3,
+            entity4));
+        assertThat(entity.getKey().getId(), is(not(0L)));
+        assertThat(entity2.getKey().getId(), is(not(0L)));
+        assertThat(entity2.getKey(), is(not(entity.getKey())));
+        assertThat(entity3.getKey().getId(), is(not(0L)));
+        assertThat(entity3.getKey().getParent(), is(parentKey));
+        assertThat(entity4.getKey().getId(), is(1L));
+    }
+
     /**
      * @throws Exception
      */
@@ -407,6 +435,38 @@ public class DatastoreUtilTest extends AppEngineTestCase {
         assertThat(sorted.get(2).getMyInteger(), is(1));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void sortInMemoryForIterator() throws Exception {
+        List<Hoge> list = new ArrayList<Hoge>();
+        for (int i : new int[] { 3, 1, 4, 1, 5, 9, 2, 6 }) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            hoge.setMyString(String.valueOf(list.size()));
+            list.add(hoge);
+        }
+        List<Hoge> sorted =
+            DatastoreUtil.sortInMemory(list.iterator(), Arrays
+                .asList((InMemorySortCriterion) meta.myInteger.asc), 3);
+        assertThat(sorted.size(), is(3));
+        assertThat(sorted.get(0).getMyString(), is("1"));
+        assertThat(sorted.get(1).getMyString(), is("3"));
+        assertThat(sorted.get(2).getMyInteger(), is(2));
+        sorted =
+            DatastoreUtil.sortInMemory(list.iterator(), Arrays
+                .asList((InMemorySortCriterion) meta.myInteger.desc), 20);
+        assertThat(sorted.size(), is(8));
+        assertThat(sorted.get(0).getMyInteger(), is(9));
+        assertThat(sorted.get(6).getMyString(), is("1"));
+        assertThat(sorted.get(7).getMyString(), is("3"));
+        sorted =
+            DatastoreUtil.sortInMemory(list.iterator(), Arrays
+                .asList((InMemorySortCriterion) meta.myInteger.desc), 0);
+        assertThat(sorted.size(), is(0));
+    }
+
     /**
      * @throws Exception
      */
@@ -566,6 +626,155 @@ public class DatastoreUtilTest extends AppEngineTestCase {
         assertThat(hoge.getKey(), is(entities.get(0).getKey()));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void modelsToEntitiesForManyModels() throws Exception {
+        List<Object> models = new ArrayList<Object>();
+        for (int i = 0; i < 10; i++) {
+            models.add(new Hoge());
+            models.add(new Entity("Hoge"));
+        }
+        List<Entity> entities = DatastoreUtil.modelsToEntities(ds, models);
+        assertThat(entities.size(), is(20));
+        Set<Key> keys = new HashSet<Key>();
+        for (Entity e : entities) {
+            assertThat(e.getKey().isComplete(), is(true));
+            keys.add(e.getKey());
+        }
+        assertThat(keys.size(), is(20));
+        assertThat(((Hoge) models.get(0)).getKey(), is(entities.get(0).getKey()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void splitEntities() throws Exception {
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 501; i++) {
+            entities.add(new Entity("Hoge"));
+        }
+        List<List<Entity>> chunks = DatastoreUtil.splitEntities(entities);
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(0).size(), is(500));
+        assertThat(chunks.get(1).size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void splitEntitiesBySize() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 400000; i++) {
+            sb.append('a');
+        }
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 5; i++) {
+            Entity entity = new Entity("Hoge");
+            entity.setUnindexedProperty("text", new Text(sb.toString()));
+            entities.add(entity);
+        }
+        List<List<Entity>> chunks = DatastoreUtil.splitEntities(entities);
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(0).size(), is(2));
+        assertThat(chunks.get(2).size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void estimateSize() throws Exception {
+        Entity entity = new Entity("Hoge");
+        int size = DatastoreUtil.estimateSize(entity);
+        entity.setUnindexedProperty("text", new Text("abcdefghij"));
+        entity.setProperty("list", Arrays.asList("aaa", "bbb"));
+        assertThat(
+            DatastoreUtil.estimateSize(entity),
+            is(size + "text".length() + 10 + "list".length() + 6));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void splitKeys() throws Exception {
+        List<Key> keys = new ArrayList<Key>();
+        for (int i = 1; i <= 1000; i++) {
+            keys.add(KeyFactory.createKey("Hoge", i));
+        }
+        List<List<Key>> chunks = DatastoreUtil.splitKeys(keys);
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(1).get(499).getId(), is(1000L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toDisjunctiveFilters() throws Exception {
+        HogeMeta m = HogeMeta.get();
+        List<Filter> filters =
+            DatastoreUtil.toFilters(m, m.myString.in("a", "b", "a"), m.or(
+                m.myInteger.equal(1),
+                m.myInteger.equal(2)), m.myBoolean.equal(true));
+        List<List<Filter>> disjuncts =
+            DatastoreUtil.toDisjunctiveFilters(filters);
+        assertThat(disjuncts.size(), is(4));
+        for (List<Filter> disjunct : disjuncts) {
+            assertThat(disjunct.size(), is(3));
+        }
+        FilterPredicate fp = (FilterPredicate) disjuncts.get(3).get(0);
+        assertThat(fp.getOperator(), is(FilterOperator.EQUAL));
+        assertThat(fp.getValue(), is((Object) "b"));
+        fp = (FilterPredicate) disjuncts.get(3).get(1);
+        assertThat(fp.getValue(), is((Object) 2));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toDisjunctiveFiltersForMax() throws Exception {
+        HogeMeta m = HogeMeta.get();
+        List<Filter> filters =
+            DatastoreUtil.toFilters(
+                m,
+                m.myString.in("a", "b", "c", "d", "e", "f"),
+                m.myInteger.in(1, 2, 3, 4, 5, 6));
+        assertThat(DatastoreUtil.toDisjunctiveFilters(filters, 30), is(nullValue()));
+        assertThat(
+            DatastoreUtil.toDisjunctiveFilters(filters, 36).size(),
+            is(36));
+        filters =
+            DatastoreUtil.toFilters(m, m.or(
+                m.myString.in("a", "b", "c"),
+                m.myInteger.in(1, 2, 3)));
+        assertThat(DatastoreUtil.toDisjunctiveFilters(filters, 5), is(nullValue()));
+        assertThat(
+            DatastoreUtil.toDisjunctiveFilters(filters, 6).size(),
+            is(6));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toDisjunctiveFiltersForNoDisjunction() throws Exception {
+        HogeMeta m = HogeMeta.get();
+        List<Filter> filters =
+            DatastoreUtil.toFilters(m, m.myString.equal("a"), m.and(
+                m.myInteger.equal(1),
+                m.myBoolean.equal(true)));
+        List<List<Filter>> disjuncts =
+            DatastoreUtil.toDisjunctiveFilters(filters);
+        assertThat(disjuncts.size(), is(1));
+        assertThat(disjuncts.get(0).size(), is(3));
+    }
+
     /**
      * @throws Exception
      */
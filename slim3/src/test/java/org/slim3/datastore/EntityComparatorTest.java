@@ -0,0 +1,105 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Query.SortPredicate;
+
+/**
+ * @author higa
+ * 
+ */
+public class EntityComparatorTest extends AppEngineTestCase {
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compare() throws Exception {
+        Entity e1 = new Entity(KeyFactory.createKey("Hoge", 1));
+        e1.setProperty("aaa", 2L);
+        Entity e2 = new Entity(KeyFactory.createKey("Hoge", 2));
+        e2.setProperty("aaa", 1L);
+        Entity e3 = new Entity(KeyFactory.createKey("Hoge", 3));
+        e3.setProperty("aaa", 2L);
+        List<Entity> list = new ArrayList<Entity>(Arrays.asList(e3, e1, e2));
+        Collections.sort(list, new EntityComparator(Arrays.asList(
+            new SortPredicate("aaa", SortDirection.DESCENDING))));
+        assertThat(list, is(Arrays.asList(e1, e3, e2)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compareForMultiValuedProperty() throws Exception {
+        Entity e1 = new Entity(KeyFactory.createKey("Hoge", 1));
+        e1.setProperty("aaa", Arrays.asList("b", "z"));
+        Entity e2 = new Entity(KeyFactory.createKey("Hoge", 2));
+        e2.setProperty("aaa", Arrays.asList("c", "a"));
+        EntityComparator asc =
+            new EntityComparator(Arrays.asList(new SortPredicate(
+                "aaa",
+                SortDirection.ASCENDING)));
+        assertThat(asc.compare(e1, e2) > 0, is(true));
+        EntityComparator desc =
+            new EntityComparator(Arrays.asList(new SortPredicate(
+                "aaa",
+                SortDirection.DESCENDING)));
+        assertThat(desc.compare(e1, e2) < 0, is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compareValue() throws Exception {
+        EntityComparator c =
+            new EntityComparator(new ArrayList<SortPredicate>());
+        assertThat(c.compareValue(null, 1L), is(-1));
+        assertThat(c.compareValue(1, 2L), is(-1));
+        assertThat(c.compareValue("a", 1L), is(1));
+        assertThat(c.compareValue(1.5d, "a"), is(1));
+        assertThat(c.compareValue(KeyFactory.createKey("Hoge", 1), 1.5d), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void compareForKey() throws Exception {
+        Entity e1 = new Entity(KeyFactory.createKey("Hoge", 1));
+        Entity e2 = new Entity(KeyFactory.createKey("Hoge", 2));
+        EntityComparator c =
+            new EntityComparator(Arrays.asList(new SortPredicate(
+                Entity.KEY_RESERVED_PROPERTY,
+                SortDirection.DESCENDING)));
+        assertThat(c.compare(e1, e2) > 0, is(true));
+    }
+}
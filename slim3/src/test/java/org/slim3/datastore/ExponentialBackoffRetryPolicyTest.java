@@ -0,0 +1,105 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slim3.tester.TestEnvironment;
+
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * @author higa
+ * 
+ */
+public class ExponentialBackoffRetryPolicyTest {
+
+    /**
+     * @throws Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        ApiProxy.clearEnvironmentForCurrentThread();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getDelay() throws Exception {
+        ExponentialBackoffRetryPolicy policy =
+            new ExponentialBackoffRetryPolicy(10, 100).maxDelay(500);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getDelay(1, 0);
+            assertThat(delay >= 0 && delay <= 100, is(true));
+            delay = policy.getDelay(3, 0);
+            assertThat(delay >= 0 && delay <= 400, is(true));
+            delay = policy.getDelay(10, 0);
+            assertThat(delay >= 0 && delay <= 500, is(true));
+        }
+        assertThat(policy.getDelay(11, 0), is(-1L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getDelayForLargeRetries() throws Exception {
+        ExponentialBackoffRetryPolicy policy =
+            new ExponentialBackoffRetryPolicy(100, 100);
+        long delay = policy.getDelay(100, 0);
+        assertThat(
+            delay >= 0
+                && delay <= ExponentialBackoffRetryPolicy.DEFAULT_MAX_DELAY,
+            is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getDelayForTimeBudget() throws Exception {
+        ExponentialBackoffRetryPolicy policy =
+            new ExponentialBackoffRetryPolicy(5, 100).timeBudget(1000);
+        assertThat(policy.getDelay(1, 1000), is(-1L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getDelayForRequestDeadline() throws Exception {
+        TestEnvironment env = new TestEnvironment();
+        ApiProxy.setEnvironmentForCurrentThread(env);
+        ExponentialBackoffRetryPolicy policy =
+            new ExponentialBackoffRetryPolicy(5, 100);
+        env.setRemainingMillis(500);
+        assertThat(policy.getDelay(1, 0), is(-1L));
+        env.setRemainingMillis(30000);
+        assertThat(policy.getDelay(1, 0) >= 0, is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorForIllegalBaseDelay() throws Exception {
+        new ExponentialBackoffRetryPolicy(5, 0);
+    }
+}
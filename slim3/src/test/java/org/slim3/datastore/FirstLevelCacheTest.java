@@ -0,0 +1,178 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * @author higa
+ * 
+ */
+public class FirstLevelCacheTest extends AppEngineTestCase {
+
+    private FirstLevelCache cache = new FirstLevelCache();
+
+    @Override
+    public void tearDown() throws Exception {
+        FirstLevelCache.set(null);
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void lookup() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", 1);
+        Key key2 = KeyFactory.createKey("Hoge", 2);
+        Key key3 = KeyFactory.createKey("Hoge", 3);
+        Entity entity = new Entity(key);
+        entity.setProperty("aaa", "111");
+        Map<Key, Entity> map = new HashMap<Key, Entity>();
+        map.put(key, entity);
+        cache.putAll(Arrays.asList(key, key2), map);
+        entity.setProperty("aaa", "222");
+        Map<Key, Entity> found = new HashMap<Key, Entity>();
+        List<Key> misses = cache.lookup(Arrays.asList(key, key2, key3), found);
+        assertThat(misses, is(Arrays.asList(key3)));
+        assertThat(found.size(), is(1));
+        assertThat(found.get(key).getProperty("aaa"), is((Object) "111"));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void remove() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", 1);
+        cache.putAll(Arrays.asList(key), new HashMap<Key, Entity>());
+        assertThat(cache.size(), is(1));
+        cache.remove(key);
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAllForGetIssuedBeforeWrite() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", 1);
+        long writeCount = cache.getWriteCount();
+        cache.write(Arrays.asList(key), null, null);
+        cache.putAll(Arrays.asList(key), new HashMap<Key, Entity>(), writeCount);
+        assertThat(cache.size(), is(0));
+        cache.putAll(
+            Arrays.asList(key),
+            new HashMap<Key, Entity>(),
+            cache.getWriteCount());
+        assertThat(cache.size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void putAllForPendingTx() throws Exception {
+        FirstLevelCache.set(cache);
+        Key key = Datastore.put(new Entity("Hoge"));
+        Transaction tx = Datastore.beginTransaction();
+        Entity entity = new Entity(key);
+        entity.setProperty("aaa", "111");
+        Datastore.put(tx, entity);
+        assertThat(Datastore.get(key).getProperty("aaa"), is(nullValue()));
+        assertThat(cache.size(), is(0));
+        tx.commit();
+        assertThat(
+            Datastore.get(key).getProperty("aaa"),
+            is((Object) "111"));
+        assertThat(cache.size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void get() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        FirstLevelCache.set(cache);
+        assertThat(Datastore.get(key), is(notNullValue()));
+        assertThat(Datastore.get(key), is(notNullValue()));
+        assertThat(Datastore.getOrNull(KeyFactory.createKey("Hoge", "xxx")),
+            is(nullValue()));
+        assertThat(Datastore.getOrNull(KeyFactory.createKey("Hoge", "xxx")),
+            is(nullValue()));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(2L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getWithinTx() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        FirstLevelCache.set(cache);
+        Transaction tx = Datastore.beginTransaction();
+        assertThat(Datastore.get(tx, key), is(notNullValue()));
+        tx.rollback();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getMissCount(), is(0L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void put() throws Exception {
+        FirstLevelCache.set(cache);
+        Entity entity = new Entity("Hoge");
+        Key key = Datastore.put(entity);
+        Datastore.get(key);
+        assertThat(cache.size(), is(1));
+        entity.setProperty("aaa", "111");
+        Datastore.put(entity);
+        assertThat(cache.size(), is(0));
+        assertThat(Datastore.get(key).getProperty("aaa"), is((Object) "111"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void delete() throws Exception {
+        FirstLevelCache.set(cache);
+        Key key = Datastore.put(new Entity("Hoge"));
+        Datastore.get(key);
+        Datastore.delete(key);
+        assertThat(Datastore.getOrNull(key), is(nullValue()));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+import org.slim3.util.FutureUtil;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * @author higa
+ * 
+ */
+public class GetBatcherTest extends AppEngineTestCase {
+
+    private AsyncDatastoreDelegate delegate = new AsyncDatastoreDelegate();
+
+    @Override
+    public void tearDown() throws Exception {
+        GetBatcher.set(null);
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void add() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        Key key2 = KeyFactory.createKey("Hoge", "xxx");
+        GetBatcher batcher = new GetBatcher();
+        Future<Map<Key, Entity>> future = batcher.add(delegate, key);
+        Future<Map<Key, Entity>> future2 = batcher.add(delegate, key2);
+        Future<Map<Key, Entity>> future3 = batcher.add(delegate, key);
+        assertThat(batcher.getNumberOfBatches(), is(0));
+        assertThat(future.get().get(key), is(notNullValue()));
+        assertThat(future2.get().get(key2), is(nullValue()));
+        assertThat(future3.get().get(key), is(notNullValue()));
+        assertThat(batcher.getNumberOfGets(), is(3));
+        assertThat(batcher.getNumberOfBatches(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void addWhenBatchSizeIsReached() throws Exception {
+        GetBatcher batcher = new GetBatcher(2);
+        batcher.add(delegate, KeyFactory.createKey("Hoge", 1));
+        assertThat(batcher.getNumberOfBatches(), is(0));
+        batcher.add(delegate, KeyFactory.createKey("Hoge", 2));
+        assertThat(batcher.getNumberOfBatches(), is(1));
+        batcher.add(delegate, KeyFactory.createKey("Hoge", 3));
+        assertThat(batcher.getNumberOfBatches(), is(1));
+        batcher.flush();
+        assertThat(batcher.getNumberOfBatches(), is(2));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void isDone() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        GetBatcher batcher = new GetBatcher();
+        Future<Map<Key, Entity>> future = batcher.add(delegate, key);
+        assertThat(batcher.getNumberOfBatches(), is(0));
+        while (!future.isDone()) {
+            Thread.sleep(1);
+        }
+        assertThat(batcher.getNumberOfBatches(), is(1));
+        assertThat(future.get().get(key), is(notNullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFuture() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        GetBatcher.set(new GetBatcher());
+        Future<Entity> future = delegate.getAsync(key);
+        Entity entity =
+            FutureUtil.toCompletableFuture(future).get(3, TimeUnit.SECONDS);
+        assertThat(entity.getKey(), is(key));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorForIllegalBatchSize() throws Exception {
+        new GetBatcher(0);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void set() throws Exception {
+        GetBatcher batcher = new GetBatcher();
+        GetBatcher.set(batcher);
+        assertThat(GetBatcher.get(), is(sameInstance(batcher)));
+        batcher.add(delegate, KeyFactory.createKey("Hoge", 1));
+        GetBatcher.set(null);
+        assertThat(GetBatcher.get(), is(nullValue()));
+        assertThat(batcher.getNumberOfBatches(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getAsyncThroughDelegate() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        Key key2 = Datastore.put(new Entity("Hoge"));
+        GetBatcher batcher = new GetBatcher();
+        GetBatcher.set(batcher);
+        Future<Entity> future = delegate.getAsync(key);
+        Future<Entity> future2 = delegate.getOrNullAsync(key2);
+        Future<Entity> future3 =
+            delegate.getOrNullAsync(KeyFactory.createKey("Hoge", "xxx"));
+        assertThat(future.get().getKey(), is(key));
+        assertThat(future2.get().getKey(), is(key2));
+        assertThat(future3.get(), is(nullValue()));
+        assertThat(batcher.getNumberOfBatches(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = EntityNotFoundRuntimeException.class)
+    public void getAsyncThroughDelegateForNoEntity() throws Exception {
+        GetBatcher.set(new GetBatcher());
+        Datastore.get(KeyFactory.createKey("Hoge", "xxx"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getAsyncWithinTx() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        GetBatcher batcher = new GetBatcher();
+        GetBatcher.set(batcher);
+        Datastore.beginTransaction();
+        assertThat(Datastore.get(key), is(notNullValue()));
+        assertThat(batcher.getNumberOfGets(), is(0));
+    }
+}
@@ -18,6 +18,7 @@ package org.slim3.datastore;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.notNullValue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -95,6 +96,44 @@ public class InMemoryInCriterionTest extends AppEngineTestCase {
         assertThat(c.accept(hoge), is(false));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void acceptForManyValues() throws Exception {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i += 2) {
+            values.add(i);
+        }
+        InMemoryInCriterion c = new InMemoryInCriterion(meta.myInteger, values);
+        assertThat(c.valueSet, is(notNullValue()));
+        Hoge hoge = new Hoge();
+        hoge.setMyInteger(4);
+        assertThat(c.accept(hoge), is(true));
+        hoge.setMyInteger(5);
+        assertThat(c.accept(hoge), is(false));
+        hoge.setMyInteger(null);
+        assertThat(c.accept(hoge), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void acceptForManyEnums() throws Exception {
+        List<SortDirection> values = new ArrayList<SortDirection>();
+        for (int i = 0; i < 10; i++) {
+            values.add(SortDirection.ASCENDING);
+        }
+        InMemoryInCriterion c = new InMemoryInCriterion(meta.myEnum, values);
+        assertThat(c.valueSet, is(notNullValue()));
+        Hoge hoge = new Hoge();
+        hoge.setMyEnum(SortDirection.ASCENDING);
+        assertThat(c.accept(hoge), is(true));
+        hoge.setMyEnum(SortDirection.DESCENDING);
+        assertThat(c.accept(hoge), is(false));
+    }
+
     /**
      * @throws Exception
      */
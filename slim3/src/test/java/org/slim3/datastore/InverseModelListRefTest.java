@@ -21,6 +21,8 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
@@ -90,6 +92,53 @@ public class InverseModelListRefTest extends AppEngineTestCase {
         assertThat(ref.getModelList(), is(sameInstance(models)));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void load() throws Exception {
+        Hoge hoge2 = new Hoge();
+        Hoge hoge3 = new Hoge();
+        Datastore.put(hoge, hoge2);
+        Bbb bbb = new Bbb();
+        bbb.getHoge2Ref().setModel(hoge);
+        Bbb bbb2 = new Bbb();
+        bbb2.getHoge2Ref().setModel(hoge2);
+        Bbb bbb3 = new Bbb();
+        bbb3.getHoge2Ref().setModel(hoge);
+        Datastore.put(bbb, bbb2, bbb3);
+        AsyncDatastoreDelegate delegate = Datastore.asyncDelegate();
+        int parallelism = delegate.getBatchParallelism();
+        delegate.setBatchParallelism(1);
+        try {
+            InverseModelListRef.load(Arrays.asList(
+                hoge.getBbbListRef(),
+                hoge2.getBbbListRef(),
+                hoge3.getBbbListRef()));
+        } finally {
+            delegate.setBatchParallelism(parallelism);
+        }
+        List<Bbb> models = hoge.getBbbListRef().modelList;
+        assertThat(models.size(), is(2));
+        assertThat(models.get(0).getKey(), is(bbb.getKey()));
+        assertThat(models.get(1).getKey(), is(bbb3.getKey()));
+        models = hoge2.getBbbListRef().modelList;
+        assertThat(models.size(), is(1));
+        assertThat(models.get(0).getKey(), is(bbb2.getKey()));
+        assertThat(hoge3.getBbbListRef().modelList.size(), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void loadForLoadedRef() throws Exception {
+        List<Bbb> models = new ArrayList<Bbb>();
+        ref.modelList = models;
+        InverseModelListRef.load(Arrays.asList(ref));
+        assertThat(ref.modelList, is(sameInstance(models)));
+    }
+
     /**
      * @throws Exception
      */
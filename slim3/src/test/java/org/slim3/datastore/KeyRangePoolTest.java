@@ -0,0 +1,112 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * @author higa
+ * 
+ */
+public class KeyRangePoolTest extends AppEngineTestCase {
+
+    private AsyncDatastoreService ds =
+        DatastoreServiceFactory.getAsyncDatastoreService();
+
+    @Override
+    public void tearDown() throws Exception {
+        KeyRangePool.clear();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allocateIdWithoutPooling() throws Exception {
+        Key key = KeyRangePool.allocateId(ds, null, "Hoge");
+        assertThat(key.isComplete(), is(true));
+        assertThat(KeyRangePool.pools.size(), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allocateId() throws Exception {
+        KeyRangePool.setPoolSize("Hoge", 10);
+        Set<Key> keys = new HashSet<Key>();
+        for (int i = 0; i < 25; i++) {
+            Key key = KeyRangePool.allocateId(ds, null, "Hoge");
+            assertThat(key.getKind(), is("Hoge"));
+            assertThat(key.isComplete(), is(true));
+            keys.add(key);
+        }
+        assertThat(keys.size(), is(25));
+        assertThat(KeyRangePool.pools.size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allocateIdWithParentKey() throws Exception {
+        KeyRangePool.setPoolSize("Child", 10);
+        Key parentKey = KeyFactory.createKey("Parent", 1);
+        Key key = KeyRangePool.allocateId(ds, parentKey, "Child");
+        assertThat(key.getParent(), is(parentKey));
+        assertThat(key.isComplete(), is(true));
+        KeyRangePool.allocateId(ds, null, "Child");
+        assertThat(KeyRangePool.pools.size(), is(2));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void assignKeyIfNecessary() throws Exception {
+        KeyRangePool.setDefaultPoolSize(10);
+        try {
+            Entity entity = new Entity("Hoge");
+            DatastoreUtil.assignKeyIfNecessary(ds, entity);
+            assertThat(entity.getKey().isComplete(), is(true));
+            assertThat(KeyRangePool.pools.size(), is(1));
+        } finally {
+            KeyRangePool.setDefaultPoolSize(0);
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void setPoolSizeForNegativeValue() throws Exception {
+        KeyRangePool.setPoolSize("Hoge", -1);
+    }
+}
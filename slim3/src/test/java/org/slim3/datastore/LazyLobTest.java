@@ -0,0 +1,99 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.slim3.util.ByteUtil;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * @author higa
+ *
+ */
+public class LazyLobTest {
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void fromPropertyForText() throws Exception {
+        Text text = new Text("aaa");
+        LazyLob<String> lob = LazyLob.fromProperty(text);
+        assertThat(lob.isDecoded(), is(false));
+        assertThat(lob.toProperty(), is((Object) text));
+        assertThat(lob.get(), is("aaa"));
+        assertThat(lob.isDecoded(), is(true));
+        assertThat(lob.toProperty(), is((Object) text));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void fromPropertyForBlob() throws Exception {
+        Blob blob =
+            new Blob(ByteUtil.toByteArray(new ArrayList<String>(Arrays
+                .asList("aaa", "bbb"))));
+        LazyLob<List<String>> lob = LazyLob.fromProperty(blob);
+        assertThat(lob.isDecoded(), is(false));
+        assertThat(lob.toProperty(), is(sameInstance((Object) blob)));
+        assertThat(lob.get(), is(Arrays.asList("aaa", "bbb")));
+        assertThat(lob.isDecoded(), is(true));
+        lob.get().add("ccc");
+        List<String> list =
+            ByteUtil.toObject(((Blob) lob.toProperty()).getBytes());
+        assertThat(list, is(Arrays.asList("aaa", "bbb", "ccc")));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void fromPropertyForNull() throws Exception {
+        LazyLob<String> lob = LazyLob.fromProperty(null);
+        assertThat(lob.isDecoded(), is(true));
+        assertThat(lob.get(), is(nullValue()));
+        assertThat(lob.toProperty(), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void fromPropertyForIllegalProperty() throws Exception {
+        LazyLob.fromProperty("aaa");
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void set() throws Exception {
+        LazyLob<String> lob = LazyLob.fromProperty(new Text("aaa"));
+        lob.set("bbb");
+        assertThat(lob.get(), is("bbb"));
+        assertThat(lob.toProperty(), is((Object) new Text("bbb")));
+    }
+}
@@ -18,6 +18,7 @@ package org.slim3.datastore;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.junit.Test;
@@ -33,6 +34,7 @@ import org.slim3.util.CipherFactory;
 import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query.SortDirection;
 
 /**
  * @author higa
@@ -121,4 +123,27 @@ public class ModelIteratorTest extends AppEngineTestCase {
             .getName()));
         assertThat(modelIterator.hasNext(), is(false));
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void nextForFilterCriteria() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        EntityQuery query =
+            new EntityQuery(ds, "Hoge").sort(
+                "myInteger",
+                SortDirection.ASCENDING);
+        ModelIterator<Hoge> modelIterator =
+            new ModelIterator<Hoge>(query.asIterator(), meta, Arrays
+                .asList(meta.myInteger.greaterThan(1)), 2);
+        assertThat(modelIterator.hasNext(), is(true));
+        assertThat(modelIterator.next().getMyInteger(), is(2));
+        assertThat(modelIterator.next().getMyInteger(), is(3));
+        assertThat(modelIterator.hasNext(), is(false));
+    }
+}
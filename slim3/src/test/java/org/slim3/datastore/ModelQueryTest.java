@@ -18,6 +18,7 @@ package org.slim3.datastore;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -34,6 +35,7 @@ import org.slim3.datastore.model.Hoge;
 import org.slim3.tester.AppEngineTestCase;
 import org.slim3.util.CipherFactory;
 
+import com.google.appengine.api.NamespaceManager;
 import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -42,7 +44,9 @@ import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery.TooManyResultsException;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.Expiration;
 
 /**
  * @author higa
@@ -179,6 +183,272 @@ public class ModelQueryTest extends AppEngineTestCase {
         assertThat(list.size(), is(1));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void cachedForUnregisteredKind() throws Exception {
+        new ModelQuery<Hoge>(ds, meta).cached(Expiration.byDeltaSeconds(60));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asProjectionList() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        hoge.setMyInteger(1);
+        hoge.setMyDouble(2d);
+        DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .project(meta.myString, meta.myInteger)
+                .asProjectionList();
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getKey(), is(notNullValue()));
+        assertThat(list.get(0).getMyString(), is("aaa"));
+        assertThat(list.get(0).getMyInteger(), is(1));
+        assertThat(list.get(0).getMyDouble(), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asProjectionListForDistinct() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyString(i < 2 ? "aaa" : "bbb");
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .project(meta.myString)
+                .distinct()
+                .sort(meta.myString.asc)
+                .asProjectionList();
+        assertThat(list.size(), is(2));
+        assertThat(list.get(0).getMyString(), is("aaa"));
+        assertThat(list.get(1).getMyString(), is("bbb"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asProjectionIterator() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyEnum(SortDirection.DESCENDING);
+        hoge.setMyPrimitiveInt(3);
+        DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        Iterator<Hoge> ite =
+            new ModelQuery<Hoge>(ds, meta)
+                .project(meta.myEnum, meta.myPrimitiveInt)
+                .asProjectionIterator();
+        assertThat(ite.hasNext(), is(true));
+        Hoge model = ite.next();
+        assertThat(model.getMyEnum(), is(SortDirection.DESCENDING));
+        assertThat(model.getMyPrimitiveInt(), is(3));
+        assertThat(ite.hasNext(), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void asProjectionListWithoutProject() throws Exception {
+        new ModelQuery<Hoge>(ds, meta).asProjectionList();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public void distinctWithoutProject() throws Exception {
+        new ModelQuery<Hoge>(ds, meta).distinct();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListAndPrefetch() throws Exception {
+        Key hogeKey = DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        Bbb bbb = new Bbb();
+        bbb.getHogeRef().setKey(hogeKey);
+        DatastoreUtil.put(ds, null, bbbMeta.modelToEntity(bbb));
+        List<Bbb> list =
+            new ModelQuery<Bbb>(ds, bbbMeta).prefetch(bbbMeta.hogeRef).asList();
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getHogeRef().model.getKey(), is(hogeKey));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForSortInMemoryAndLimit() throws Exception {
+        for (int i : new int[] { 3, 1, 4, 5, 9, 2, 6 }) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .sort(meta.myInteger.asc)
+                .sortInMemory(meta.myInteger.desc)
+                .limit(3)
+                .asList();
+        assertThat(list.size(), is(3));
+        assertThat(list.get(0).getMyInteger(), is(3));
+        assertThat(list.get(1).getMyInteger(), is(2));
+        assertThat(list.get(2).getMyInteger(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForSortInMemoryTopN() throws Exception {
+        for (int i : new int[] { 3, 1, 4, 5, 9, 2, 6 }) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(meta.myInteger.lessThan(9))
+                .sortInMemoryTopN(meta.myInteger.desc)
+                .offset(1)
+                .limit(3)
+                .asList();
+        assertThat(list.size(), is(3));
+        assertThat(list.get(0).getMyInteger(), is(5));
+        assertThat(list.get(1).getMyInteger(), is(4));
+        assertThat(list.get(2).getMyInteger(), is(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForInOverSubQueryLimit() throws Exception {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyString("s" + i);
+            hoge.setMyInteger(40 - i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+            values.add("s" + i);
+        }
+        values.add("s0");
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .filter(meta.myString.in(values))
+                .sort(meta.myInteger.desc)
+                .asList();
+        assertThat(list.size(), is(40));
+        assertThat(list.get(0).getMyInteger(), is(40));
+        assertThat(list.get(39).getMyInteger(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForInOverParallelQueryLimit() throws Exception {
+        List<String> strings = new ArrayList<String>();
+        List<Integer> integers = new ArrayList<Integer>();
+        for (int i = 0; i < 11; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyString("s" + i);
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+            strings.add("s" + i);
+            integers.add(i);
+        }
+        ModelQuery<Hoge> query =
+            new ModelQuery<Hoge>(ds, meta).filter(
+                meta.myString.in(strings),
+                meta.myInteger.in(integers));
+        assertThat(query.asEntityListInParallel(), is(nullValue()));
+        assertThat(query.asList().size(), is(11));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForInWithinNamespace() throws Exception {
+        NamespaceManager.set("ns");
+        try {
+            for (int i = 0; i < 3; i++) {
+                Hoge hoge = new Hoge();
+                hoge.setMyString("s" + i);
+                DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+            }
+        } finally {
+            NamespaceManager.set(null);
+        }
+        NamespaceManager.set("ns");
+        ModelQuery<Hoge> query;
+        try {
+            query =
+                new ModelQuery<Hoge>(ds, meta).filter(meta.myString.in(
+                    "s0",
+                    "s2"));
+        } finally {
+            NamespaceManager.set(null);
+        }
+        assertThat(query.asList().size(), is(2));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListForOrWithOffsetAndLimit() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyString(i % 2 == 0 ? "aaa" : "bbb");
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        List<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .filter(
+                    meta.or(
+                        meta.myString.equal("aaa"),
+                        meta.myString.equal("bbb"),
+                        meta.myInteger.equal(2)))
+                .sort(meta.myInteger.asc)
+                .offset(1)
+                .limit(3)
+                .asList();
+        assertThat(list.size(), is(3));
+        assertThat(list.get(0).getMyInteger(), is(1));
+        assertThat(list.get(1).getMyInteger(), is(2));
+        assertThat(list.get(2).getMyInteger(), is(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asKeyListForIn() throws Exception {
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        Key key = DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        Hoge hoge2 = new Hoge();
+        hoge2.setMyString("bbb");
+        Key key2 = DatastoreUtil.put(ds, null, meta.modelToEntity(hoge2));
+        List<Key> list =
+            new ModelQuery<Hoge>(ds, meta).filter(
+                meta.myString.in("bbb", "aaa", "ccc")).asKeyList();
+        assertThat(list, is(Arrays.asList(key, key2)));
+    }
+
     /**
      * @throws Exception
      */
@@ -332,10 +602,68 @@ public class ModelQueryTest extends AppEngineTestCase {
     /**
      * @throws Exception
      */
-    @Test(expected = IllegalStateException.class)
+    @Test
     public void asQueryResultListWithFilterInMemory() throws Exception {
-        ModelQuery<Hoge> query = new ModelQuery<Hoge>(ds, meta);
-        query.filterInMemory(meta.myInteger.equal(1)).asQueryResultList();
+        for (int i = 1; i <= 6; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        InMemoryFilterCriterion even = new InMemoryFilterCriterion() {
+            public boolean accept(Object model) {
+                return ((Hoge) model).getMyInteger() % 2 == 0;
+            }
+        };
+        S3QueryResultList<Hoge> list =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(even)
+                .sort(meta.myInteger.asc)
+                .limit(2)
+                .asQueryResultList();
+        assertThat(list.size(), is(2));
+        assertThat(list.get(0).getMyInteger(), is(2));
+        assertThat(list.get(1).getMyInteger(), is(4));
+        assertThat(list.hasNext(), is(true));
+        S3QueryResultList<Hoge> list2 =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(even)
+                .sort(meta.myInteger.asc)
+                .encodedStartCursor(list.getEncodedCursor())
+                .limit(2)
+                .asQueryResultList();
+        assertThat(list2.size(), is(1));
+        assertThat(list2.get(0).getMyInteger(), is(6));
+        assertThat(list2.hasNext(), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asQueryResultIteratorWithFilterInMemory() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        S3QueryResultIterator<Hoge> iterator =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(meta.myInteger.greaterThan(1))
+                .sort(meta.myInteger.asc)
+                .limit(2)
+                .asQueryResultIterator();
+        assertThat(iterator.next().getMyInteger(), is(2));
+        assertThat(iterator.next().getMyInteger(), is(3));
+        assertThat(iterator.hasNext(), is(false));
+        Iterator<Hoge> iterator2 =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(meta.myInteger.greaterThan(1))
+                .sort(meta.myInteger.asc)
+                .encodedStartCursor(iterator.getEncodedCursor())
+                .asIterator();
+        assertThat(iterator2.next().getMyInteger(), is(4));
+        assertThat(iterator2.next().getMyInteger(), is(5));
+        assertThat(iterator2.hasNext(), is(false));
     }
 
     /**
@@ -803,6 +1131,94 @@ public class ModelQueryTest extends AppEngineTestCase {
             is(1));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void exists() throws Exception {
+        ModelQuery<Hoge> query = new ModelQuery<Hoge>(ds, meta);
+        assertThat(query.exists(), is(false));
+        Hoge hoge = new Hoge();
+        hoge.setMyString("aaa");
+        DatastoreUtil.put(ds, null, DatastoreUtil.modelToEntity(ds, hoge));
+        assertThat(new ModelQuery<Hoge>(ds, meta).exists(), is(true));
+        assertThat(new ModelQuery<Hoge>(ds, meta).filterInMemory(
+            meta.myString.equal("aaa")).exists(), is(true));
+        assertThat(new ModelQuery<Hoge>(ds, meta).filterInMemory(
+            meta.myString.equal("bbb")).exists(), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void existsDoesNotChangeQuery() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        ModelQuery<Hoge> query =
+            new ModelQuery<Hoge>(ds, meta)
+                .sortInMemory(meta.myInteger.desc)
+                .limit(2);
+        assertThat(query.exists(), is(true));
+        List<Hoge> list = query.asList();
+        assertThat(list.size(), is(2));
+        assertThat(list.get(0).getMyInteger(), is(2));
+        assertThat(list.get(1).getMyInteger(), is(1));
+        assertThat(query.fetchOptions.getLimit(), is(2));
+        assertThat(query.query.isKeysOnly(), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asListDoesNotChangeFetchOptions() throws Exception {
+        for (int i : new int[] { 3, 1, 4, 5, 9, 2, 6 }) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        ModelQuery<Hoge> query =
+            new ModelQuery<Hoge>(ds, meta)
+                .sortInMemoryTopN(meta.myInteger.desc)
+                .offset(1)
+                .limit(3);
+        assertThat(query.asList().get(0).getMyInteger(), is(6));
+        assertThat(query.fetchOptions.getOffset(), is(1));
+        assertThat(query.fetchOptions.getLimit(), is(3));
+        List<Hoge> list = query.asList();
+        assertThat(list.size(), is(3));
+        assertThat(list.get(0).getMyInteger(), is(6));
+        assertThat(list.get(2).getMyInteger(), is(4));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asIteratorWithFilterInMemoryDoesNotChangeFetchOptions()
+            throws Exception {
+        for (int i = 1; i <= 6; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i);
+            DatastoreUtil.put(ds, null, meta.modelToEntity(hoge));
+        }
+        ModelQuery<Hoge> query =
+            new ModelQuery<Hoge>(ds, meta)
+                .filterInMemory(meta.myInteger.greaterThan(2))
+                .sort(meta.myInteger.asc)
+                .limit(2);
+        Iterator<Hoge> iterator = query.asIterator();
+        assertThat(iterator.next().getMyInteger(), is(3));
+        assertThat(iterator.next().getMyInteger(), is(4));
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(query.fetchOptions.getLimit(), is(2));
+        assertThat(query.asIterator().next().getMyInteger(), is(3));
+    }
+
     /**
      * @throws Exception
      */
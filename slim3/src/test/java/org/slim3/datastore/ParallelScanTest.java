@@ -0,0 +1,193 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.slim3.datastore.meta.HogeMeta;
+import org.slim3.datastore.model.Hoge;
+import org.slim3.tester.AppEngineTestCase;
+import org.slim3.util.CipherFactory;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * @author higa
+ * 
+ */
+public class ParallelScanTest extends AppEngineTestCase {
+
+    private AsyncDatastoreService ds = DatastoreServiceFactory
+        .getAsyncDatastoreService();
+
+    private HogeMeta meta = new HogeMeta();
+
+    private List<Key> keys = new ArrayList<Key>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CipherFactory.getFactory().setGlobalKey("xxxxxxxxxxxxxxxx");
+        for (int i = 0; i < 50; i++) {
+            Hoge hoge = new Hoge();
+            hoge.setMyInteger(i % 2);
+            keys.add(Datastore.put(hoge));
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CipherFactory.getFactory().clearGlobalKey();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void run() throws Exception {
+        final List<Key> scanned = new ArrayList<Key>();
+        ScanCheckpoint checkpoint =
+            new ParallelScan<Hoge>(ds, meta, 4).batchSize(7).run(
+                new ScanHandler<Hoge>() {
+                    public boolean handle(Key key, Hoge model) {
+                        assertThat(model.getKey(), is(key));
+                        scanned.add(key);
+                        return true;
+                    }
+                });
+        assertThat(checkpoint.isCompleted(), is(true));
+        assertThat(checkpoint.getProcessedCount(), is(50L));
+        assertThat(scanned.size(), is(50));
+        assertThat(new HashSet<Key>(scanned), is(new HashSet<Key>(keys)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void runWithFilterAndKeysOnly() throws Exception {
+        final List<Key> scanned = new ArrayList<Key>();
+        ScanCheckpoint checkpoint =
+            new ParallelScan<Hoge>(ds, meta, 2)
+                .filter(meta.myInteger.equal(1))
+                .keysOnly()
+                .run(new ScanHandler<Hoge>() {
+                    public boolean handle(Key key, Hoge model) {
+                        assertThat(model, is(nullValue()));
+                        scanned.add(key);
+                        return true;
+                    }
+                });
+        assertThat(checkpoint.isCompleted(), is(true));
+        assertThat(scanned.size(), is(25));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void resume() throws Exception {
+        final Set<Key> scanned = new HashSet<Key>();
+        ScanHandler<Hoge> handler = new ScanHandler<Hoge>() {
+            public boolean handle(Key key, Hoge model) {
+                assertThat(scanned.add(key), is(true));
+                return scanned.size() % 10 != 0;
+            }
+        };
+        ScanCheckpoint checkpoint =
+            new ParallelScan<Hoge>(ds, meta, 3).batchSize(4).run(handler);
+        assertThat(checkpoint.isCompleted(), is(false));
+        assertThat(scanned.size(), is(10));
+        while (!checkpoint.isCompleted()) {
+            checkpoint =
+                new ParallelScan<Hoge>(ds, meta, 3)
+                    .batchSize(4)
+                    .resume(
+                        ScanCheckpoint.fromWebSafeString(checkpoint
+                            .toWebSafeString()))
+                    .run(handler);
+        }
+        assertThat(scanned, is(new HashSet<Key>(keys)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void checkpointToWebSafeString() throws Exception {
+        ScanCheckpoint.Range range =
+            new ScanCheckpoint.Range(null, KeyFactory.createKey("Hoge", 10));
+        ScanCheckpoint.Range range2 =
+            new ScanCheckpoint.Range(KeyFactory.createKey("Hoge", 10), null);
+        range2.completed = true;
+        ScanCheckpoint checkpoint =
+            new ScanCheckpoint(Arrays.asList(range, range2));
+        checkpoint.processedCount = 3;
+        String encoded = checkpoint.toWebSafeString();
+        assertThat(encoded.matches("[A-Za-z0-9_\\-.~]+"), is(true));
+        ScanCheckpoint decoded = ScanCheckpoint.fromWebSafeString(encoded);
+        assertThat(decoded.getProcessedCount(), is(3L));
+        assertThat(decoded.getRanges().size(), is(2));
+        assertThat(decoded.getRanges().get(0).getStart(), is(nullValue()));
+        assertThat(decoded.getRanges().get(0).getEnd(), is(range.getEnd()));
+        assertThat(decoded.getRanges().get(0).isCompleted(), is(false));
+        assertThat(decoded.getRanges().get(1).getStart(), is(range2.getStart()));
+        assertThat(decoded.getRanges().get(1).getEnd(), is(nullValue()));
+        assertThat(decoded.getRanges().get(1).isCompleted(), is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void checkpointFromIllegalWebSafeString() throws Exception {
+        ScanCheckpoint.fromWebSafeString("rO0ABXNyAA");
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void split() throws Exception {
+        List<ScanCheckpoint.Range> ranges =
+            new ParallelScan<Hoge>(ds, meta, 4).split();
+        assertThat(ranges.get(0).getStart(), is(nullValue()));
+        assertThat(ranges.get(ranges.size() - 1).getEnd(), is(nullValue()));
+        for (int i = 1; i < ranges.size(); i++) {
+            assertThat(ranges.get(i).getStart(), is(ranges.get(i - 1).getEnd()));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorForIllegalShards() throws Exception {
+        new ParallelScan<Hoge>(ds, meta, 0);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.slim3.datastore.meta.HogeMeta;
+import org.slim3.datastore.model.Hoge;
+import org.slim3.tester.AppEngineTestCase;
+import org.slim3.util.CipherFactory;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * @author higa
+ * 
+ */
+public class QueryCacheTest extends AppEngineTestCase {
+
+    private AsyncDatastoreService ds = DatastoreServiceFactory
+        .getAsyncDatastoreService();
+
+    private HogeMeta meta = new HogeMeta();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        CipherFactory.getFactory().setGlobalKey("xxxxxxxxxxxxxxxx");
+        QueryCache.register(meta);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        QueryCache.clear();
+        CipherFactory.getFactory().clearGlobalKey();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void register() throws Exception {
+        assertThat(QueryCache.isCached("Hoge"), is(true));
+        assertThat(QueryCache.isCached("Foo"), is(false));
+        QueryCache.unregister("Hoge");
+        assertThat(QueryCache.isCached("Hoge"), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void invalidate() throws Exception {
+        long generation = QueryCache.getGeneration("Hoge");
+        assertThat(QueryCache.getGeneration("Hoge"), is(generation));
+        QueryCache.invalidate(Arrays.asList(
+            KeyFactory.createKey("Hoge", 1),
+            KeyFactory.createKey("Hoge", 2),
+            KeyFactory.createKey("Foo", 1)));
+        assertThat(QueryCache.getGeneration("Hoge"), is(generation + 1));
+        QueryCache.invalidate(KeyFactory.createKey("Foo", 1));
+        assertThat(QueryCache.getGeneration("Hoge"), is(generation + 1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asEntityList() throws Exception {
+        DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        Expiration expiration = Expiration.byDeltaSeconds(60);
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+        DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+        assertThat(new ModelQuery<Hoge>(ds, meta).asList().size(), is(2));
+        Datastore.put(new Entity("Hoge"));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(3));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asEntityListForLockedKind() throws Exception {
+        Expiration expiration = Expiration.byDeltaSeconds(60);
+        QueryCache.invalidate(KeyFactory.createKey("Hoge", 1));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(0));
+        DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+        MemcacheServiceFactory.getMemcacheService("").delete(
+            QueryCache.LOCK_KEY_PREFIX + "Hoge");
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+        DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCacheKeyDoesNotChangeQuery() throws Exception {
+        ModelQuery<Hoge> query =
+            new ModelQuery<Hoge>(ds, meta).filter(
+                meta.myString.equal("aaa"),
+                meta.myInteger.equal(1));
+        String cacheKey = QueryCache.toCacheKey(query, 1);
+        assertThat(query.query.getFilter(), is(nullValue()));
+        assertThat(QueryCache.toCacheKey(new ModelQuery<Hoge>(ds, meta)
+            .filter(meta.myString.equal("aaa"), meta.myInteger.equal(1)), 1),
+            is(cacheKey));
+        assertThat(QueryCache.toCacheKey(new ModelQuery<Hoge>(ds, meta)
+            .filter(meta.myString.equal("aaa")), 1), is(not(cacheKey)));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void asEntityListForFilter() throws Exception {
+        Entity entity = new Entity("Hoge");
+        entity.setProperty("myString", "aaa");
+        DatastoreUtil.put(ds, null, entity);
+        Expiration expiration = Expiration.byDeltaSeconds(60);
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .filter(meta.myString.equal("aaa"))
+            .cached(expiration)
+            .asList()
+            .size(), is(1));
+        assertThat(new ModelQuery<Hoge>(ds, meta)
+            .filter(meta.myString.equal("bbb"))
+            .cached(expiration)
+            .asList()
+            .size(), is(0));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void cachedResultForLargeEntities() throws Exception {
+        Key key = DatastoreUtil.put(ds, null, new Entity("Hoge"));
+        Entity entity = new Entity(key);
+        entity.setProperty("aaa", new Text(new String(
+            new char[QueryCache.MAX_ENTITY_BYTES])));
+        QueryCache.CachedResult result =
+            QueryCache.CachedResult.create(Arrays.asList(entity));
+        List<Entity> list = result.toEntityList(ds);
+        assertThat(list.size(), is(1));
+        assertThat(list.get(0).getKey(), is(key));
+        assertThat(list.get(0).hasProperty("aaa"), is(false));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+
+/**
+ * @author higa
+ * 
+ */
+public class SecondLevelCacheTest extends AppEngineTestCase {
+
+    private MemcacheService ms = SecondLevelCache.getMemcacheService();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        SecondLevelCache.register("Hoge", 0);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        SecondLevelCache.clear();
+        super.tearDown();
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void register() throws Exception {
+        assertThat(SecondLevelCache.isEnabled(), is(true));
+        assertThat(SecondLevelCache.isCached("Hoge"), is(true));
+        assertThat(SecondLevelCache.isCached("Foo"), is(false));
+        assertThat(
+            SecondLevelCache.isCached(KeyFactory.createKey("Hoge", 1)),
+            is(true));
+        SecondLevelCache.unregister("Hoge");
+        assertThat(SecondLevelCache.isEnabled(), is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void registerForNegativeExpiration() throws Exception {
+        SecondLevelCache.register("Hoge", -1);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void get() throws Exception {
+        Entity entity = new Entity("Hoge");
+        entity.setProperty("aaa", "111");
+        Key key = DatastoreServiceFactory.getDatastoreService().put(entity);
+        String cacheKey = SecondLevelCache.toCacheKey(key);
+        assertThat(Datastore.get(key), is(notNullValue()));
+        assertThat(ms.get(cacheKey), instanceOf(byte[].class));
+        DatastoreServiceFactory.getDatastoreService().delete(key);
+        assertThat(
+            Datastore.get(key).getProperty("aaa"),
+            is((Object) "111"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getForNoEntity() throws Exception {
+        Key key = KeyFactory.createKey("Hoge", "xxx");
+        assertThat(Datastore.getOrNull(key), is(nullValue()));
+        assertThat(
+            (byte[]) ms.get(SecondLevelCache.toCacheKey(key)),
+            is(new byte[0]));
+        assertThat(Datastore.getOrNull(key), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void put() throws Exception {
+        Entity entity = new Entity("Hoge");
+        Key key = Datastore.put(entity);
+        Datastore.get(key);
+        entity.setProperty("aaa", "111");
+        Datastore.put(entity);
+        assertThat(
+            ms.get(SecondLevelCache.toCacheKey(key)),
+            is(not(instanceOf(byte[].class))));
+        assertThat(Datastore.get(key).getProperty("aaa"), is((Object) "111"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void delete() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        Datastore.get(key);
+        Datastore.delete(key);
+        assertThat(Datastore.getOrNull(key), is(nullValue()));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void readTokenTouchedByWrite() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        String cacheKey = SecondLevelCache.toCacheKey(key);
+        Future<Map<Key, Entity>> future =
+            SecondLevelCache.getAsMapAsync(
+                new AsyncDatastoreDelegate(),
+                Arrays.asList(key));
+        SecondLevelCache.lock(key);
+        future.get();
+        assertThat(ms.get(cacheKey), is(not(instanceOf(byte[].class))));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getWithinTx() throws Exception {
+        Key key = Datastore.put(new Entity("Hoge"));
+        Datastore.get(Datastore.beginTransaction(), key);
+        assertThat(ms.contains(SecondLevelCache.toCacheKey(key)), is(false));
+    }
+}
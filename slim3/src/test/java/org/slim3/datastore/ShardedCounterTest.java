@@ -0,0 +1,138 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.datastore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.slim3.memcache.Memcache;
+import org.slim3.tester.AppEngineTestCase;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+
+/**
+ * @author higa
+ * 
+ */
+public class ShardedCounterTest extends AppEngineTestCase {
+
+    private ShardedCounter counter = Datastore.counter("views");
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void increment() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            counter.increment();
+        }
+        counter.increment(-5);
+        assertThat(counter.getCount(), is(25L));
+        assertThat(
+            Datastore.query(ShardedCounter.SHARD_KIND).count() > 1,
+            is(true));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getCountFromShards() throws Exception {
+        counter.increment(3);
+        counter.increment(4);
+        Memcache.cleanAll();
+        assertThat(counter.getCount(), is(7L));
+        assertThat(Memcache.get("slim3.counter:views"), is((Object) 7L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getCountFromMemcache() throws Exception {
+        assertThat(counter.getCount(), is(0L));
+        counter.increment(3);
+        Datastore.deleteWithoutTx(Datastore
+            .query(ShardedCounter.SHARD_KIND)
+            .asKeyList());
+        assertThat(counter.getCount(), is(3L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void setShardCount() throws Exception {
+        assertThat(
+            counter.getShardCount(),
+            is(ShardedCounter.DEFAULT_SHARD_COUNT));
+        counter.setShardCount(40);
+        assertThat(counter.getShardCount(), is(40));
+        Memcache.cleanAll();
+        assertThat(counter.getShardCount(), is(40));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getShardCountDoesNotCacheOldCountAfterGrowth() throws Exception {
+        counter.getShardCount();
+        counter.setShardCount(40);
+        assertThat(Memcache.put(
+            "slim3.counter.shards:views",
+            ShardedCounter.DEFAULT_SHARD_COUNT,
+            null,
+            SetPolicy.ADD_ONLY_IF_NOT_PRESENT), is(false));
+        assertThat(counter.getShardCount(), is(40));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getCountForStaleShardCount() throws Exception {
+        counter.setShardCount(40);
+        Entity shard = new Entity(counter.createShardKey(30));
+        shard.setProperty(ShardedCounter.COUNT_PROPERTY, 5L);
+        Datastore.putWithoutTx(shard);
+        Memcache.cleanAll();
+        Memcache.put(
+            "slim3.counter.shards:views",
+            ShardedCounter.DEFAULT_SHARD_COUNT);
+        assertThat(counter.getCount(), is(5L));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void setShardCountForDecrease() throws Exception {
+        counter.setShardCount(10);
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void growShardCount() throws Exception {
+        counter.growShardCount(30);
+        counter.growShardCount(25);
+        assertThat(counter.getShardCount(), is(30));
+    }
+}
@@ -18,11 +18,14 @@ package org.slim3.datastore;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.util.ConcurrentModificationException;
+
 import org.junit.Test;
 import org.slim3.tester.AppEngineTestCase;
 
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 /**
  * @author higa
@@ -66,4 +69,39 @@ public class TxUowTest extends AppEngineTestCase {
         }
         assertThat(Datastore.getOrNull(entity.getKey()), is(nullValue()));
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     * 
+     */
+    @Test
+    public void runForContention() throws Exception {
+        final Key key = KeyFactory.createKey("Hoge", 1);
+        final int[] attempts = new int[1];
+        ContentionCounter.clear();
+        try {
+            Uow.run(new TxUow() {
+
+                @Override
+                protected Object run() {
+                    if (attempts[0]++ < 2) {
+                        throw new ConcurrentModificationException();
+                    }
+                    return Datastore.put(tx, new Entity(key));
+                }
+
+                @Override
+                protected Key getEntityGroupKey() {
+                    return key;
+                }
+            }, new FixedRetryPolicy(3, 0));
+            assertThat(Datastore.getOrNull(key), is(notNullValue()));
+            assertThat(ContentionCounter.getCount(key), is(2L));
+            assertThat(
+                ContentionCounter.getCount(KeyFactory.createKey(key, "Foo", 1)),
+                is(2L));
+        } finally {
+            ContentionCounter.clear();
+        }
+    }
+}
@@ -122,4 +122,64 @@ public class UowTest {
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     * 
+     */
+    @Test
+    public void runForRetryPolicy() throws Exception {
+        Uow.run(new AbstractUow() {
+
+            @Override
+            protected void rollback() {
+            }
+
+            @Override
+            protected Object run() {
+                if (retries < 3) {
+                    retries++;
+                    throw new ConcurrentModificationException();
+                }
+                return null;
+            }
+
+            @Override
+            protected void commit() {
+            }
+
+            @Override
+            protected void beginTransaction() {
+            }
+        }, new FixedRetryPolicy(3, 0));
+        assertThat(retries, is(3));
+    }
+
+    /**
+     * @throws Exception
+     * 
+     */
+    @Test(expected = ConcurrentModificationException.class)
+    public void runForOverRetryPolicy() throws Exception {
+        Uow.run(new AbstractUow() {
+
+            @Override
+            protected void rollback() {
+            }
+
+            @Override
+            protected Object run() {
+                retries++;
+                throw new ConcurrentModificationException();
+            }
+
+            @Override
+            protected void commit() {
+            }
+
+            @Override
+            protected void beginTransaction() {
+            }
+        }, new FixedRetryPolicy(2, 0));
+    }
+}
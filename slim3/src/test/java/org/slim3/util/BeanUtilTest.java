@@ -42,6 +42,18 @@ public class BeanUtilTest {
         assertThat(BeanUtil.getBeanDesc(getClass()), is(sameInstance(beanDesc)));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getBeanDescAfterClean() throws Exception {
+        BeanDesc beanDesc = BeanUtil.getBeanDesc(getClass());
+        Cleaner.cleanAll();
+        BeanDesc beanDesc2 = BeanUtil.getBeanDesc(getClass());
+        assertThat(beanDesc2, is(not(sameInstance(beanDesc))));
+        assertThat(BeanUtil.getBeanDesc(getClass()), is(sameInstance(beanDesc2)));
+    }
+
     /**
      * @throws Exception
      */
@@ -54,6 +66,45 @@ public class BeanUtilTest {
         assertThat(dest.aaa, is("111"));
     }
 
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getCopyPlan() throws Exception {
+        CopyPlan plan =
+            BeanUtil.getCopyPlan(DestBB.class, new CopyOptions().exclude("aaa"));
+        assertThat(BeanUtil.getCopyPlan(DestBB.class, new CopyOptions()
+            .exclude("aaa")), is(sameInstance(plan)));
+        assertThat(BeanUtil.getCopyPlan(DestBB.class, new CopyOptions()
+            .exclude("bbb")), is(not(sameInstance(plan))));
+        CopyOptions options = new CopyOptions() {
+        };
+        assertThat(
+            BeanUtil.getCopyPlan(DestBB.class, options),
+            is(not(sameInstance(BeanUtil.getCopyPlan(DestBB.class, options)))));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void copyBBReusingOptions() throws Exception {
+        CopyOptions options = new CopyOptions();
+        SrcBB src = new SrcBB();
+        src.aaa = "111";
+        src.fff = "1";
+        DestBB dest = new DestBB();
+        BeanUtil.copy(src, dest, options);
+        assertThat(dest.aaa, is("111"));
+        assertThat(dest.fff, is(1));
+        options.exclude("aaa");
+        src.aaa = "222";
+        src.fff = "2";
+        BeanUtil.copy(src, dest, options);
+        assertThat(dest.aaa, is("111"));
+        assertThat(dest.fff, is(2));
+    }
+
     /**
      * @throws Exception
      */
@@ -282,4 +282,21 @@ public class CopyOptionsTest {
             "aaa",
             String.class);
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void getPlanKey() throws Exception {
+        CopyOptions options = new CopyOptions().exclude("aaa");
+        Object key = options.getPlanKey();
+        assertThat(options.getPlanKey(), is(sameInstance(key)));
+        assertThat(
+            new CopyOptions().exclude("aaa").getPlanKey(),
+            is(key));
+        options.dateConverter("yyyyMMdd", "bbb");
+        assertThat(options.getPlanKey(), is(not(key)));
+        assertThat(new CopyOptions() {
+        }.getPlanKey(), is(nullValue()));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2004-2010 the Seasar Foundation and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.slim3.util;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+/**
+ * @author higa
+ *
+ */
+public class FuturePollerTest {
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFuture() throws Exception {
+        FutureTask<String> future = createTask("hoge");
+        CompletableFuture<String> completable =
+            FuturePoller.getInstance().toCompletableFuture(future);
+        assertThat(completable.isDone(), is(false));
+        future.run();
+        assertThat(completable.join(), is("hoge"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureForDoneFuture() throws Exception {
+        FutureTask<String> future = createTask("hoge");
+        future.run();
+        CompletableFuture<String> completable =
+            FuturePoller.getInstance().toCompletableFuture(future);
+        assertThat(completable.isDone(), is(true));
+        assertThat(completable.join(), is("hoge"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureWhenExceptionOccurred() throws Exception {
+        FutureTask<String> future =
+            new FutureTask<String>(new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IllegalStateException("Hoge");
+                }
+            });
+        CompletableFuture<String> completable =
+            FuturePoller.getInstance().toCompletableFuture(future);
+        future.run();
+        try {
+            completable.join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureForManyFutures() throws Exception {
+        List<FutureTask<String>> futures = new ArrayList<FutureTask<String>>();
+        List<CompletableFuture<String>> threads =
+            new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 100; i++) {
+            FutureTask<String> future = createTask("hoge");
+            futures.add(future);
+            threads.add(FuturePoller
+                .getInstance()
+                .toCompletableFuture(future)
+                .thenApply(new Function<String, String>() {
+                    public String apply(String s) {
+                        return Thread.currentThread().getName();
+                    }
+                }));
+        }
+        for (FutureTask<String> future : futures) {
+            future.run();
+        }
+        Set<String> names = new HashSet<String>();
+        for (CompletableFuture<String> thread : threads) {
+            names.add(thread.get(3, TimeUnit.SECONDS));
+        }
+        assertThat(
+            names.contains(Thread.currentThread().getName()),
+            is(false));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureForStageJoiningAnotherFuture()
+            throws Exception {
+        FutureTask<String> future = createTask("aaa");
+        FutureTask<String> future2 = createTask("bbb");
+        final CompletableFuture<String> completable2 =
+            FuturePoller.getInstance().toCompletableFuture(future2);
+        CompletableFuture<String> result =
+            FuturePoller
+                .getInstance()
+                .toCompletableFuture(future)
+                .thenApply(new Function<String, String>() {
+                    public String apply(String s) {
+                        return s + completable2.join();
+                    }
+                });
+        future.run();
+        Thread.sleep(50);
+        future2.run();
+        assertThat(result.get(3, TimeUnit.SECONDS), is("aaabbb"));
+    }
+
+    private FutureTask<String> createTask(final String value) {
+        return new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                return value;
+            }
+        });
+    }
+}
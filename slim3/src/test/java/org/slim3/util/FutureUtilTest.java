@@ -18,7 +18,13 @@ package org.slim3.util;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import org.junit.Test;
 
@@ -149,4 +155,82 @@ public class FutureUtilTest {
         };
         FutureUtil.getQuietly(future);
     }
-}
\ No newline at end of file
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFuture() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        FakeFuture<String> future = new FakeFuture<String>("hoge") {
+
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+        };
+        CompletableFuture<String> completable =
+            FutureUtil.toCompletableFuture(future, executor);
+        assertThat(completable.isDone(), is(false));
+        assertThat(tasks.size(), is(1));
+        tasks.get(0).run();
+        assertThat(completable.join(), is("hoge"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureForDoneFuture() throws Exception {
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                fail();
+            }
+        };
+        CompletableFuture<String> completable =
+            FutureUtil.toCompletableFuture(
+                new FakeFuture<String>("hoge"),
+                executor);
+        assertThat(completable.join(), is("hoge"));
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void toCompletableFutureWhenExceptionOccurred() throws Exception {
+        FakeFuture<String> future = new FakeFuture<String>("hoge") {
+
+            @Override
+            public String get() throws InterruptedException, ExecutionException {
+                throw new ExecutionException(new IllegalStateException("Hoge"));
+            }
+        };
+        CompletableFuture<String> completable =
+            FutureUtil.toCompletableFuture(future);
+        try {
+            completable.join();
+            fail();
+        } catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+
+    /**
+     * @throws Exception
+     */
+    @Test
+    public void allOf() throws Exception {
+        List<String> list =
+            FutureUtil.<String> allOf(
+                Arrays.asList(
+                    CompletableFuture.completedFuture("aaa"),
+                    CompletableFuture.completedFuture("bbb"))).join();
+        assertThat(list, is(Arrays.asList("aaa", "bbb")));
+    }
+}
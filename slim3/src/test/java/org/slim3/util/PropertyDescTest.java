@@ -124,6 +124,21 @@ public class PropertyDescTest {
         assertThat(aaa, is(2));
     }
 
+    /**
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void setValueForNullToPrimitive() throws Exception {
+        PropertyDesc pd = new PropertyDesc("aaa", int.class, getClass());
+        Method m = getClass().getDeclaredMethod("setAaa", int.class);
+        pd.setWriteMethod(m);
+        pd.setValue(this, 3);
+        assertThat(aaa, is(3));
+        pd.setValue(this, null);
+        assertThat(aaa, is(0));
+    }
+
     /**
      * 
      * @throws Exception
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.appengine.api.datastore.Key;
 import lombok.Data;
 import org.slim3.datastore.Attribute;
+import org.slim3.datastore.BinaryLobCodec;
 import org.slim3.datastore.Datastore;
 import org.slim3.datastore.Model;
 
@@ -68,7 +69,7 @@ public class MapReduce implements Serializable {
 
     private boolean cancel;
 
-    @Attribute(lob = true)
+    @Attribute(lob = true, codec = BinaryLobCodec.class)
     private Map<String, Object> params;
 
     @Attribute(lob = true)
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.appengine.api.datastore.Key;
 import lombok.Data;
 import org.slim3.datastore.Attribute;
+import org.slim3.datastore.BinaryLobCodec;
 import org.slim3.datastore.Datastore;
 import org.slim3.datastore.Model;
 
@@ -100,7 +101,7 @@ public class MapWorker implements Serializable {
 
     private boolean complete;
 
-    @Attribute(lob = true)
+    @Attribute(lob = true, codec = BinaryLobCodec.class)
     private Map<String, Object> params;
 
     @Attribute(lob = true)
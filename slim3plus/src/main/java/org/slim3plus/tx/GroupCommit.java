@@ -0,0 +1,285 @@
+package org.slim3plus.tx;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import org.slim3.datastore.DatastoreUtil;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces the concurrent updates of an entity group in this instance.
+ *
+ * The first caller for a root key becomes the leader of a batch. It waits
+ * for the batch window, and then applies the mutations queued by the other
+ * callers in the meantime in one transaction of {@link TransactionUtil}.
+ * The mutations share a {@link GroupContext}, so each of them sees the
+ * writes of the previous ones, and all the writes are sent by one put when
+ * the transaction is committed. The future of each caller completes on the
+ * commit. If a mutation throws an exception, the transaction is rolled
+ * back, only that caller fails, and the rest of the batch is applied again.
+ *
+ * The mutations run on the thread of the leader, so they must not depend on
+ * the state of the request that submitted them. If the leader stops by an
+ * error, for example when its request runs out of time, the futures of the
+ * batch not completed yet fail with the error. The callers of
+ * {@link TransactionUtil#transaction(Key, GroupMutation, Tx)} wait for the
+ * batch at most {@link #getTimeoutMillis()}.
+ */
+public final class GroupCommit {
+
+    /**
+     * The default batch window in milliseconds.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    /**
+     * The maximum number of the mutations in a batch.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * The default time in milliseconds to wait for a batch.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private static Logger logger
+            = Logger.getLogger(GroupCommit.class.getName());
+
+    private static final ConcurrentHashMap<Key, Batch> batches
+            = new ConcurrentHashMap<Key, Batch>();
+
+    private static volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private static volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public static long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public static void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("The windowMillis parameter("
+                    + windowMillis
+                    + ") must not be negative.");
+        }
+        GroupCommit.windowMillis = windowMillis;
+    }
+
+    public static long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public static void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("The timeoutMillis parameter("
+                    + timeoutMillis
+                    + ") must be positive.");
+        }
+        GroupCommit.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Submits the mutation of the entity group of the key.
+     *
+     * @param key      a key in the entity group
+     * @param mutation the mutation
+     * @param options  the retry options of the batch transaction
+     * @return the future completed when the batch is committed
+     */
+    public static <T> Future<T> submit(Key key, GroupMutation<T> mutation, Tx options) {
+        if (key == null) {
+            throw new NullPointerException("The key parameter must not be null.");
+        }
+        if (mutation == null) {
+            throw new NullPointerException("The mutation parameter must not be null.");
+        }
+        if (options == null) {
+            throw new NullPointerException("The options parameter must not be null.");
+        }
+        final Key root = DatastoreUtil.getRoot(key);
+        final Entry<T> entry = new Entry<T>(mutation);
+        final DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+        final Transaction tx = ds.getCurrentTransaction(null);
+        if (tx != null && tx.isActive()) {
+            // 既存のトランザクション内では合流せずにそのまま適用する
+            try {
+                final GroupContext context = new GroupContext(root, ds, tx);
+                final T result = mutation.apply(context);
+                context.flush();
+                entry.future.complete(result);
+            } catch (Exception ex) {
+                entry.future.completeExceptionally(ex);
+            }
+            return entry.future;
+        }
+        while (true) {
+            Batch batch = batches.get(root);
+            if (batch == null) {
+                final Batch newBatch = new Batch(options);
+                newBatch.entries.add(entry);
+                if (batches.putIfAbsent(root, newBatch) == null) {
+                    lead(root, newBatch);
+                    return entry.future;
+                }
+                continue;
+            }
+            synchronized (batch) {
+                if (!batch.closed && batch.entries.size() < MAX_BATCH_SIZE) {
+                    batch.entries.add(entry);
+                    return entry.future;
+                }
+                while (!batch.closed) {
+                    try {
+                        batch.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        entry.future.completeExceptionally(e);
+                        return entry.future;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void lead(Key root, Batch batch) {
+        List<Entry<?>> entries = null;
+        Throwable failure = null;
+        try {
+            if (windowMillis > 0) {
+                try {
+                    Thread.sleep(windowMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            entries = close(root, batch);
+            commit(root, entries, batch.options);
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (entries == null) {
+                entries = close(root, batch);
+            }
+            if (failure == null) {
+                failure = new IllegalStateException("The batch of the entity group("
+                        + root
+                        + ") was not committed.");
+            }
+            // 完了していない future を待たせたままにしない
+            for (Entry<?> e : entries) {
+                e.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static List<Entry<?>> close(Key root, Batch batch) {
+        synchronized (batch) {
+            batch.closed = true;
+            batches.remove(root, batch);
+            batch.notifyAll();
+            return new ArrayList<Entry<?>>(batch.entries);
+        }
+    }
+
+    private static void commit(final Key root, List<Entry<?>> entries, Tx options) {
+        while (!entries.isEmpty()) {
+            final List<Entry<?>> pending = entries;
+            final int[] failedIndex = {-1};
+            final Object[] results = new Object[pending.size()];
+            try {
+                TransactionUtil.transaction(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        failedIndex[0] = -1;
+                        final DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+                        final GroupContext context
+                                = new GroupContext(root, ds, ds.getCurrentTransaction());
+                        for (int i = 0; i < pending.size(); i++) {
+                            try {
+                                results[i] = pending.get(i).mutation.apply(context);
+                            } catch (ConcurrentModificationException cme) {
+                                throw cme;
+                            } catch (Exception ex) {
+                                failedIndex[0] = i;
+                                throw ex;
+                            } catch (Error error) {
+                                // ロールバックさせるために Exception で包む
+                                throw new BatchError(error);
+                            }
+                        }
+                        context.flush();
+                        return null;
+                    }
+                }, options);
+            } catch (BatchError be) {
+                throw be.error;
+            } catch (Exception ex) {
+                if (failedIndex[0] < 0) {
+                    for (Entry<?> e : pending) {
+                        e.future.completeExceptionally(ex);
+                    }
+                    return;
+                }
+                logger.fine("The mutation of a batch failed: " + ex);
+                pending.get(failedIndex[0]).future.completeExceptionally(ex);
+                entries = new ArrayList<Entry<?>>(pending);
+                entries.remove(failedIndex[0]);
+                continue;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).complete(results[i]);
+            }
+            return;
+        }
+    }
+
+    private static class BatchError extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final Error error;
+
+        private BatchError(Error error) {
+            super(error);
+            this.error = error;
+        }
+    }
+
+    private static class Batch {
+        private final Tx options;
+        private final List<Entry<?>> entries = new ArrayList<Entry<?>>();
+        private boolean closed;
+
+        private Batch(Tx options) {
+            this.options = options;
+        }
+    }
+
+    private static class Entry<T> {
+        private final GroupMutation<T> mutation;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        private Entry(GroupMutation<T> mutation) {
+            this.mutation = mutation;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+
+    private GroupCommit() {
+    }
+}
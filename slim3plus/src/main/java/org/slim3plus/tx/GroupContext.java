@@ -0,0 +1,135 @@
+package org.slim3plus.tx;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import org.slim3.datastore.DatastoreUtil;
+import org.slim3.datastore.ModelMeta;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The view of an entity group shared by the mutations of a batch of
+ * {@link GroupCommit}.
+ *
+ * A get inside a datastore transaction does not see the puts of the same
+ * transaction, so the entities are read once in the transaction and kept in
+ * this context, and the puts and the deletes are buffered and written
+ * together when all the mutations of the batch are applied.
+ */
+public class GroupContext {
+
+    private final Key root;
+
+    private final DatastoreService ds;
+
+    private final Transaction tx;
+
+    private final Map<Key, Entity> entities = new HashMap<Key, Entity>();
+
+    private final Map<Key, Entity> puts = new LinkedHashMap<Key, Entity>();
+
+    private final Set<Key> deletes = new LinkedHashSet<Key>();
+
+    GroupContext(Key root, DatastoreService ds, Transaction tx) {
+        this.root = root;
+        this.ds = ds;
+        this.tx = tx;
+    }
+
+    /**
+     * @return the root key of the entity group
+     */
+    public Key getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns a copy of the entity, or null if it does not exist.
+     */
+    public Entity get(Key key) {
+        checkGroup(key);
+        Entity entity;
+        if (entities.containsKey(key)) {
+            entity = entities.get(key);
+        } else {
+            try {
+                entity = ds.get(tx, key);
+            } catch (EntityNotFoundException e) {
+                entity = null;
+            }
+            entities.put(key, entity);
+        }
+        return entity != null ? entity.clone() : null;
+    }
+
+    /**
+     * Returns the model, or null if it does not exist.
+     */
+    public <M> M get(ModelMeta<M> modelMeta, Key key) {
+        final Entity entity = get(key);
+        if (entity == null) {
+            return null;
+        }
+        return DatastoreUtil.getModelMeta(modelMeta, entity).entityToModel(entity);
+    }
+
+    /**
+     * Buffers the put of the entity. The key must be complete.
+     */
+    public Key put(Entity entity) {
+        final Key key = entity.getKey();
+        if (!key.isComplete()) {
+            throw new IllegalArgumentException("The key(" + key + ") must be complete.");
+        }
+        checkGroup(key);
+        final Entity copy = entity.clone();
+        entities.put(key, copy);
+        puts.put(key, copy);
+        deletes.remove(key);
+        return key;
+    }
+
+    /**
+     * Buffers the put of the model. The key of the model must be in the
+     * entity group.
+     */
+    public Key put(Object model) {
+        final AsyncDatastoreService async = DatastoreServiceFactory.getAsyncDatastoreService();
+        return put(DatastoreUtil.modelToEntity(async, model));
+    }
+
+    /**
+     * Buffers the delete of the entity.
+     */
+    public void delete(Key key) {
+        checkGroup(key);
+        entities.put(key, null);
+        puts.remove(key);
+        deletes.add(key);
+    }
+
+    void flush() {
+        if (!puts.isEmpty()) {
+            ds.put(tx, puts.values());
+        }
+        if (!deletes.isEmpty()) {
+            ds.delete(tx, deletes);
+        }
+    }
+
+    private void checkGroup(Key key) {
+        if (!root.equals(DatastoreUtil.getRoot(key))) {
+            throw new IllegalArgumentException("The key(" + key
+                    + ") is not in the entity group(" + root + ").");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.slim3plus.tx;
+
+/**
+ * An update of an entity group coalesced by {@link GroupCommit}.
+ *
+ * @param <T> the result type
+ */
+public interface GroupMutation<T> {
+
+    /**
+     * Applies the update. The entities must be read and written through the
+     * context, so the update sees the writes of the updates applied before it
+     * in the same batch.
+     *
+     * @param context the context of the batch
+     * @return the result
+     * @throws Exception if the update fails
+     */
+    T apply(GroupContext context) throws Exception;
+}
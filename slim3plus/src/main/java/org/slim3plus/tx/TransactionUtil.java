@@ -2,11 +2,14 @@ package org.slim3plus.tx;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.datastore.TransactionOptions;
 
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class TransactionUtil {
@@ -80,4 +83,29 @@ public class TransactionUtil {
             }
         }
     }
+
+    /**
+     * Applies the mutation of the entity group of the key coalescing it with
+     * the concurrent mutations of the same entity group. A
+     * {@link java.util.concurrent.TimeoutException} is thrown if the batch is
+     * not committed in {@link GroupCommit#getTimeoutMillis()}; the mutation
+     * may still be applied in that case.
+     *
+     * @see GroupCommit
+     */
+    public static <T> T transaction(Key key, GroupMutation<T> mutation, Tx options) throws Exception {
+        try {
+            return GroupCommit.submit(key, mutation, options)
+                    .get(GroupCommit.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ee;
+        }
+    }
 }
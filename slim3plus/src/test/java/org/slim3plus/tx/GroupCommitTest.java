@@ -0,0 +1,192 @@
+package org.slim3plus.tx;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.apphosting.api.ApiProxy;
+import org.junit.Test;
+import org.slim3.tester.AppEngineTestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+public class GroupCommitTest extends AppEngineTestCase {
+
+    private Key key;
+
+    private final Tx options = new TxBuilder().retry(5).build();
+
+    private final DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        key = KeyFactory.createKey("Counter", 1);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        GroupCommit.setWindowMillis(GroupCommit.DEFAULT_WINDOW_MILLIS);
+        GroupCommit.setTimeoutMillis(GroupCommit.DEFAULT_TIMEOUT_MILLIS);
+        super.tearDown();
+    }
+
+    @Test
+    public void batch() throws Exception {
+        GroupCommit.setWindowMillis(200);
+        final List<Future<Object>> futures = submitIncrements(10, -1, null);
+        final Set<Object> threads = new HashSet<Object>();
+        for (Future<Object> f : futures) {
+            threads.add(f.get());
+        }
+        assertThat(getCount(), is(10L));
+        assertThat(threads.size(), is(1));
+    }
+
+    @Test
+    public void failureIsIsolated() throws Exception {
+        GroupCommit.setWindowMillis(200);
+        final List<Future<Object>> futures = submitIncrements(10, 3, new IllegalStateException("boom"));
+        int failed = 0;
+        for (Future<Object> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage(), is("boom"));
+                failed++;
+            }
+        }
+        assertThat(failed, is(1));
+        assertThat(getCount(), is(9L));
+    }
+
+    @Test
+    public void errorFailsBatch() throws Exception {
+        GroupCommit.setWindowMillis(200);
+        final List<Future<Object>> futures = submitIncrements(5, 2, new AssertionError("fatal"));
+        for (Future<Object> f : futures) {
+            try {
+                f.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage(), is("fatal"));
+            }
+        }
+        try {
+            ds.get(key);
+            fail();
+        } catch (EntityNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void followerTimesOut() throws Exception {
+        GroupCommit.setWindowMillis(100);
+        GroupCommit.setTimeoutMillis(200);
+        final ApiProxy.Environment env = ApiProxy.getCurrentEnvironment();
+        final Future<Object> leader = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                ApiProxy.setEnvironmentForCurrentThread(env);
+                return TransactionUtil.transaction(key, new GroupMutation<Object>() {
+                    @Override
+                    public Object apply(GroupContext context) throws Exception {
+                        Thread.sleep(1000);
+                        return null;
+                    }
+                }, options);
+            }
+        });
+        Thread.sleep(20);
+        try {
+            TransactionUtil.transaction(key, increment(false, null), options);
+            fail();
+        } catch (TimeoutException expected) {
+        }
+        leader.get();
+    }
+
+    @Test
+    public void withinTransaction() throws Exception {
+        GroupCommit.setWindowMillis(1000);
+        final Transaction tx = ds.beginTransaction();
+        final long start = System.currentTimeMillis();
+        final Object thread = TransactionUtil.transaction(key, increment(false, null), options);
+        assertThat(System.currentTimeMillis() - start < 1000, is(true));
+        assertThat(thread, is((Object) Thread.currentThread().getName()));
+        tx.commit();
+        assertThat(getCount(), is(1L));
+    }
+
+    @Test
+    public void withinRolledBackTransaction() throws Exception {
+        final Transaction tx = ds.beginTransaction();
+        TransactionUtil.transaction(key, increment(false, null), options);
+        tx.rollback();
+        try {
+            ds.get(key);
+            fail();
+        } catch (EntityNotFoundException expected) {
+        }
+    }
+
+    private List<Future<Object>> submitIncrements(int size, final int failing, final Throwable failure) {
+        final ApiProxy.Environment env = ApiProxy.getCurrentEnvironment();
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    ApiProxy.setEnvironmentForCurrentThread(env);
+                    return TransactionUtil.transaction(key, increment(index == failing, failure), options);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private GroupMutation<Object> increment(final boolean fails, final Throwable failure) {
+        return new GroupMutation<Object>() {
+            @Override
+            public Object apply(GroupContext context) throws Exception {
+                Entity entity = context.get(key);
+                if (entity == null) {
+                    entity = new Entity(key);
+                    entity.setProperty("count", 0L);
+                }
+                entity.setProperty("count", (Long) entity.getProperty("count") + 1);
+                context.put(entity);
+                if (fails) {
+                    if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    throw (Exception) failure;
+                }
+                return Thread.currentThread().getName();
+            }
+        };
+    }
+
+    private long getCount() throws Exception {
+        return (Long) ds.get(key).getProperty("count");
+    }
+}